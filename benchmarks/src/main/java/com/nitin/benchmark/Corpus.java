@@ -0,0 +1,81 @@
+package com.nitin.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The benchmark inputs: context, container and component diagrams of the same system, as the LLM
+ * writes them, and LLM responses of increasing size built around them.
+ */
+public final class Corpus {
+
+    /**
+     * Responses to benchmark extraction with. Very large responses are what a model produces when it
+     * keeps explaining before writing the diagram, so the diagram comes last and the whole text is
+     * scanned for it.
+     */
+    public enum ResponseSize {
+        SMALL("context", 1),
+        MEDIUM("container", 4),
+        LARGE("component", 256);
+
+        private final String diagram;
+        private final int explanationCopies;
+
+        ResponseSize(String diagram, int explanationCopies) {
+            this.diagram = diagram;
+            this.explanationCopies = explanationCopies;
+        }
+    }
+
+    private Corpus() {
+    }
+
+    /**
+     * Returns a diagram of the corpus: {@code context}, {@code container} or {@code component}.
+     */
+    static String diagram(String name) {
+        return read(name + ".puml");
+    }
+
+    /**
+     * Returns the diagram of a response size with its body repeated once per explanation copy, for
+     * code that scans the whole diagram, such as normalization, at the scale of the responses.
+     */
+    static String diagram(ResponseSize size) {
+        String diagram = diagram(size.diagram);
+        int bodyStart = diagram.indexOf('\n') + 1;
+        int bodyEnd = diagram.lastIndexOf("@enduml");
+        String body = diagram.substring(bodyStart, bodyEnd);
+        StringBuilder scaled = new StringBuilder(diagram.substring(0, bodyStart));
+        for (int i = 0; i < size.explanationCopies; i++) {
+            scaled.append(body);
+        }
+        return scaled.append(diagram.substring(bodyEnd)).toString();
+    }
+
+    static String response(ResponseSize size) {
+        String explanation = read("explanation.md");
+        StringBuilder response = new StringBuilder("EXPLANATION:\n");
+        for (int i = 0; i < size.explanationCopies; i++) {
+            response.append(explanation).append('\n');
+        }
+        return response.append("PLANTUML:\n```plantuml\n")
+                .append(diagram(size.diagram))
+                .append("```\n\nLet me know if you want to zoom into any of these containers.\n")
+                .toString();
+    }
+
+    private static String read(String name) {
+        try (InputStream in = Corpus.class.getResourceAsStream("/corpus/" + name)) {
+            if (in == null) {
+                throw new IllegalArgumentException("No corpus file " + name);
+            }
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.nitin.benchmark;
+
+import com.nitin.service.PlantUmlExtractor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Extraction of the diagram from LLM responses of increasing size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class ExtractionBenchmark {
+
+    @Param({"SMALL", "MEDIUM", "LARGE"})
+    private Corpus.ResponseSize size;
+
+    private String response;
+
+    @Setup
+    public void setUp() {
+        response = Corpus.response(size);
+    }
+
+    @Benchmark
+    public String extract() {
+        return PlantUmlExtractor.extract(response);
+    }
+}
@@ -0,0 +1,120 @@
+package com.nitin.benchmark;
+
+import com.nitin.service.C4ModelService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * C4 normalization alone, next to the regex chain it replaced, and the full preparation of a diagram
+ * for rendering: normalization, parsing into the C4 model, validation and serialization back to
+ * PlantUML. Normalization is also measured on diagrams scaled to the extraction corpus' response
+ * sizes, which are not valid diagrams to prepare, as their aliases repeat.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class NormalizationBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Diagram {
+
+        @Param({"context", "container", "component"})
+        private String diagram;
+
+        private String source;
+        private C4ModelService c4ModelService;
+
+        @Setup
+        public void setUp() throws ReflectiveOperationException {
+            source = Corpus.diagram(diagram);
+            c4ModelService = Services.c4ModelService();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class ScaledDiagram {
+
+        @Param({"SMALL", "MEDIUM", "LARGE"})
+        private Corpus.ResponseSize size;
+
+        private String source;
+        private C4ModelService c4ModelService;
+
+        @Setup
+        public void setUp() throws ReflectiveOperationException {
+            source = Corpus.diagram(size);
+            c4ModelService = Services.c4ModelService();
+        }
+    }
+
+    @Benchmark
+    public String normalize(Diagram diagram) {
+        return diagram.c4ModelService.validateAndEnhanceC4Syntax(diagram.source);
+    }
+
+    @Benchmark
+    public String normalizeLegacy(Diagram diagram) {
+        return legacyNormalize(diagram.source);
+    }
+
+    @Benchmark
+    public String prepareForRendering(Diagram diagram) {
+        return diagram.c4ModelService.prepareForRendering(diagram.source);
+    }
+
+    @Benchmark
+    public String normalizeScaled(ScaledDiagram diagram) {
+        return diagram.c4ModelService.validateAndEnhanceC4Syntax(diagram.source);
+    }
+
+    @Benchmark
+    public String normalizeScaledLegacy(ScaledDiagram diagram) {
+        return legacyNormalize(diagram.source);
+    }
+
+    /**
+     * C4ModelService.validateAndEnhanceC4Syntax before the single-pass normalizer, as in
+     * {@code C4SourceNormalizerTest}.
+     */
+    private static String legacyNormalize(String c4Code) {
+        String enhanced = c4Code.trim();
+        enhanced = enhanced.replaceAll("([a-zA-Z]+)/([a-zA-Z0-9_]+),", "$1($2,");
+        enhanced = enhanced.replaceAll("(?i)!include\\s+<?C4_\\w+.puml>?", "");
+        if (!enhanced.startsWith("@startuml")) {
+            enhanced = "@startuml\n" + enhanced;
+        }
+        if (!enhanced.endsWith("@enduml")) {
+            enhanced = enhanced + "\n@enduml";
+        }
+        StringBuilder header = new StringBuilder();
+        boolean hasComponent = enhanced.contains("Component(");
+        boolean hasContainer = enhanced.contains("Container(");
+        boolean hasContext = enhanced.contains("System(") || enhanced.contains("Person(");
+        if (hasContext || hasContainer || hasComponent) {
+            header.append("!include C4_Context.puml\n");
+        }
+        if (hasContainer || hasComponent) {
+            header.append("!include C4_Container.puml\n");
+        }
+        if (hasComponent) {
+            header.append("!include C4_Component.puml\n");
+        }
+        if (!enhanced.contains("LAYOUT_") && !enhanced.contains("HIDE_STEREOTYPE")) {
+            header.append("LAYOUT_WITH_LEGEND()\nHIDE_STEREOTYPE()").append("\n");
+        }
+        return enhanced.replaceFirst("(?i)@startuml", "@startuml\n" + header);
+    }
+}
@@ -0,0 +1,67 @@
+package com.nitin.benchmark;
+
+import com.nitin.c4.C4IncludeResolver;
+import com.nitin.service.DiagramFormat;
+import com.nitin.service.PlantUmlService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-process rendering of prepared diagrams with the C4 library inlined, as the render pool does it,
+ * in SVG, PNG, and both from a single parse. The {@code graphviz} layout needs {@code dot} on the
+ * path; without it PlantUML renders an error image instead, which says nothing about real renders.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g", "-Djava.awt.headless=true"})
+public class RenderBenchmark {
+
+    private static final String SMETANA_PRAGMA = "!pragma layout smetana";
+
+    @Param({"context", "container", "component"})
+    private String diagram;
+
+    @Param({"SVG", "PNG", "SVG,PNG"})
+    private String formats;
+
+    @Param({"graphviz", "smetana"})
+    private String layout;
+
+    private String source;
+    private List<DiagramFormat> diagramFormats;
+
+    @Setup
+    public void setUp() throws ReflectiveOperationException {
+        String prepared = Services.c4ModelService().prepareForRendering(Corpus.diagram(diagram));
+        if ("smetana".equals(layout)) {
+            prepared = prepared.replaceFirst("@startuml\\n", "@startuml\n" + SMETANA_PRAGMA + "\n");
+        }
+        source = C4IncludeResolver.resolve(prepared).source();
+        diagramFormats = Arrays.stream(formats.split(","))
+                .map(name -> DiagramFormat.fromName(name).orElseThrow())
+                .toList();
+    }
+
+    @Benchmark
+    public Map<DiagramFormat, byte[]> render() throws IOException {
+        return PlantUmlService.export(source, diagramFormats, false);
+    }
+}
@@ -0,0 +1,27 @@
+package com.nitin.benchmark;
+
+import com.nitin.service.C4ModelService;
+
+import java.lang.reflect.Field;
+
+/**
+ * The application's services, set up the way the application configures them but without starting
+ * Spring.
+ */
+final class Services {
+
+    private Services() {
+    }
+
+    /**
+     * A {@link C4ModelService} with validation enabled, as in the default configuration.
+     */
+    static C4ModelService c4ModelService() throws ReflectiveOperationException {
+        C4ModelService service = new C4ModelService();
+        Field validationEnabled = C4ModelService.class.getDeclaredField("validationEnabled");
+        validationEnabled.setAccessible(true);
+        validationEnabled.setBoolean(service, true);
+        service.loadC4Library();
+        return service;
+    }
+}
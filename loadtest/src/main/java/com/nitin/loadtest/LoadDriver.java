@@ -0,0 +1,307 @@
+package com.nitin.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives the application's endpoints and measures their latency and throughput. Each load level
+ * runs for a warm-up period, whose requests are not measured, then for the measured duration.
+ *
+ * <p>Levels are either open-loop request rates, where requests are sent on schedule whatever the
+ * application's latency, or closed-loop concurrency, where each of N clients sends its next request
+ * when the previous one completes. Open-loop latency is measured from when a request was due, not
+ * when it was sent, so a generator that falls behind does not hide queueing. Requests rotate over
+ * the scenarios and over distinct client ids, so the per-client limit of the LLM scheduler only
+ * applies as it would to that many real users.
+ */
+final class LoadDriver {
+
+    private static final String CLIENT_ID_HEADER = "X-Client-Id";
+    private static final String[] DESIGN_REQUESTS = {
+            "Design an online bookstore with a catalogue, search, orders and payments.",
+            "Design a ride-hailing platform with drivers, riders, dispatch and billing.",
+            "Design an internet banking system for retail customers with a mobile app.",
+            "Design a video streaming service with uploads, transcoding and recommendations.",
+    };
+
+    enum Scenario {
+        DESIGN, PLANTUML, DIAGRAM;
+
+        String label() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    /**
+     * A load level: a request rate per second when {@code openLoop}, otherwise a number of clients.
+     */
+    record Level(boolean openLoop, int value) {
+        String label() {
+            return (openLoop ? "rps=" : "concurrency=") + value;
+        }
+    }
+
+    record ScenarioResult(String scenario, long requests, long succeeded, double throughput, double p50Millis,
+                          double p90Millis, double p99Millis, double p999Millis, double maxMillis,
+                          Map<String, Long> failures) {}
+
+    record LevelResult(String level, double durationSeconds, List<ScenarioResult> scenarios) {}
+
+    private final URI target;
+    private final List<Scenario> scenarios;
+    private final List<Level> levels;
+    private final Duration warmup;
+    private final Duration duration;
+    private final Duration timeout;
+    private final int clients;
+    private final boolean unique;
+    private final boolean gzip;
+    private final Path output;
+    private final String diagramSource;
+    private String diagramFilename;
+
+    private final ObjectMapper objectMapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+    private final HttpClient httpClient = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(10))
+            .executor(Executors.newVirtualThreadPerTaskExecutor())
+            .build();
+    private final AtomicLong sequence = new AtomicLong();
+
+    private LoadDriver(Arguments arguments) {
+        this.target = URI.create(arguments.string("target", "http://localhost:8080").replaceAll("/+$", ""));
+        this.scenarios = arguments.list("scenarios", "design").stream()
+                .map(name -> Scenario.valueOf(name.toUpperCase(Locale.ROOT)))
+                .toList();
+        boolean openLoop = arguments.has("rps");
+        this.levels = arguments.list(openLoop ? "rps" : "concurrency", "1").stream()
+                .map(value -> new Level(openLoop, Integer.parseInt(value)))
+                .toList();
+        this.warmup = arguments.duration("warmup", Duration.ofSeconds(10));
+        this.duration = arguments.duration("duration", Duration.ofSeconds(60));
+        this.timeout = arguments.duration("timeout", Duration.ofMinutes(5));
+        this.clients = arguments.integer("clients", 64);
+        this.unique = arguments.flag("unique", true);
+        this.gzip = arguments.flag("gzip", true);
+        this.output = arguments.has("output") ? Path.of(arguments.string("output", "")) : null;
+        this.diagramFilename = arguments.string("diagram", null);
+        this.diagramSource = readResource("/diagram.puml");
+    }
+
+    static LoadDriver fromArguments(Arguments arguments) {
+        return new LoadDriver(arguments);
+    }
+
+    void run() throws IOException, InterruptedException {
+        if (scenarios.contains(Scenario.DIAGRAM) && diagramFilename == null) {
+            diagramFilename = createDiagram();
+            System.out.println("Serving diagram " + diagramFilename);
+        }
+        List<LevelResult> results = new ArrayList<>();
+        for (Level level : levels) {
+            System.out.printf("Running %s for %ds after a %ds warm-up%n", level.label(), duration.toSeconds(), warmup.toSeconds());
+            LevelResult result = runLevel(level);
+            print(result);
+            results.add(result);
+        }
+        if (output != null) {
+            objectMapper.writeValue(output.toFile(), results);
+            System.out.println("Results written to " + output);
+        }
+    }
+
+    private LevelResult runLevel(Level level) {
+        Map<Scenario, Measurements> measurements = new EnumMap<>(Scenario.class);
+        scenarios.forEach(scenario -> measurements.put(scenario, new Measurements()));
+        long start = System.nanoTime();
+        long measureFrom = start + warmup.toNanos();
+        long end = measureFrom + duration.toNanos();
+        // Closing the executor waits for the requests still in flight, so slow ones are measured too
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            if (level.openLoop()) {
+                long interval = (long) (1e9 / level.value());
+                for (long due = start; due < end; due += interval) {
+                    sleepUntil(due);
+                    long scheduled = due;
+                    executor.execute(() -> send(scheduled, measureFrom, end, measurements));
+                }
+            } else {
+                for (int i = 0; i < level.value(); i++) {
+                    executor.execute(() -> {
+                        long sent;
+                        while ((sent = System.nanoTime()) < end && !Thread.currentThread().isInterrupted()) {
+                            send(sent, measureFrom, end, measurements);
+                        }
+                    });
+                }
+            }
+        }
+        double seconds = duration.toNanos() / 1e9;
+        List<ScenarioResult> results = new ArrayList<>();
+        measurements.forEach((scenario, measured) -> results.add(measured.result(scenario, seconds)));
+        return new LevelResult(level.label(), seconds, results);
+    }
+
+    private void send(long due, long measureFrom, long end, Map<Scenario, Measurements> measurements) {
+        long n = sequence.getAndIncrement();
+        Scenario scenario = scenarios.get((int) (n % scenarios.size()));
+        String outcome;
+        try {
+            HttpResponse<String> response = httpClient.send(request(scenario, n), HttpResponse.BodyHandlers.ofString());
+            outcome = outcome(scenario, response);
+        } catch (HttpTimeoutException e) {
+            outcome = "timeout";
+        } catch (IOException e) {
+            outcome = "io-error";
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        if (due >= measureFrom && due < end) {
+            measurements.get(scenario).record(outcome, System.nanoTime() - due);
+        }
+    }
+
+    private HttpRequest request(Scenario scenario, long n) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder()
+                .timeout(timeout)
+                .header(CLIENT_ID_HEADER, "loadtest-" + n % clients);
+        String variant = unique ? "request " + n : "load test";
+        return switch (scenario) {
+            case DESIGN -> {
+                String request = DESIGN_REQUESTS[(int) (n % DESIGN_REQUESTS.length)] + (unique ? " (" + variant + ")" : "");
+                yield builder.uri(target.resolve("/api/design"))
+                        .header("Content-Type", "application/json")
+                        .POST(json(objectMapper.createObjectNode().put("request", request)))
+                        .build();
+            }
+            case PLANTUML -> builder.uri(target.resolve("/api/plantuml/generate"))
+                    .header("Content-Type", "application/json")
+                    .POST(json(objectMapper.createObjectNode().put("umlCode", diagramSource.replace("{title}", variant))))
+                    .build();
+            case DIAGRAM -> builder.uri(target.resolve("/diagram/" + diagramFilename))
+                    .header("Accept-Encoding", gzip ? "gzip" : "identity")
+                    .GET()
+                    .build();
+        };
+    }
+
+    /**
+     * {@code ok} for a successful response; otherwise the status code, or {@code design-failed} for a
+     * design the application answered but could not produce.
+     */
+    private static String outcome(Scenario scenario, HttpResponse<String> response) {
+        if (response.statusCode() / 100 != 2) {
+            return String.valueOf(response.statusCode());
+        }
+        if (scenario == Scenario.DESIGN && !response.body().contains("\"success\":true")) {
+            return "design-failed";
+        }
+        return "ok";
+    }
+
+    private String createDiagram() throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(target.resolve("/api/design"))
+                .timeout(timeout)
+                .header("Content-Type", "application/json")
+                .POST(json(objectMapper.createObjectNode().put("request", DESIGN_REQUESTS[0])))
+                .build();
+        HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+        JsonNode filename = objectMapper.readTree(response.body()).path("diagramFilename");
+        if (response.statusCode() != 200 || !filename.isTextual()) {
+            throw new IllegalStateException("Could not create a diagram to serve: " + response.statusCode() + " " + response.body());
+        }
+        return filename.asText();
+    }
+
+    private HttpRequest.BodyPublisher json(JsonNode body) {
+        try {
+            return HttpRequest.BodyPublishers.ofString(objectMapper.writeValueAsString(body));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void print(LevelResult result) {
+        for (ScenarioResult scenario : result.scenarios()) {
+            System.out.printf("%-18s %-9s requests=%-6d ok=%-6d %8.2f req/s  p50=%9.1fms p90=%9.1fms p99=%9.1fms p999=%9.1fms max=%9.1fms%s%n",
+                    result.level(), scenario.scenario(), scenario.requests(), scenario.succeeded(), scenario.throughput(),
+                    scenario.p50Millis(), scenario.p90Millis(), scenario.p99Millis(), scenario.p999Millis(), scenario.maxMillis(),
+                    scenario.failures().isEmpty() ? "" : "  failures=" + scenario.failures());
+        }
+    }
+
+    private static void sleepUntil(long deadline) {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+
+    private static String readResource(String name) {
+        try (InputStream in = LoadDriver.class.getResourceAsStream(name)) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * The measured requests of one scenario: latencies of successful ones, counts of the others.
+     */
+    private static final class Measurements {
+        private final Histogram latencies = new ConcurrentHistogram(3);
+        private final Map<String, LongAdder> failures = new ConcurrentHashMap<>();
+        private final LongAdder requests = new LongAdder();
+
+        void record(String outcome, long nanos) {
+            requests.increment();
+            if ("ok".equals(outcome)) {
+                latencies.recordValue(nanos);
+            } else {
+                failures.computeIfAbsent(outcome, key -> new LongAdder()).increment();
+            }
+        }
+
+        ScenarioResult result(Scenario scenario, double seconds) {
+            Map<String, Long> failureCounts = new TreeMap<>();
+            failures.forEach((outcome, count) -> failureCounts.put(outcome, count.sum()));
+            long succeeded = latencies.getTotalCount();
+            return new ScenarioResult(scenario.label(), requests.sum(), succeeded, succeeded / seconds,
+                    millis(latencies.getValueAtPercentile(50)), millis(latencies.getValueAtPercentile(90)),
+                    millis(latencies.getValueAtPercentile(99)), millis(latencies.getValueAtPercentile(99.9)),
+                    millis(latencies.getMaxValue()), failureCounts);
+        }
+
+        private static double millis(long nanos) {
+            return nanos / 1e6;
+        }
+    }
+}
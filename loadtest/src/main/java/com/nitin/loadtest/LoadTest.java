@@ -0,0 +1,66 @@
+package com.nitin.loadtest;
+
+import java.util.Arrays;
+
+/**
+ * Entry point of the load-test harness.
+ *
+ * <pre>
+ * java -jar loadtest.jar stub [--port 8081] [stub options]
+ * java -jar loadtest.jar run [--stub-port 8081 [stub options]] [driver options]
+ * </pre>
+ *
+ * {@code run} with {@code --stub-port} starts the stub in the same process, so the application only
+ * needs its {@code llama.base-url} pointed at it.
+ */
+public final class LoadTest {
+
+    private static final String USAGE = """
+            Usage:
+              stub  Start a stub llama.cpp server
+                    --port 8081 --slots 1 --tokens-per-second 30 --time-to-first-token PT0.5S
+                    --prefill-tokens-per-second 0 --error-rate 0 --error-status 500 --responses <directory>
+              run   Drive the application and report latency and throughput
+                    --target http://localhost:8080 --scenarios design,plantuml,diagram
+                    --rps 1,2,4 | --concurrency 1,2,4 --warmup PT10S --duration PT60S --timeout PT5M
+                    --clients 64 --unique true --gzip true --diagram <filename> --output results.json
+                    --stub-port 8081 starts the stub too, with the stub options
+            """;
+
+    private LoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.err.print(USAGE);
+            System.exit(2);
+        }
+        Arguments arguments = new Arguments(Arrays.copyOfRange(args, 1, args.length));
+        switch (args[0]) {
+            case "stub" -> {
+                StubLlamaServer stub = StubLlamaServer.fromArguments(arguments);
+                stub.start(arguments.integer("port", 8081));
+                Runtime.getRuntime().addShutdownHook(new Thread(stub::stop));
+                Thread.currentThread().join();
+            }
+            case "run" -> {
+                StubLlamaServer stub = null;
+                if (arguments.has("stub-port")) {
+                    stub = StubLlamaServer.fromArguments(arguments);
+                    stub.start(arguments.integer("stub-port", 8081));
+                }
+                try {
+                    LoadDriver.fromArguments(arguments).run();
+                } finally {
+                    if (stub != null) {
+                        stub.stop();
+                    }
+                }
+            }
+            default -> {
+                System.err.print(USAGE);
+                System.exit(2);
+            }
+        }
+    }
+}
@@ -0,0 +1,330 @@
+package com.nitin.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+
+/**
+ * A stand-in for a llama.cpp server that replays recorded LLM responses with the timing of a real
+ * one. It serves the native {@code /completion} API and the OpenAI-compatible chat completions API,
+ * streaming or not, plus {@code /health} and {@code /v1/models}.
+ *
+ * <p>Like llama.cpp, it decodes at most {@code slots} requests at a time and queues the rest. A
+ * request holding a slot first waits the time to first token, plus prompt processing when a prefill
+ * rate is set, then produces tokens at the token rate. A fraction of requests fails straight away
+ * with the configured status, to exercise the application's error handling.
+ */
+final class StubLlamaServer {
+
+    private static final String[] BUILT_IN_RESPONSES = {"context.md", "container.md", "component.md"};
+    private static final int CHARS_PER_TOKEN = 4;
+
+    private final int slots;
+    private final double tokensPerSecond;
+    private final Duration timeToFirstToken;
+    private final double prefillTokensPerSecond;
+    private final double errorRate;
+    private final int errorStatus;
+    private final List<String> responses;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Semaphore slotPermits;
+    private final AtomicInteger processing = new AtomicInteger();
+    private final AtomicInteger nextResponse = new AtomicInteger();
+    private final AtomicLong served = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private HttpServer server;
+
+    StubLlamaServer(int slots, double tokensPerSecond, Duration timeToFirstToken, double prefillTokensPerSecond,
+                    double errorRate, int errorStatus, List<String> responses) {
+        if (responses.isEmpty()) {
+            throw new IllegalArgumentException("No recorded responses to replay");
+        }
+        this.slots = slots;
+        this.tokensPerSecond = tokensPerSecond;
+        this.timeToFirstToken = timeToFirstToken;
+        this.prefillTokensPerSecond = prefillTokensPerSecond;
+        this.errorRate = errorRate;
+        this.errorStatus = errorStatus;
+        this.responses = responses;
+        this.slotPermits = new Semaphore(slots, true);
+    }
+
+    static StubLlamaServer fromArguments(Arguments arguments) throws IOException {
+        List<String> responses = arguments.has("responses")
+                ? readResponses(Path.of(arguments.string("responses", "")))
+                : builtInResponses();
+        return new StubLlamaServer(
+                arguments.integer("slots", 1),
+                arguments.decimal("tokens-per-second", 30),
+                arguments.duration("time-to-first-token", Duration.ofMillis(500)),
+                arguments.decimal("prefill-tokens-per-second", 0),
+                arguments.decimal("error-rate", 0),
+                arguments.integer("error-status", 500),
+                responses);
+    }
+
+    void start(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(port), 256);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.createContext("/health", this::health);
+        server.createContext("/v1/models", this::models);
+        server.createContext("/completion", exchange -> complete(exchange, Dialect.NATIVE));
+        server.createContext("/chat/completions", exchange -> complete(exchange, Dialect.OPENAI));
+        server.createContext("/v1/chat/completions", exchange -> complete(exchange, Dialect.OPENAI));
+        server.start();
+        System.out.printf("Stub llama.cpp server on port %d: %d slot(s), %.1f tokens/s, %d ms to first token, "
+                        + "error rate %.3f, %d recorded response(s)%n",
+                port, slots, tokensPerSecond, timeToFirstToken.toMillis(), errorRate, responses.size());
+    }
+
+    void stop() {
+        server.stop(0);
+        System.out.printf("Stub llama.cpp server served %d completion(s), failed %d%n", served.get(), failed.get());
+    }
+
+    private enum Dialect { NATIVE, OPENAI }
+
+    private void health(HttpExchange exchange) throws IOException {
+        ObjectNode body = objectMapper.createObjectNode()
+                .put("status", "ok")
+                .put("slots_idle", slots - processing.get())
+                .put("slots_processing", processing.get());
+        send(exchange, 200, body);
+    }
+
+    private void models(HttpExchange exchange) throws IOException {
+        ObjectNode body = objectMapper.createObjectNode().put("object", "list");
+        body.putArray("data").addObject().put("id", "stub").put("object", "model");
+        send(exchange, 200, body);
+    }
+
+    private void complete(HttpExchange exchange, Dialect dialect) throws IOException {
+        try (exchange) {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            JsonNode request = objectMapper.readTree(exchange.getRequestBody());
+            if (ThreadLocalRandom.current().nextDouble() < errorRate) {
+                failed.incrementAndGet();
+                ObjectNode body = objectMapper.createObjectNode();
+                body.putObject("error").put("code", errorStatus).put("message", "Injected failure").put("type", "server_error");
+                send(exchange, errorStatus, body);
+                return;
+            }
+            Generation generation = new Generation(dialect, request, nextResponse());
+            slotPermits.acquireUninterruptibly();
+            processing.incrementAndGet();
+            try {
+                generation.run(exchange);
+                served.incrementAndGet();
+            } catch (IOException e) {
+                // The client went away mid-stream
+            } finally {
+                processing.decrementAndGet();
+                slotPermits.release();
+            }
+        }
+    }
+
+    private String nextResponse() {
+        return responses.get(Math.floorMod(nextResponse.getAndIncrement(), responses.size()));
+    }
+
+    /**
+     * One completion: the response split into tokens, cut at the request's token limit.
+     */
+    private final class Generation {
+        private final Dialect dialect;
+        private final boolean stream;
+        private final int slot;
+        private final int promptTokens;
+        private final List<String> tokens = new ArrayList<>();
+        private final boolean truncated;
+
+        Generation(Dialect dialect, JsonNode request, String response) {
+            this.dialect = dialect;
+            this.stream = request.path("stream").asBoolean(false);
+            this.slot = request.path("id_slot").asInt(-1);
+            String prompt;
+            int maxTokens;
+            if (dialect == Dialect.NATIVE) {
+                prompt = request.path("prompt").asText("");
+                maxTokens = request.path("n_predict").asInt(-1);
+            } else {
+                StringBuilder messages = new StringBuilder();
+                request.path("messages").forEach(message -> messages.append(message.path("content").asText("")));
+                prompt = messages.toString();
+                maxTokens = request.path("max_tokens").asInt(-1);
+            }
+            this.promptTokens = Math.max(1, prompt.length() / CHARS_PER_TOKEN);
+            for (int i = 0; i < response.length(); i += CHARS_PER_TOKEN) {
+                tokens.add(response.substring(i, Math.min(response.length(), i + CHARS_PER_TOKEN)));
+            }
+            this.truncated = maxTokens > 0 && tokens.size() > maxTokens;
+            if (truncated) {
+                tokens.subList(maxTokens, tokens.size()).clear();
+            }
+        }
+
+        void run(HttpExchange exchange) throws IOException {
+            long start = System.nanoTime();
+            long prefillNanos = timeToFirstToken.toNanos()
+                    + (prefillTokensPerSecond > 0 ? (long) (promptTokens * 1e9 / prefillTokensPerSecond) : 0);
+            long firstToken = start + prefillNanos;
+            long tokenNanos = tokensPerSecond > 0 ? (long) (1e9 / tokensPerSecond) : 0;
+            if (!stream) {
+                sleepUntil(firstToken + tokens.size() * tokenNanos);
+                send(exchange, 200, complete(String.join("", tokens), prefillNanos, System.nanoTime() - firstToken));
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+            exchange.sendResponseHeaders(200, 0);
+            OutputStream out = exchange.getResponseBody();
+            for (int i = 0; i < tokens.size(); i++) {
+                sleepUntil(firstToken + i * tokenNanos);
+                event(out, chunk(tokens.get(i)));
+            }
+            event(out, last(prefillNanos, System.nanoTime() - firstToken));
+            if (dialect == Dialect.OPENAI) {
+                out.write("data: [DONE]\n\n".getBytes(StandardCharsets.UTF_8));
+            }
+            out.flush();
+        }
+
+        private ObjectNode complete(String content, long prefillNanos, long generationNanos) {
+            if (dialect == Dialect.NATIVE) {
+                return nativeFinal(content, prefillNanos, generationNanos);
+            }
+            ObjectNode body = openAi("chat.completion");
+            ObjectNode choice = body.putArray("choices").addObject().put("index", 0);
+            choice.putObject("message").put("role", "assistant").put("content", content);
+            choice.put("finish_reason", finishReason());
+            usage(body);
+            return body;
+        }
+
+        private ObjectNode chunk(String token) {
+            if (dialect == Dialect.NATIVE) {
+                return objectMapper.createObjectNode().put("content", token).put("stop", false);
+            }
+            ObjectNode body = openAi("chat.completion.chunk");
+            ObjectNode choice = body.putArray("choices").addObject().put("index", 0);
+            choice.putObject("delta").put("content", token);
+            choice.putNull("finish_reason");
+            return body;
+        }
+
+        private ObjectNode last(long prefillNanos, long generationNanos) {
+            if (dialect == Dialect.NATIVE) {
+                return nativeFinal("", prefillNanos, generationNanos);
+            }
+            ObjectNode body = openAi("chat.completion.chunk");
+            ObjectNode choice = body.putArray("choices").addObject().put("index", 0);
+            choice.putObject("delta");
+            choice.put("finish_reason", finishReason());
+            usage(body);
+            return body;
+        }
+
+        private ObjectNode nativeFinal(String content, long prefillNanos, long generationNanos) {
+            ObjectNode body = objectMapper.createObjectNode()
+                    .put("content", content)
+                    .put("stop", true)
+                    .put("stopped_limit", truncated)
+                    .put("id_slot", slot)
+                    .put("tokens_evaluated", promptTokens)
+                    .put("tokens_predicted", tokens.size());
+            body.putObject("timings")
+                    .put("prompt_n", promptTokens)
+                    .put("prompt_ms", prefillNanos / 1e6)
+                    .put("predicted_n", tokens.size())
+                    .put("predicted_ms", generationNanos / 1e6);
+            return body;
+        }
+
+        private ObjectNode openAi(String object) {
+            return objectMapper.createObjectNode()
+                    .put("id", "chatcmpl-stub")
+                    .put("object", object)
+                    .put("created", TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()))
+                    .put("model", "stub");
+        }
+
+        private void usage(ObjectNode body) {
+            body.putObject("usage")
+                    .put("prompt_tokens", promptTokens)
+                    .put("completion_tokens", tokens.size())
+                    .put("total_tokens", promptTokens + tokens.size());
+        }
+
+        private String finishReason() {
+            return truncated ? "length" : "stop";
+        }
+
+        private void event(OutputStream out, ObjectNode data) throws IOException {
+            out.write(("data: " + objectMapper.writeValueAsString(data) + "\n\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+        }
+    }
+
+    private void send(HttpExchange exchange, int status, JsonNode body) throws IOException {
+        byte[] bytes = objectMapper.writeValueAsBytes(body);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+        exchange.close();
+    }
+
+    private static void sleepUntil(long deadline) {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+
+    private static List<String> readResponses(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            List<String> responses = new ArrayList<>();
+            for (Path file : files.filter(Files::isRegularFile).sorted().toList()) {
+                responses.add(Files.readString(file));
+            }
+            return responses;
+        }
+    }
+
+    private static List<String> builtInResponses() {
+        List<String> responses = new ArrayList<>();
+        for (String name : BUILT_IN_RESPONSES) {
+            try (InputStream in = StubLlamaServer.class.getResourceAsStream("/responses/" + name)) {
+                responses.add(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return responses;
+    }
+}
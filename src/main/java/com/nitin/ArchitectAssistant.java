@@ -2,8 +2,10 @@ package com.nitin;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@EnableScheduling
 public class ArchitectAssistant {
     public static void main(String[] args){
         SpringApplication.run(ArchitectAssistant.class, args);
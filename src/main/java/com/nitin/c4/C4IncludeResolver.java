@@ -0,0 +1,103 @@
+package com.nitin.c4;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Replaces the {@code !include} lines of the bundled C4 library ({@code C4_Context.puml} and its
+ * siblings, with or without {@code ./} or angle brackets) by the library text held in
+ * {@link C4Library}, so PlantUML renders C4 diagrams without reading include files. Like PlantUML's
+ * own {@code !include}, each file is inlined at most once. Other includes are left to PlantUML.
+ */
+public final class C4IncludeResolver {
+
+    private C4IncludeResolver() {
+    }
+
+    /**
+     * A source with the C4 includes inlined.
+     *
+     * @param originalLines the line of the original source each line came from, 1-based; lines of an
+     *                      inlined file map to its {@code !include} line
+     */
+    public record Resolved(String source, int[] originalLines) {
+
+        /**
+         * The original source line of a 1-based line of the resolved source.
+         */
+        public int originalLine(int line) {
+            if (originalLines.length == 0) {
+                return line;
+            }
+            return originalLines[Math.max(0, Math.min(line, originalLines.length) - 1)];
+        }
+    }
+
+    public static Resolved resolve(String source) {
+        if (!source.contains("!include")) {
+            return new Resolved(source, new int[0]);
+        }
+        Run run = new Run(source.length());
+        int lineNumber = 0;
+        for (String line : (Iterable<String>) source.lines()::iterator) {
+            run.append(line, ++lineNumber);
+        }
+        return new Resolved(run.out.toString(), Arrays.copyOf(run.originalLines, run.lines));
+    }
+
+    private static final class Run {
+        final StringBuilder out;
+        final Set<String> included = new HashSet<>();
+        int[] originalLines = new int[256];
+        int lines;
+
+        Run(int sourceLength) {
+            this.out = new StringBuilder(sourceLength + 128 * 1024);
+        }
+
+        void append(String line, int originalLine) {
+            String file = libraryInclude(line);
+            if (file == null) {
+                out.append(line).append('\n');
+                if (lines == originalLines.length) {
+                    originalLines = Arrays.copyOf(originalLines, lines * 2);
+                }
+                originalLines[lines++] = originalLine;
+                return;
+            }
+            if (included.add(file)) {
+                for (String libraryLine : (Iterable<String>) C4Library.source(file).lines()::iterator) {
+                    append(libraryLine, originalLine);
+                }
+            }
+        }
+    }
+
+    /**
+     * The library file a line includes, lower-cased, or {@code null} if it is not such an include.
+     */
+    private static String libraryInclude(String line) {
+        String text = line.strip();
+        if (!text.regionMatches(true, 0, "!include", 0, 8)) {
+            return null;
+        }
+        int nameStart = 8;
+        if (text.regionMatches(true, nameStart, "_once", 0, 5)) {
+            nameStart += 5;
+        }
+        if (nameStart == text.length() || !Character.isWhitespace(text.charAt(nameStart))) {
+            return null;
+        }
+        String target = text.substring(nameStart).strip();
+        if (target.startsWith("<") && target.endsWith(">")) {
+            target = target.substring(1, target.length() - 1).strip();
+        }
+        if (target.startsWith("./")) {
+            target = target.substring(2);
+        }
+        String file = target.toLowerCase(Locale.ROOT);
+        return C4Library.source(file) != null ? file : null;
+    }
+}
@@ -0,0 +1,70 @@
+package com.nitin.c4;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The C4-PlantUML library bundled under {@code resources/plantuml/c4}, read once: the text of its
+ * files, for {@link C4IncludeResolver}, and the names of the procedures and functions they define.
+ */
+public final class C4Library {
+
+    private static final List<String> FILES = List.of("C4.puml", "C4_Context.puml", "C4_Container.puml", "C4_Component.puml");
+    private static final Pattern DEFINITION = Pattern.compile(
+            "^\\s*!(?:unquoted\\s+)?(?:procedure|function)\\s+(\\$?[A-Za-z_][A-Za-z0-9_]*)\\s*\\(", Pattern.MULTILINE);
+
+    private static final Map<String, String> SOURCES = load();
+    private static final Set<String> MACROS = definedNames(SOURCES.values());
+
+    private C4Library() {
+    }
+
+    public static boolean isDefined(String name) {
+        return MACROS.contains(name);
+    }
+
+    /**
+     * Returns the text of a library file, matched case-insensitively by file name, or {@code null}
+     * if the library has no such file.
+     */
+    public static String source(String fileName) {
+        return SOURCES.get(fileName.toLowerCase(Locale.ROOT));
+    }
+
+    private static Map<String, String> load() {
+        Map<String, String> sources = new HashMap<>();
+        for (String file : FILES) {
+            try (InputStream in = C4Library.class.getClassLoader().getResourceAsStream("plantuml/c4/" + file)) {
+                if (in == null) {
+                    throw new IllegalStateException("C4 library file plantuml/c4/" + file + " is missing");
+                }
+                sources.put(file.toLowerCase(Locale.ROOT), new String(in.readAllBytes(), StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return Map.copyOf(sources);
+    }
+
+    private static Set<String> definedNames(Collection<String> sources) {
+        Set<String> names = new HashSet<>();
+        for (String source : sources) {
+            Matcher matcher = DEFINITION.matcher(source);
+            while (matcher.find()) {
+                names.add(matcher.group(1));
+            }
+        }
+        return Set.copyOf(names);
+    }
+}
@@ -0,0 +1,279 @@
+package com.nitin.c4;
+
+import com.nitin.service.C4ModelService.C4DiagramType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Typed model of a C4-PlantUML diagram, as produced by {@link C4Parser}. Statements keep their
+ * source order, boundaries hold their children, and everything that is not a C4 statement (titles,
+ * skinparams, notes, preprocessor lines) is kept verbatim, so {@link #toPlantUml()} can write the
+ * diagram back as canonical PlantUML.
+ */
+public record C4Model(String name, List<Node> nodes, List<C4Problem> syntaxProblems) {
+
+    private static final String INDENT = "    ";
+
+    public enum ElementType {
+        PERSON("Person", C4DiagramType.CONTEXT),
+        PERSON_EXT("Person_Ext", C4DiagramType.CONTEXT),
+        SYSTEM("System", C4DiagramType.CONTEXT),
+        SYSTEM_EXT("System_Ext", C4DiagramType.CONTEXT),
+        SYSTEM_DB("SystemDb", C4DiagramType.CONTEXT),
+        SYSTEM_DB_EXT("SystemDb_Ext", C4DiagramType.CONTEXT),
+        SYSTEM_QUEUE("SystemQueue", C4DiagramType.CONTEXT),
+        SYSTEM_QUEUE_EXT("SystemQueue_Ext", C4DiagramType.CONTEXT),
+        CONTAINER("Container", C4DiagramType.CONTAINER),
+        CONTAINER_EXT("Container_Ext", C4DiagramType.CONTAINER),
+        CONTAINER_DB("ContainerDb", C4DiagramType.CONTAINER),
+        CONTAINER_DB_EXT("ContainerDb_Ext", C4DiagramType.CONTAINER),
+        CONTAINER_QUEUE("ContainerQueue", C4DiagramType.CONTAINER),
+        CONTAINER_QUEUE_EXT("ContainerQueue_Ext", C4DiagramType.CONTAINER),
+        COMPONENT("Component", C4DiagramType.COMPONENT),
+        COMPONENT_EXT("Component_Ext", C4DiagramType.COMPONENT),
+        COMPONENT_DB("ComponentDb", C4DiagramType.COMPONENT),
+        COMPONENT_DB_EXT("ComponentDb_Ext", C4DiagramType.COMPONENT),
+        COMPONENT_QUEUE("ComponentQueue", C4DiagramType.COMPONENT),
+        COMPONENT_QUEUE_EXT("ComponentQueue_Ext", C4DiagramType.COMPONENT);
+
+        private static final Map<String, ElementType> BY_MACRO = Arrays.stream(values())
+                .collect(Collectors.toMap(ElementType::macro, Function.identity()));
+
+        private final String macro;
+        private final C4DiagramType level;
+
+        ElementType(String macro, C4DiagramType level) {
+            this.macro = macro;
+            this.level = level;
+        }
+
+        public String macro() { return macro; }
+        public C4DiagramType level() { return level; }
+
+        public static ElementType fromMacro(String macro) {
+            return BY_MACRO.get(macro);
+        }
+    }
+
+    public enum BoundaryType {
+        BOUNDARY("Boundary", C4DiagramType.CONTEXT),
+        ENTERPRISE_BOUNDARY("Enterprise_Boundary", C4DiagramType.CONTEXT),
+        SYSTEM_BOUNDARY("System_Boundary", C4DiagramType.CONTEXT),
+        CONTAINER_BOUNDARY("Container_Boundary", C4DiagramType.CONTAINER);
+
+        private static final Map<String, BoundaryType> BY_MACRO = Arrays.stream(values())
+                .collect(Collectors.toMap(BoundaryType::macro, Function.identity()));
+
+        private final String macro;
+        private final C4DiagramType level;
+
+        BoundaryType(String macro, C4DiagramType level) {
+            this.macro = macro;
+            this.level = level;
+        }
+
+        public String macro() { return macro; }
+        public C4DiagramType level() { return level; }
+
+        public static BoundaryType fromMacro(String macro) {
+            return BY_MACRO.get(macro);
+        }
+    }
+
+    public sealed interface Node permits Element, Boundary, Relationship, Macro, Raw {
+        int line();
+    }
+
+    /** {@code Container(alias, "Label", "Technology", "Description")} and the other element macros. */
+    public record Element(ElementType type, String alias, List<String> arguments, int line) implements Node {
+        public String label() {
+            return arguments.size() > 1 ? unquote(arguments.get(1)) : "";
+        }
+    }
+
+    /** {@code System_Boundary(alias, "Label") { ... }} and the other boundary macros. */
+    public record Boundary(BoundaryType type, String alias, List<String> arguments, List<Node> children, int line) implements Node {
+        public String label() {
+            return arguments.size() > 1 ? unquote(arguments.get(1)) : "";
+        }
+    }
+
+    /** {@code Rel}, {@code BiRel} and {@code Lay_} macros; {@code arguments} start with the two aliases. */
+    public record Relationship(String macro, String from, String to, List<String> arguments, int line) implements Node {}
+
+    /** Any other macro call, such as {@code LAYOUT_WITH_LEGEND()}; {@code children} is null without a block. */
+    public record Macro(String name, List<String> arguments, List<Node> children, int line) implements Node {}
+
+    /** A line that is not a macro call, kept verbatim; {@code children} is null unless it opens a block. */
+    public record Raw(String text, List<Node> children, int line) implements Node {}
+
+    /**
+     * Calls the action for every node, parents before their children.
+     */
+    public void visit(Consumer<Node> action) {
+        forEach(nodes, action);
+    }
+
+    public List<Element> elements() {
+        List<Element> elements = new ArrayList<>();
+        forEach(nodes, node -> {
+            if (node instanceof Element element) {
+                elements.add(element);
+            }
+        });
+        return elements;
+    }
+
+    public List<Relationship> relationships() {
+        List<Relationship> relationships = new ArrayList<>();
+        forEach(nodes, node -> {
+            if (node instanceof Relationship relationship) {
+                relationships.add(relationship);
+            }
+        });
+        return relationships;
+    }
+
+    /**
+     * The C4 level the diagram needs: the most detailed level among its elements and boundaries.
+     */
+    public C4DiagramType level() {
+        C4DiagramType[] level = {C4DiagramType.CONTEXT};
+        forEach(nodes, node -> {
+            C4DiagramType nodeLevel = switch (node) {
+                case Element element -> element.type().level();
+                case Boundary boundary -> boundary.type().level();
+                default -> C4DiagramType.CONTEXT;
+            };
+            if (nodeLevel.compareTo(level[0]) > 0) {
+                level[0] = nodeLevel;
+            }
+        });
+        return level[0];
+    }
+
+    /**
+     * Writes the model as canonical PlantUML: one statement per line, four-space indentation per
+     * block, arguments separated by {@code ", "}, and a single include of the C4 level needed.
+     */
+    public String toPlantUml() {
+        StringBuilder out = new StringBuilder(256 + nodes.size() * 64);
+        out.append("@startuml");
+        if (name != null && !name.isEmpty()) {
+            out.append(' ').append(name);
+        }
+        out.append('\n');
+        out.append("!include C4_").append(switch (level()) {
+            case CONTEXT -> "Context";
+            case CONTAINER -> "Container";
+            case COMPONENT -> "Component";
+        }).append(".puml\n");
+        write(out, nodes, 0);
+        out.append("@enduml\n");
+        return out.toString();
+    }
+
+    private static void write(StringBuilder out, List<Node> nodes, int depth) {
+        for (Node node : nodes) {
+            out.append(INDENT.repeat(depth));
+            List<Node> children = switch (node) {
+                case Element element -> {
+                    call(out, element.type().macro(), element.arguments());
+                    yield null;
+                }
+                case Boundary boundary -> {
+                    call(out, boundary.type().macro(), boundary.arguments());
+                    yield boundary.children();
+                }
+                case Relationship relationship -> {
+                    call(out, relationship.macro(), relationship.arguments());
+                    yield null;
+                }
+                case Macro macro -> {
+                    call(out, macro.name(), macro.arguments());
+                    yield macro.children();
+                }
+                case Raw raw -> {
+                    out.append(raw.text());
+                    yield raw.children();
+                }
+            };
+            if (children == null) {
+                out.append('\n');
+                continue;
+            }
+            if (!(node instanceof Raw)) {
+                out.append(" {");
+            }
+            out.append('\n');
+            write(out, children, depth + 1);
+            out.append(INDENT.repeat(depth)).append("}\n");
+        }
+    }
+
+    private static void call(StringBuilder out, String name, List<String> arguments) {
+        out.append(name).append('(');
+        for (int i = 0; i < arguments.size(); i++) {
+            if (i > 0) {
+                out.append(", ");
+            }
+            out.append(arguments.get(i));
+        }
+        out.append(')');
+    }
+
+    static void forEach(List<Node> nodes, Consumer<Node> action) {
+        for (Node node : nodes) {
+            action.accept(node);
+            List<Node> children = switch (node) {
+                case Boundary boundary -> boundary.children();
+                case Macro macro -> macro.children();
+                case Raw raw -> raw.children();
+                default -> null;
+            };
+            if (children != null) {
+                forEach(children, action);
+            }
+        }
+    }
+
+    /**
+     * Whether the argument is a keyword argument such as {@code $tags="db"}, as opposed to a
+     * positional argument that happens to be a {@code $variable}.
+     */
+    static boolean isKeywordArgument(String argument) {
+        String value = argument.strip();
+        if (!value.startsWith("$")) {
+            return false;
+        }
+        int i = 1;
+        while (i < value.length() && (Character.isLetterOrDigit(value.charAt(i)) || value.charAt(i) == '_')) {
+            i++;
+        }
+        int nameEnd = i;
+        while (i < value.length() && Character.isWhitespace(value.charAt(i))) {
+            i++;
+        }
+        // "$a == $b" is a comparison, not an assignment
+        return nameEnd > 1 && !Character.isDigit(value.charAt(1)) && i < value.length() && value.charAt(i) == '='
+                && (i + 1 == value.length() || value.charAt(i + 1) != '=');
+    }
+
+    static String unquote(String argument) {
+        String value = argument.trim();
+        int equals = isKeywordArgument(value) ? value.indexOf('=') : -1;
+        if (equals != -1) {
+            value = value.substring(equals + 1).trim();
+        }
+        if (value.length() >= 2 && value.charAt(0) == '"' && value.charAt(value.length() - 1) == '"') {
+            return value.substring(1, value.length() - 1);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,313 @@
+package com.nitin.c4;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Line-oriented parser from C4-PlantUML source to a {@link C4Model}. Macro calls that span several
+ * lines are joined until their parentheses balance. Comments, blank lines and the C4 includes are
+ * dropped; the serializer adds the include the model needs. Structural problems (unbalanced braces,
+ * unterminated strings or calls) are recorded on the model instead of failing the parse.
+ */
+public final class C4Parser {
+
+    private C4Parser() {
+    }
+
+    public static C4Model parse(String source) {
+        return parse(source, IntUnaryOperator.identity());
+    }
+
+    /**
+     * Parses the source, reporting line numbers through {@code lineMapper}, for sources that were
+     * rewritten before parsing.
+     */
+    public static C4Model parse(String source, IntUnaryOperator lineMapper) {
+        return new Run(source, lineMapper).parse();
+    }
+
+    /**
+     * Parses one complete statement, such as a line of a diagram still being streamed, into its node.
+     * A block the statement opens is closed empty. Returns null for a line that is not a statement of
+     * its own, such as a comment or a closing '}'.
+     */
+    public static C4Model.Node parseStatement(String statement) {
+        List<C4Model.Node> nodes = parse(statement).nodes();
+        return nodes.size() == 1 ? nodes.get(0) : null;
+    }
+
+    /**
+     * Whether the text is a macro call whose closing parenthesis has not arrived yet, so the lines
+     * that follow continue it, as {@link #parse} joins calls that span several lines.
+     */
+    public static boolean isUnterminatedCall(CharSequence text) {
+        int nameEnd = identifierEnd(text);
+        return nameEnd > 0 && nameEnd < text.length() && text.charAt(nameEnd) == '('
+                && closingParenthesis(text, nameEnd) == -1;
+    }
+
+    private static final class Block {
+        final List<C4Model.Node> children = new ArrayList<>();
+        final int line;
+        final boolean raw;
+        final Function<List<C4Model.Node>, C4Model.Node> onClose;
+
+        Block(int line, boolean raw, Function<List<C4Model.Node>, C4Model.Node> onClose) {
+            this.line = line;
+            this.raw = raw;
+            this.onClose = onClose;
+        }
+    }
+
+    private static final class Run {
+        private final String[] lines;
+        private final IntUnaryOperator lineMapper;
+        private final List<C4Problem> problems = new ArrayList<>();
+        private final Deque<Block> blocks = new ArrayDeque<>();
+        private final List<C4Model.Node> nodes = new ArrayList<>();
+        private String name;
+
+        Run(String source, IntUnaryOperator lineMapper) {
+            this.lines = source.lines().toArray(String[]::new);
+            this.lineMapper = lineMapper;
+        }
+
+        C4Model parse() {
+            boolean inBlockComment = false;
+            boolean inDefinition = false;
+            for (int i = 0; i < lines.length; i++) {
+                int lineNumber = lineMapper.applyAsInt(i + 1);
+                String line = lines[i].strip();
+
+                if (inBlockComment) {
+                    inBlockComment = !line.endsWith("'/");
+                    continue;
+                }
+                if (line.startsWith("/'")) {
+                    inBlockComment = !line.endsWith("'/") || line.length() < 4;
+                    continue;
+                }
+                if (line.isEmpty() || line.startsWith("'")) {
+                    continue;
+                }
+                if (inDefinition) {
+                    // Bodies of !procedure / !function definitions are preprocessor code, kept as is
+                    add(new C4Model.Raw(lines[i].stripTrailing(), null, lineNumber));
+                    inDefinition = !line.startsWith("!end");
+                    continue;
+                }
+                if (line.regionMatches(true, 0, "@startuml", 0, 9)) {
+                    name = line.substring(9).strip();
+                    continue;
+                }
+                if (line.regionMatches(true, 0, "@enduml", 0, 7)) {
+                    break;
+                }
+                if (line.startsWith("!")) {
+                    if (isC4Include(line)) {
+                        continue;
+                    }
+                    inDefinition = isDefinitionStart(line);
+                    add(new C4Model.Raw(line, null, lineNumber));
+                    continue;
+                }
+                if (line.startsWith("}")) {
+                    closeBlock(lineNumber);
+                    String rest = line.substring(1).strip();
+                    if (!rest.isEmpty()) {
+                        add(new C4Model.Raw(rest, null, lineNumber));
+                    }
+                    continue;
+                }
+
+                // Inside non-C4 blocks, such as class bodies, calls are not C4 macros
+                boolean inRawBlock = !blocks.isEmpty() && blocks.peek().raw;
+                int nameEnd = inRawBlock ? 0 : identifierEnd(line);
+                if (nameEnd > 0 && nameEnd < line.length() && line.charAt(nameEnd) == '(') {
+                    // Join continuation lines until the call's parentheses balance
+                    StringBuilder call = new StringBuilder(line);
+                    int closing = closingParenthesis(call, nameEnd);
+                    while (closing == -1 && i + 1 < lines.length && !startsStatement(lines[i + 1].strip())) {
+                        call.append(' ').append(lines[++i].strip());
+                        closing = closingParenthesis(call, nameEnd);
+                    }
+                    if (closing == -1) {
+                        problems.add(C4Problem.error(lineNumber, "Unterminated call to " + line.substring(0, nameEnd)
+                                + ": missing ')' or closing quote"));
+                        add(new C4Model.Raw(call.toString(), null, lineNumber));
+                        continue;
+                    }
+                    parseCall(call.substring(0, nameEnd), call.substring(nameEnd + 1, closing),
+                            call.substring(closing + 1).strip(), lineNumber);
+                    continue;
+                }
+
+                if (line.endsWith("{")) {
+                    String text = line;
+                    blocks.push(new Block(lineNumber, true, children -> new C4Model.Raw(text, children, lineNumber)));
+                } else {
+                    add(new C4Model.Raw(line, null, lineNumber));
+                }
+            }
+
+            while (!blocks.isEmpty()) {
+                Block block = blocks.peek();
+                problems.add(C4Problem.error(block.line, "Block opened here is never closed with '}'"));
+                closeBlock(lineMapper.applyAsInt(lines.length));
+            }
+            return new C4Model(name, List.copyOf(nodes), List.copyOf(problems));
+        }
+
+        private void parseCall(String macro, String argumentText, String rest, int lineNumber) {
+            List<String> arguments = splitArguments(argumentText);
+            boolean opensBlock = rest.equals("{");
+            if (!opensBlock && !rest.isEmpty()) {
+                problems.add(C4Problem.warning(lineNumber, "Unexpected text after " + macro + "(...): " + rest));
+            }
+            String first = arguments.isEmpty() ? "" : arguments.get(0);
+
+            C4Model.BoundaryType boundaryType = C4Model.BoundaryType.fromMacro(macro);
+            if (boundaryType != null) {
+                if (opensBlock) {
+                    blocks.push(new Block(lineNumber, false,
+                            children -> new C4Model.Boundary(boundaryType, first, arguments, children, lineNumber)));
+                } else {
+                    add(new C4Model.Boundary(boundaryType, first, arguments, List.of(), lineNumber));
+                }
+                return;
+            }
+
+            C4Model.ElementType elementType = C4Model.ElementType.fromMacro(macro);
+            if (elementType != null) {
+                add(new C4Model.Element(elementType, first, arguments, lineNumber));
+                if (opensBlock) {
+                    problems.add(C4Problem.error(lineNumber, macro + " cannot contain other elements"));
+                    blocks.push(new Block(lineNumber, true, children -> null));
+                }
+                return;
+            }
+
+            if (isRelationship(macro)) {
+                String second = arguments.size() > 1 ? arguments.get(1) : "";
+                add(new C4Model.Relationship(macro, first, second, arguments, lineNumber));
+                return;
+            }
+
+            if (opensBlock) {
+                blocks.push(new Block(lineNumber, false, children -> new C4Model.Macro(macro, arguments, children, lineNumber)));
+            } else {
+                add(new C4Model.Macro(macro, arguments, null, lineNumber));
+            }
+        }
+
+        private void closeBlock(int lineNumber) {
+            if (blocks.isEmpty()) {
+                problems.add(C4Problem.error(lineNumber, "'}' without a matching opening block"));
+                return;
+            }
+            Block block = blocks.pop();
+            C4Model.Node node = block.onClose.apply(List.copyOf(block.children));
+            if (node != null) {
+                add(node);
+            }
+        }
+
+        private void add(C4Model.Node node) {
+            (blocks.isEmpty() ? nodes : blocks.peek().children).add(node);
+        }
+    }
+
+    static boolean isRelationship(String macro) {
+        return macro.equals("Rel") || macro.startsWith("Rel_") || macro.startsWith("BiRel") || macro.startsWith("Lay_");
+    }
+
+    private static boolean isC4Include(String line) {
+        if (!line.regionMatches(true, 0, "!include", 0, 8)) {
+            return false;
+        }
+        String target = line.substring(8).strip();
+        return target.regionMatches(true, 0, "C4_", 0, 3) || target.regionMatches(true, 0, "<C4", 0, 3)
+                || target.regionMatches(true, 0, "C4.puml", 0, 7);
+    }
+
+    private static boolean isDefinitionStart(String line) {
+        String directive = line.substring(1).strip();
+        if (directive.startsWith("unquoted ")) {
+            directive = directive.substring(9).strip();
+        }
+        return directive.startsWith("procedure ") || directive.startsWith("function ");
+    }
+
+    /**
+     * Whether a line clearly starts a statement of its own, so it is not joined to an unterminated call.
+     */
+    private static boolean startsStatement(String line) {
+        if (line.startsWith("}") || line.startsWith("@") || line.startsWith("!")) {
+            return true;
+        }
+        int nameEnd = identifierEnd(line);
+        return nameEnd > 0 && nameEnd < line.length() && line.charAt(nameEnd) == '(';
+    }
+
+    private static int identifierEnd(CharSequence line) {
+        int i = 0;
+        while (i < line.length()) {
+            char c = line.charAt(i);
+            boolean valid = Character.isLetter(c) || c == '_' || c == '$' || (i > 0 && Character.isDigit(c));
+            if (!valid) {
+                break;
+            }
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Index of the parenthesis closing the one at {@code open}, ignoring parentheses inside quoted
+     * strings, or -1 if the call is not closed yet.
+     */
+    private static int closingParenthesis(CharSequence text, int open) {
+        int depth = 0;
+        boolean quoted = false;
+        for (int i = open; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (!quoted && c == '(') {
+                depth++;
+            } else if (!quoted && c == ')' && --depth == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    static List<String> splitArguments(String text) {
+        List<String> arguments = new ArrayList<>();
+        if (text.isBlank()) {
+            return arguments;
+        }
+        int depth = 0;
+        boolean quoted = false;
+        int start = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (!quoted && c == '(') {
+                depth++;
+            } else if (!quoted && c == ')') {
+                depth--;
+            } else if (!quoted && depth == 0 && c == ',') {
+                arguments.add(text.substring(start, i).strip());
+                start = i + 1;
+            }
+        }
+        arguments.add(text.substring(start).strip());
+        return arguments;
+    }
+}
@@ -0,0 +1,280 @@
+package com.nitin.c4;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Changes to a C4 diagram, which the model sends on follow-up turns instead of the whole diagram.
+ * One operation per line:
+ *
+ * <pre>
+ * + Container(cache, "Cache", "Redis")     adds an element, or replaces the one with the same alias
+ * + Container(cache, "Cache", "Redis") in backend   adds it inside the boundary {@code backend}
+ * + Rel(api, cache, "Reads from")         adds a relationship, or replaces the first one from api to cache
+ * - cache                                 removes an element, or a boundary with its contents, and
+ *                                         every relationship to or from what was removed
+ * - Rel(api, db)                          removes the relationships from api to db
+ * </pre>
+ *
+ * Lines that cannot be understood are skipped with a warning, and operations are applied in order,
+ * so the result is validated like any other diagram before it is rendered.
+ */
+public record C4Patch(List<Operation> operations, List<C4Problem> problems) {
+
+    private static final Pattern PARENT_SUFFIX = Pattern.compile("^(.*\\))\\s+in\\s+([A-Za-z_$][\\w$.]*)\\s*$");
+    private static final Pattern ALIAS = Pattern.compile("[A-Za-z_$][\\w$.]*");
+
+    public sealed interface Operation permits Put, Remove, RemoveRelationships {
+        int line();
+    }
+
+    /** Adds or replaces an element, boundary or relationship; {@code parent} is null for the top level. */
+    public record Put(C4Model.Node node, String parent, int line) implements Operation {}
+
+    /** Removes the element or boundary with the alias. */
+    public record Remove(String alias, int line) implements Operation {}
+
+    /** Removes the relationships from one alias to another. */
+    public record RemoveRelationships(String from, String to, int line) implements Operation {}
+
+    public static C4Patch parse(String text) {
+        List<Operation> operations = new ArrayList<>();
+        List<C4Problem> problems = new ArrayList<>();
+        String[] lines = text.lines().toArray(String[]::new);
+        for (int i = 0; i < lines.length; i++) {
+            int lineNumber = i + 1;
+            String line = lines[i].strip();
+            if (line.isEmpty() || line.startsWith("'")) {
+                continue;
+            }
+            char sign = line.charAt(0);
+            String rest = line.substring(1).strip();
+            Operation operation = switch (sign) {
+                case '+' -> parsePut(rest, lineNumber, problems);
+                case '-' -> parseRemove(rest, lineNumber, problems);
+                default -> null;
+            };
+            if (operation != null) {
+                operations.add(operation);
+            } else if (sign != '+' && sign != '-') {
+                problems.add(C4Problem.warning(lineNumber, "Ignored patch line without '+' or '-': " + line));
+            }
+        }
+        return new C4Patch(List.copyOf(operations), List.copyOf(problems));
+    }
+
+    public boolean isEmpty() {
+        return operations.isEmpty();
+    }
+
+    /**
+     * Applies the operations in order and returns the patched model. Operations that do not fit the
+     * model, such as removing an unknown alias, are skipped and reported as warnings of the result.
+     */
+    public C4Model applyTo(C4Model model) {
+        List<C4Problem> problems = new ArrayList<>(model.syntaxProblems());
+        List<C4Model.Node> nodes = model.nodes();
+        for (Operation operation : operations) {
+            nodes = switch (operation) {
+                case Put put -> put(nodes, put, problems);
+                case Remove remove -> remove(nodes, remove, problems);
+                case RemoveRelationships remove -> filter(nodes, node -> !(node instanceof C4Model.Relationship relationship
+                        && relationship.from().equals(remove.from()) && relationship.to().equals(remove.to())));
+            };
+        }
+        return new C4Model(model.name(), nodes, List.copyOf(problems));
+    }
+
+    private static Operation parsePut(String text, int lineNumber, List<C4Problem> problems) {
+        String parent = null;
+        Matcher suffix = PARENT_SUFFIX.matcher(text);
+        if (suffix.matches()) {
+            text = suffix.group(1);
+            parent = suffix.group(2);
+        }
+        C4Model.Node node = parseStatement(text, lineNumber, problems);
+        if (node == null) {
+            return null;
+        }
+        if (!(node instanceof C4Model.Element || node instanceof C4Model.Boundary || node instanceof C4Model.Relationship)) {
+            problems.add(C4Problem.warning(lineNumber, "Ignored patch line that adds no element or relationship: " + text));
+            return null;
+        }
+        return new Put(node, parent, lineNumber);
+    }
+
+    private static Operation parseRemove(String text, int lineNumber, List<C4Problem> problems) {
+        if (ALIAS.matcher(text).matches()) {
+            return new Remove(text, lineNumber);
+        }
+        C4Model.Node node = parseStatement(text, lineNumber, problems);
+        return switch (node) {
+            case null -> null;
+            case C4Model.Relationship relationship -> new RemoveRelationships(relationship.from(), relationship.to(), lineNumber);
+            case C4Model.Element element -> new Remove(element.alias(), lineNumber);
+            case C4Model.Boundary boundary -> new Remove(boundary.alias(), lineNumber);
+            default -> {
+                problems.add(C4Problem.warning(lineNumber, "Ignored patch line that removes no element or relationship: " + text));
+                yield null;
+            }
+        };
+    }
+
+    /**
+     * Parses a single C4 statement with the diagram parser, so patch lines read exactly like diagram lines.
+     */
+    private static C4Model.Node parseStatement(String text, int lineNumber, List<C4Problem> problems) {
+        C4Model parsed = C4Parser.parse(text, line -> lineNumber);
+        if (parsed.syntaxProblems().stream().anyMatch(C4Problem::isError) || parsed.nodes().size() != 1) {
+            problems.add(C4Problem.warning(lineNumber, "Ignored patch line that is not a single C4 statement: " + text));
+            return null;
+        }
+        return parsed.nodes().get(0);
+    }
+
+    private static List<C4Model.Node> put(List<C4Model.Node> nodes, Put put, List<C4Problem> problems) {
+        C4Model.Node node = put.node();
+        boolean[] replaced = {false};
+        Function<C4Model.Node, C4Model.Node> replace = switch (node) {
+            case C4Model.Relationship relationship -> existing -> {
+                if (!replaced[0] && existing instanceof C4Model.Relationship other
+                        && other.from().equals(relationship.from()) && other.to().equals(relationship.to())) {
+                    replaced[0] = true;
+                    return new C4Model.Relationship(relationship.macro(), relationship.from(), relationship.to(),
+                            relationship.arguments(), other.line());
+                }
+                return existing;
+            };
+            default -> existing -> {
+                String alias = alias(existing);
+                if (replaced[0] || alias == null || !alias.equals(alias(node))) {
+                    return existing;
+                }
+                replaced[0] = true;
+                // A boundary keeps its contents when only its macro or label changes
+                if (node instanceof C4Model.Boundary boundary && existing instanceof C4Model.Boundary old) {
+                    return new C4Model.Boundary(boundary.type(), boundary.alias(), boundary.arguments(), old.children(), old.line());
+                }
+                return node;
+            };
+        };
+        List<C4Model.Node> result = map(nodes, replace);
+        if (replaced[0]) {
+            return result;
+        }
+
+        if (put.parent() == null) {
+            return insert(result, node);
+        }
+        boolean[] found = {false};
+        result = map(result, existing -> {
+            if (!found[0] && existing instanceof C4Model.Boundary boundary && boundary.alias().equals(put.parent())) {
+                found[0] = true;
+                return new C4Model.Boundary(boundary.type(), boundary.alias(), boundary.arguments(),
+                        insert(boundary.children(), node), boundary.line());
+            }
+            return existing;
+        });
+        if (!found[0]) {
+            problems.add(C4Problem.warning(put.line(), "Unknown boundary " + put.parent() + " in patch, added at the top level"));
+            result = insert(result, node);
+        }
+        return result;
+    }
+
+    private static List<C4Model.Node> remove(List<C4Model.Node> nodes, Remove remove, List<C4Problem> problems) {
+        Set<String> removed = new HashSet<>();
+        C4Model.forEach(nodes, node -> {
+            if (remove.alias().equals(alias(node))) {
+                C4Model.forEach(List.of(node), inner -> {
+                    String alias = alias(inner);
+                    if (alias != null) {
+                        removed.add(alias);
+                    }
+                });
+            }
+        });
+        if (removed.isEmpty()) {
+            problems.add(C4Problem.warning(remove.line(), "Unknown alias " + remove.alias() + " in patch, nothing removed"));
+            return nodes;
+        }
+        return filter(nodes, node -> switch (node) {
+            case C4Model.Element element -> !removed.contains(element.alias());
+            case C4Model.Boundary boundary -> !removed.contains(boundary.alias());
+            case C4Model.Relationship relationship -> !removed.contains(relationship.from()) && !removed.contains(relationship.to());
+            default -> true;
+        });
+    }
+
+    /**
+     * Inserts elements and boundaries after the last element or boundary of the level, before any
+     * relationship, and relationships after the last relationship, so trailing statements such as
+     * {@code SHOW_LEGEND()} stay last.
+     */
+    private static List<C4Model.Node> insert(List<C4Model.Node> nodes, C4Model.Node node) {
+        Predicate<C4Model.Node> sameKind = node instanceof C4Model.Relationship
+                ? C4Model.Relationship.class::isInstance
+                : existing -> existing instanceof C4Model.Element || existing instanceof C4Model.Boundary;
+        int index = -1;
+        for (int i = 0; i < nodes.size(); i++) {
+            if (sameKind.test(nodes.get(i))) {
+                index = i + 1;
+            }
+        }
+        if (index == -1 && !(node instanceof C4Model.Relationship)) {
+            for (int i = 0; i < nodes.size() && index == -1; i++) {
+                if (nodes.get(i) instanceof C4Model.Relationship) {
+                    index = i;
+                }
+            }
+        }
+        List<C4Model.Node> result = new ArrayList<>(nodes);
+        result.add(index == -1 ? result.size() : index, node);
+        return List.copyOf(result);
+    }
+
+    private static List<C4Model.Node> filter(List<C4Model.Node> nodes, Predicate<C4Model.Node> keep) {
+        List<C4Model.Node> result = new ArrayList<>();
+        for (C4Model.Node node : nodes) {
+            if (keep.test(node)) {
+                result.add(withChildren(node, children -> filter(children, keep)));
+            }
+        }
+        return List.copyOf(result);
+    }
+
+    private static List<C4Model.Node> map(List<C4Model.Node> nodes, Function<C4Model.Node, C4Model.Node> mapper) {
+        List<C4Model.Node> result = new ArrayList<>(nodes.size());
+        for (C4Model.Node node : nodes) {
+            C4Model.Node mapped = mapper.apply(node);
+            result.add(mapped == node ? withChildren(node, children -> map(children, mapper)) : mapped);
+        }
+        return List.copyOf(result);
+    }
+
+    private static C4Model.Node withChildren(C4Model.Node node, Function<List<C4Model.Node>, List<C4Model.Node>> children) {
+        return switch (node) {
+            case C4Model.Boundary boundary -> new C4Model.Boundary(boundary.type(), boundary.alias(), boundary.arguments(),
+                    children.apply(boundary.children()), boundary.line());
+            case C4Model.Macro macro when macro.children() != null ->
+                    new C4Model.Macro(macro.name(), macro.arguments(), children.apply(macro.children()), macro.line());
+            case C4Model.Raw raw when raw.children() != null ->
+                    new C4Model.Raw(raw.text(), children.apply(raw.children()), raw.line());
+            default -> node;
+        };
+    }
+
+    private static String alias(C4Model.Node node) {
+        return switch (node) {
+            case C4Model.Element element -> element.alias();
+            case C4Model.Boundary boundary -> boundary.alias();
+            default -> null;
+        };
+    }
+}
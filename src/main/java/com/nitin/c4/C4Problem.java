@@ -0,0 +1,32 @@
+package com.nitin.c4;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+/**
+ * A problem found while parsing or validating a C4 diagram. Errors stop the diagram from being
+ * rendered; warnings are only reported.
+ */
+public record C4Problem(int line, Severity severity, String message) {
+
+    public enum Severity {
+        ERROR, WARNING
+    }
+
+    public static C4Problem error(int line, String message) {
+        return new C4Problem(line, Severity.ERROR, message);
+    }
+
+    public static C4Problem warning(int line, String message) {
+        return new C4Problem(line, Severity.WARNING, message);
+    }
+
+    @JsonIgnore
+    public boolean isError() {
+        return severity == Severity.ERROR;
+    }
+
+    @Override
+    public String toString() {
+        return "line " + line + ": " + message;
+    }
+}
@@ -0,0 +1,143 @@
+package com.nitin.c4;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Checks a {@link C4Model} for the mistakes that would otherwise only show up as a PlantUML error
+ * image after a full render: duplicate or malformed aliases, relationships between undefined
+ * aliases, missing required arguments, macros the C4 library does not define, and the structural
+ * problems found by the parser.
+ */
+public final class C4Validator {
+
+    private C4Validator() {
+    }
+
+    public static List<C4Problem> validate(C4Model model) {
+        List<C4Problem> problems = new ArrayList<>(model.syntaxProblems());
+        Set<String> sourceDefinitions = new HashSet<>();
+        boolean[] foreignIncludes = {false};
+        Map<String, Integer> aliases = new HashMap<>();
+        List<C4Model.Relationship> relationships = new ArrayList<>();
+        List<C4Model.Macro> macros = new ArrayList<>();
+
+        model.visit(node -> {
+            switch (node) {
+                case C4Model.Element element -> {
+                    checkArguments(problems, element.type().macro(), element.arguments(), 2, element.line());
+                    define(problems, aliases, element.alias(), element.line());
+                }
+                case C4Model.Boundary boundary -> {
+                    checkArguments(problems, boundary.type().macro(), boundary.arguments(), 2, boundary.line());
+                    define(problems, aliases, boundary.alias(), boundary.line());
+                }
+                case C4Model.Relationship relationship -> relationships.add(relationship);
+                case C4Model.Macro macro -> macros.add(macro);
+                case C4Model.Raw raw -> {
+                    String definition = definedName(raw.text());
+                    if (definition != null) {
+                        sourceDefinitions.add(definition);
+                    } else if (raw.text().startsWith("!include")) {
+                        foreignIncludes[0] = true;
+                    }
+                }
+            }
+        });
+
+        for (C4Model.Relationship relationship : relationships) {
+            String macro = relationship.macro();
+            if (!C4Library.isDefined(macro) && !sourceDefinitions.contains(macro)) {
+                problems.add(unknownMacro(macro, relationship.line(), foreignIncludes[0]));
+                continue;
+            }
+            boolean layout = macro.startsWith("Lay_");
+            if (!checkArguments(problems, macro, relationship.arguments(), layout ? 2 : 3, relationship.line())) {
+                continue;
+            }
+            for (String alias : List.of(relationship.from(), relationship.to())) {
+                if (!aliases.containsKey(alias)) {
+                    problems.add(C4Problem.error(relationship.line(),
+                            macro + " refers to '" + alias + "', which is not defined"));
+                }
+            }
+            if (!layout && relationship.from().equals(relationship.to())) {
+                problems.add(C4Problem.warning(relationship.line(), macro + " connects '" + relationship.from() + "' to itself"));
+            }
+        }
+
+        for (C4Model.Macro macro : macros) {
+            if (!C4Library.isDefined(macro.name()) && !sourceDefinitions.contains(macro.name())) {
+                problems.add(unknownMacro(macro.name(), macro.line(), foreignIncludes[0]));
+            }
+        }
+
+        problems.sort((a, b) -> Integer.compare(a.line(), b.line()));
+        return problems;
+    }
+
+    public static boolean hasErrors(List<C4Problem> problems) {
+        return problems.stream().anyMatch(C4Problem::isError);
+    }
+
+    private static void define(List<C4Problem> problems, Map<String, Integer> aliases, String alias, int line) {
+        if (!isValidAlias(alias)) {
+            problems.add(C4Problem.error(line, "'" + alias + "' is not a valid alias; use letters, digits and underscores"));
+            return;
+        }
+        Integer previous = aliases.putIfAbsent(alias, line);
+        if (previous != null) {
+            problems.add(C4Problem.error(line, "Alias '" + alias + "' is already defined on line " + previous));
+        }
+    }
+
+    private static boolean checkArguments(List<C4Problem> problems, String macro, List<String> arguments, int required, int line) {
+        long positional = arguments.stream().filter(argument -> !C4Model.isKeywordArgument(argument)).count();
+        if (positional < required) {
+            problems.add(C4Problem.error(line, macro + " needs at least " + required + " arguments, got " + positional));
+            return false;
+        }
+        return true;
+    }
+
+    private static C4Problem unknownMacro(String name, int line, boolean foreignIncludes) {
+        String message = name + " is not a C4-PlantUML macro";
+        // Another included library may define it, so only warn then
+        return foreignIncludes ? C4Problem.warning(line, message) : C4Problem.error(line, message);
+    }
+
+    private static boolean isValidAlias(String alias) {
+        if (alias.isEmpty() || Character.isDigit(alias.charAt(0))) {
+            return false;
+        }
+        for (int i = 0; i < alias.length(); i++) {
+            char c = alias.charAt(i);
+            if (!Character.isLetterOrDigit(c) && c != '_' && c != '.') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String definedName(String text) {
+        String directive = text.startsWith("!") ? text.substring(1).strip() : "";
+        if (directive.startsWith("unquoted ")) {
+            directive = directive.substring(9).strip();
+        }
+        for (String keyword : List.of("procedure ", "function ", "define ")) {
+            if (directive.startsWith(keyword)) {
+                String rest = directive.substring(keyword.length()).strip();
+                int end = 0;
+                while (end < rest.length() && (Character.isLetterOrDigit(rest.charAt(end)) || rest.charAt(end) == '_' || rest.charAt(end) == '$')) {
+                    end++;
+                }
+                return rest.substring(0, end);
+            }
+        }
+        return null;
+    }
+}
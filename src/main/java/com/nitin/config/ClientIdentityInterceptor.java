@@ -0,0 +1,51 @@
+package com.nitin.config;
+
+import com.nitin.llm.LlmClientContext;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+
+import java.util.Set;
+
+/**
+ * Binds the calling client to {@link LlmClientContext} for the duration of a request. Clients are
+ * identified by their remote address. The {@code X-Client-Id} header is unauthenticated, so a
+ * client could send a new id with every request to get around the per-client queue limit; it is
+ * only honoured when {@code trustHeader} is set, or when the request comes from one of the trusted
+ * proxies, which identify the clients behind them.
+ */
+public class ClientIdentityInterceptor implements AsyncHandlerInterceptor {
+
+    static final String CLIENT_ID_HEADER = "X-Client-Id";
+
+    private final boolean trustHeader;
+    private final Set<String> trustedProxies;
+
+    public ClientIdentityInterceptor(boolean trustHeader, Set<String> trustedProxies) {
+        this.trustHeader = trustHeader;
+        this.trustedProxies = Set.copyOf(trustedProxies);
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        String clientId = request.getRemoteAddr();
+        if (trustHeader || trustedProxies.contains(clientId)) {
+            String header = request.getHeader(CLIENT_ID_HEADER);
+            if (header != null && !header.isBlank()) {
+                clientId = header;
+            }
+        }
+        LlmClientContext.set(clientId);
+        return true;
+    }
+
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        LlmClientContext.clear();
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        LlmClientContext.clear();
+    }
+}
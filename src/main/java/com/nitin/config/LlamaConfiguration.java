@@ -1,37 +1,138 @@
 package com.nitin.config;
 
+import com.nitin.metrics.DesignMetrics;
+import com.nitin.llm.LlamaBackend;
+import com.nitin.llm.LlamaBackendRouter;
+import com.nitin.llm.LlamaCppCompletionModel;
+import com.nitin.llm.LlmScheduler;
+import com.nitin.llm.PromptTemplate;
+import com.nitin.llm.ScheduledChatLanguageModel;
+import com.nitin.llm.ScheduledStreamingChatLanguageModel;
+import com.nitin.llm.SlotAffinity;
 import dev.langchain4j.model.chat.ChatLanguageModel;
+import dev.langchain4j.model.chat.StreamingChatLanguageModel;
 import dev.langchain4j.model.localai.LocalAiChatModel;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.embedding.onnx.allminilml6v2.AllMiniLmL6V2EmbeddingModel;
+import dev.langchain4j.model.localai.LocalAiStreamingChatModel;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
 
 import java.time.Duration;
+import java.util.List;
 
 @Configuration
 public class LlamaConfiguration {
     @Value("${llama.base-url}")
     private String baseUrl;
 
+    @Value("${llama.backends:}")
+    private List<String> backendUrls;
+
     @Value("${llama.temperature}")
     private Double temperature;
 
     @Value("${llama.max-tokens}")
     private Integer maxTokens;
 
+    @Value("${llama.repair.max-tokens:1024}")
+    private Integer repairMaxTokens;
+
     @Value("${llama.model-name}")
     private String modelName;
 
+    @Value("${llama.client:openai}")
+    private String client;
+
+    @Value("${llama.native.prompt-template:DEEPSEEK}")
+    private PromptTemplate promptTemplate;
+
+    @Value("${llama.scheduler.permits:1}")
+    private int permits;
+
+    @Value("${llama.routing.strategy:LEAST_OUTSTANDING}")
+    private LlamaBackendRouter.Strategy routingStrategy;
+
+    @Value("${llama.routing.max-failures:3}")
+    private int maxConsecutiveFailures;
+
+    @Value("${llama.routing.ejection-time:PT30S}")
+    private Duration ejectionTime;
+
+    // Full payload logging by the LocalAI client; PayloadLogger samples responses instead
+    @Value("${llama.log-payloads:false}")
+    private boolean logPayloads;
+
+    @Bean
+    public LlamaBackendRouter llamaBackendRouter() {
+        List<String> urls = backendUrls.isEmpty() ? List.of(baseUrl) : backendUrls;
+        int slotsPerBackend = Math.max(1, permits / urls.size());
+        List<LlamaBackend> backends = urls.stream()
+                .map(url -> backend(url.trim(), slotsPerBackend))
+                .toList();
+        return new LlamaBackendRouter(backends, routingStrategy, maxConsecutiveFailures, ejectionTime);
+    }
+
     @Bean
-    public ChatLanguageModel chatLanguageModel() {
+    @Primary
+    public ChatLanguageModel chatLanguageModel(LlamaBackendRouter llamaBackendRouter, LlmScheduler llmScheduler,
+                                               DesignMetrics designMetrics) {
+        return new ScheduledChatLanguageModel(llamaBackendRouter, llmScheduler, designMetrics, DesignMetrics.GENERATION);
+    }
+
+    @Bean
+    public ChatLanguageModel repairChatLanguageModel(LlamaBackendRouter llamaBackendRouter, LlmScheduler llmScheduler,
+                                                     DesignMetrics designMetrics) {
+        return new ScheduledChatLanguageModel(llamaBackendRouter.repairModel(), llmScheduler, designMetrics, DesignMetrics.REPAIR);
+    }
+
+    @Bean
+    public StreamingChatLanguageModel streamingChatLanguageModel(LlamaBackendRouter llamaBackendRouter, LlmScheduler llmScheduler,
+                                                                 DesignMetrics designMetrics) {
+        return new ScheduledStreamingChatLanguageModel(llamaBackendRouter, llmScheduler, designMetrics, DesignMetrics.GENERATION);
+    }
+
+    private LlamaBackend backend(String url, int slots) {
+        if ("native".equalsIgnoreCase(client)) {
+            LlamaCppCompletionModel completionModel = new LlamaCppCompletionModel(url, promptTemplate,
+                    new SlotAffinity(slots), temperature, maxTokens, Duration.ofMinutes(5));
+            // Repairs use their own prompt, so they get no slot affinity instead of evicting a conversation's cache
+            LlamaCppCompletionModel repairModel = new LlamaCppCompletionModel(url, promptTemplate,
+                    new SlotAffinity(0), temperature, repairMaxTokens, Duration.ofMinutes(5));
+            return new LlamaBackend(url, completionModel, completionModel, repairModel);
+        }
+        return new LlamaBackend(url,
+                localAiChatModel(url, maxTokens),
+                LocalAiStreamingChatModel.builder()
+                        .baseUrl(url)
+                        .modelName(modelName)
+                        .temperature(temperature)
+                        .maxTokens(maxTokens)
+                        .timeout(Duration.ofMinutes(5))
+                        .logRequests(logPayloads)
+                        .logResponses(logPayloads)
+                        .build(),
+                localAiChatModel(url, repairMaxTokens));
+    }
+
+    private ChatLanguageModel localAiChatModel(String url, int maxTokens) {
         return LocalAiChatModel.builder()
-                .baseUrl(baseUrl)
+                .baseUrl(url)
                 .modelName(modelName)
                 .temperature(temperature)
                 .maxTokens(maxTokens)
                 .timeout(Duration.ofMinutes(5))
-                .logRequests(true)
-                .logResponses(true)
+                .logRequests(logPayloads)
+                .logResponses(logPayloads)
                 .build();
     }
+
+    @Bean
+    @ConditionalOnProperty(name = "design.cache.semantic.enabled", havingValue = "true")
+    public EmbeddingModel embeddingModel() {
+        return new AllMiniLmL6V2EmbeddingModel();
+    }
 }
@@ -0,0 +1,35 @@
+package com.nitin.config;
+
+import com.nitin.service.HealthCheckService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+/**
+ * Reports the cached llama.cpp status as the {@code llama} actuator health contributor. It never
+ * probes the servers itself, so health checks from orchestrators stay cheap.
+ */
+@Component("llama")
+public class LlamaHealthIndicator implements HealthIndicator {
+
+    @Autowired
+    private HealthCheckService healthCheckService;
+
+    @Override
+    public Health health() {
+        HealthCheckService.Status status = healthCheckService.getStatus();
+        Health.Builder builder;
+        if (status.checkedAt() == null) {
+            builder = Health.unknown();
+        } else if (status.isLlamaRunning()) {
+            builder = Health.up();
+        } else {
+            builder = Health.down();
+        }
+        return builder
+                .withDetail("checkedAt", String.valueOf(status.checkedAt()))
+                .withDetail("backends", status.backends())
+                .build();
+    }
+}
@@ -1,24 +1,26 @@
 package com.nitin.config;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.web.servlet.config.annotation.ResourceHandlerRegistry;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
+import java.util.HashSet;
+import java.util.List;
+
 @Configuration
 public class MvcConfig implements WebMvcConfigurer {
 
-    private static final Logger log = LoggerFactory.getLogger(MvcConfig.class);
+    @Value("${llama.scheduler.client-id.trust-header:false}")
+    private boolean trustClientIdHeader;
 
-    @Value("${plantuml.output-directory}")
-    private String storageLocation;
+    @Value("${llama.scheduler.client-id.trusted-proxies:}")
+    private List<String> trustedProxies;
 
     @Override
-    public void addResourceHandlers(ResourceHandlerRegistry registry) {
-        String resourceLocation = "file:" + (storageLocation.endsWith("/") ? storageLocation : storageLocation + "/");
-        log.info("Mapping URL path /diagram/** to physical path {}", resourceLocation);
-        registry.addResourceHandler("/diagram/**").addResourceLocations(resourceLocation);
+    public void addInterceptors(InterceptorRegistry registry) {
+        ClientIdentityInterceptor clientIdentity = new ClientIdentityInterceptor(trustClientIdHeader,
+                new HashSet<>(trustedProxies.stream().map(String::strip).filter(proxy -> !proxy.isEmpty()).toList()));
+        registry.addInterceptor(clientIdentity).addPathPatterns("/api/**", "/design");
     }
-}
\ No newline at end of file
+}
@@ -2,6 +2,7 @@ package com.nitin.config;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.io.Resource;
 import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
@@ -19,8 +20,16 @@ public class PlantUmlConfiguration {
     private static final Logger log = LoggerFactory.getLogger(PlantUmlConfiguration.class);
     private static final String PLANTUML_C4_INCLUDES_PATTERN = "classpath:plantuml/c4/*.puml";
 
+    @Value("${plantuml.c4.include-mode:memory}")
+    private String includeMode;
+
     @PostConstruct
     public void setPlantUmlIncludePath() {
+        if (!"file".equalsIgnoreCase(includeMode)) {
+            // PlantUmlService inlines the library from memory, no include files needed
+            log.info("Resolving C4 includes from the in-memory library");
+            return;
+        }
         try {
             Path tempDir = Files.createTempDirectory("plantuml-includes-");
             tempDir.toFile().deleteOnExit(); // Clean up on shutdown
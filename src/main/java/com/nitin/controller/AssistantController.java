@@ -1,40 +1,72 @@
 package com.nitin.controller;
 
+import com.nitin.dto.DesignBatchItem;
+import com.nitin.dto.DesignBatchRequest;
+import com.nitin.dto.DesignJob;
 import com.nitin.dto.DesignRequest;
 import com.nitin.dto.DesignResponse;
 import com.nitin.dto.PlantUmlRequest;
+import com.nitin.exception.DiagramRenderRejectedException;
 import com.nitin.service.C4ModelService;
+import com.nitin.service.DesignBatchService;
+import com.nitin.service.DesignJobService;
 import com.nitin.service.DesignService;
+import com.nitin.service.DesignStreamListener;
+import com.nitin.service.DiagramFormat;
 import com.nitin.service.HealthCheckService;
 import com.nitin.service.PlantUmlService;
+import com.nitin.storage.DiagramStore;
+import com.nitin.storage.StoredDiagram;
+import jakarta.servlet.http.HttpServletRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.context.ApplicationContext;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.core.io.FileSystemResource;
+import org.springframework.context.ApplicationContext;
 import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
-import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.net.URI;
+import java.time.Duration;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 
 @Controller
 public class AssistantController {
 
     private static final Logger log = LoggerFactory.getLogger(AssistantController.class);
+    private static final long DESIGN_STREAM_TIMEOUT_MS = Duration.ofMinutes(6).toMillis();
+    private static final CacheControl DIAGRAM_CACHE_CONTROL = CacheControl.maxAge(Duration.ofDays(365)).cachePublic().immutable();
+    private static final Map<String, MediaType> DIAGRAM_CONTENT_TYPES = Map.of(
+            "png", MediaType.IMAGE_PNG,
+            "svg", MediaType.valueOf("image/svg+xml"),
+            "pdf", MediaType.APPLICATION_PDF,
+            "eps", MediaType.valueOf("application/postscript"),
+            "txt", MediaType.TEXT_PLAIN);
+    private static final String SENDFILE_SUPPORTED = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
     @Autowired
     private DesignService designService;
 
+    @Autowired
+    private DesignJobService designJobService;
+
     @Autowired
     private PlantUmlService plantUmlService;
 
@@ -44,8 +76,17 @@ public class AssistantController {
     @Autowired
     private C4ModelService c4ModelService;
 
-    @Value("${plantuml.output-directory}")
-    private String storageLocation;
+    @Autowired
+    private DiagramStore diagramStore;
+
+    @Autowired
+    private DesignBatchService designBatchService;
+
+    @Value("${design.batch.timeout:PT1H}")
+    private Duration designBatchTimeout;
+
+    @Value("${plantuml.serve.sendfile-min-bytes:49152}")
+    private long sendfileMinBytes;
 
     @GetMapping("/")
     public String index() {
@@ -54,58 +95,228 @@ public class AssistantController {
 
     @PostMapping("/design")
     public String generateDesign(@ModelAttribute("request") DesignRequest request, Model model){
-        DesignResponse response = designService.generateDesign(request.getRequest(), request.getConversationHistory());
+        DesignResponse response = designService.generateDesign(request.getConversationId(), request.getRequest(), request.getConversationHistory());
         model.addAttribute("response", response);
         return "result";
     }
 
     @PostMapping("/api/design")
     public ResponseEntity<DesignResponse> generateDesignApi(@RequestBody DesignRequest request) {
-        DesignResponse response = designService.generateDesign(request.getRequest(), request.getConversationHistory());
+        DesignResponse response = designService.generateDesign(request.getConversationId(), request.getRequest(), request.getConversationHistory());
         return ResponseEntity.ok(response);
     }
 
+    @PostMapping("/api/design/jobs")
+    public ResponseEntity<DesignJob> submitDesignJob(@RequestBody DesignRequest request) {
+        DesignJob job = designJobService.submit(request.getConversationId(), request.getRequest(), request.getConversationHistory());
+        return ResponseEntity.accepted()
+                .location(URI.create("/api/design/jobs/" + job.getJobId()))
+                .body(job);
+    }
+
+    @GetMapping("/api/design/jobs/{jobId}")
+    public ResponseEntity<DesignJob> getDesignJob(@PathVariable String jobId) {
+        return ResponseEntity.of(designJobService.get(jobId));
+    }
+
+    @DeleteMapping("/api/design/jobs/{jobId}")
+    public ResponseEntity<DesignJob> cancelDesignJob(@PathVariable String jobId) {
+        return ResponseEntity.of(designJobService.cancel(jobId));
+    }
+
+    /**
+     * Generates every design of the batch and streams each result as an NDJSON line once it is
+     * complete, in completion order.
+     */
+    @PostMapping(value = "/api/design/batch", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<ResponseBodyEmitter> generateDesignBatch(@RequestBody DesignBatchRequest request) {
+        List<DesignRequest> requests = request.getRequests();
+        if (requests == null || requests.isEmpty() || requests.size() > designBatchService.getMaxItems()) {
+            log.warn("Rejected a design batch of {} requests", requests == null ? 0 : requests.size());
+            return ResponseEntity.badRequest().build();
+        }
+        ResponseBodyEmitter emitter = new ResponseBodyEmitter(designBatchTimeout.toMillis());
+        designBatchService.submit(requests, new DesignBatchService.BatchListener() {
+            @Override
+            public boolean onItem(DesignBatchItem item) {
+                // Items complete on several threads; each line must be written whole
+                synchronized (emitter) {
+                    try {
+                        emitter.send(item, MediaType.APPLICATION_JSON);
+                        emitter.send("\n", MediaType.TEXT_PLAIN);
+                        return true;
+                    } catch (IOException | IllegalStateException e) {
+                        log.debug("Design batch client went away: {}", e.getMessage());
+                        return false;
+                    }
+                }
+            }
+
+            @Override
+            public void onComplete() {
+                emitter.complete();
+            }
+        });
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(emitter);
+    }
+
+    @PostMapping(value = "/api/design/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamDesignApi(@RequestBody DesignRequest request) {
+        SseEmitter emitter = new SseEmitter(DESIGN_STREAM_TIMEOUT_MS);
+        designService.streamDesign(request.getConversationId(), request.getRequest(), request.getConversationHistory(), new DesignStreamListener() {
+            @Override
+            public void onExplanation(String text) {
+                send(SseEmitter.event().name("explanation").data(Map.of("text", text)));
+            }
+
+            @Override
+            public void onDiagramStarted() {
+                send(SseEmitter.event().name("diagram").data(Map.of("status", "rendering")));
+            }
+
+            @Override
+            public void onDiagramPreview(StoredDiagram preview) {
+                send(SseEmitter.event().name("preview").data(Map.of("diagramFilename", preview.name())));
+            }
+
+            @Override
+            public void onComplete(DesignResponse response) {
+                if (send(SseEmitter.event().name("design").data(response))) {
+                    emitter.complete();
+                }
+            }
+
+            private boolean send(SseEmitter.SseEventBuilder event) {
+                try {
+                    emitter.send(event);
+                    return true;
+                } catch (IOException | IllegalStateException e) {
+                    log.debug("Design stream client went away: {}", e.getMessage());
+                    return false;
+                }
+            }
+        });
+        return emitter;
+    }
+
     @Autowired
     private ApplicationContext applicationContext;
 
+    /**
+     * Serves a stored diagram. Names are content hashes, so a name always has the same content: the
+     * hash is a strong ETag, clients may cache the diagram forever, and any If-Range validator
+     * matches. Clients accepting gzip get the store's precompressed copy, if it has one. Range
+     * requests are answered by Spring; large full responses are handed to Tomcat's sendfile, which
+     * copies the file to the socket with {@code FileChannel.transferTo}.
+     */
     @GetMapping("/diagram/{filename}")
-    public ResponseEntity<Resource> getDiagram(@PathVariable String filename) {
+    public ResponseEntity<Resource> getDiagram(@PathVariable String filename, ServletWebRequest webRequest) {
+        Optional<StoredDiagram> diagram = diagramStore.find(filename);
+        Optional<Resource> resource = diagram.flatMap(stored -> diagramStore.load(stored.name()));
+        if (resource.isEmpty()) {
+            log.warn("Diagram not found: {}", filename);
+            return ResponseEntity.notFound().build();
+        }
+        StoredDiagram stored = diagram.get();
+        Optional<Resource> gzipped = diagramStore.loadGzipped(filename);
+        boolean gzip = gzipped.isPresent() && acceptsGzip(webRequest.getHeader(HttpHeaders.ACCEPT_ENCODING));
+        Resource body = gzip ? gzipped.get() : resource.get();
+        String eTag = "\"" + stored.contentHash() + (gzip ? "-gzip" : "") + "\"";
+        if (gzipped.isPresent() && webRequest.getResponse() != null) {
+            // Set before the conditional check, so 304 responses vary too
+            webRequest.getResponse().setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        }
+        // Sets ETag and Last-Modified, and answers 304 when the client already has the diagram
+        if (webRequest.checkNotModified(eTag, stored.storedAt().toEpochMilli())) {
+            return null;
+        }
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .cacheControl(DIAGRAM_CACHE_CONTROL)
+                .contentType(diagramContentType(filename))
+                .header(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + filename + "\"");
+        if (gzip) {
+            response.header(HttpHeaders.CONTENT_ENCODING, "gzip");
+        }
+        long size;
         try {
-            Path filePath = Paths.get(storageLocation).resolve(filename).normalize();
-            log.debug("Attempting to serve diagram from path: {}", filePath.toAbsolutePath());
-
-            Resource resource = new FileSystemResource(filePath.toFile());
+            size = gzip ? body.contentLength() : stored.size();
+        } catch (IOException e) {
+            log.warn("Diagram not found: {}", filename);
+            return ResponseEntity.notFound().build();
+        }
+        if (sendfile(webRequest.getRequest(), body, size)) {
+            log.info("Successfully served diagram: {} ({} bytes, sendfile)", filename, size);
+            return response.header(HttpHeaders.ACCEPT_RANGES, "bytes").contentLength(size).build();
+        }
+        log.info("Successfully served diagram: {}", filename);
+        return response.body(body);
+    }
 
-            if (!resource.exists()) {
-                log.warn("Diagram file not found at resolved path: {}", filePath.toAbsolutePath());
-                return ResponseEntity.notFound().build();
+    private static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.split(";");
+            String name = parts[0].strip();
+            if (name.equalsIgnoreCase("gzip") || name.equals("*")) {
+                return parts.length == 1 || !parts[1].strip().matches("q=0(\\.0*)?");
             }
+        }
+        return false;
+    }
 
-            String contentType = Files.probeContentType(filePath);
-            if (contentType == null) {
-                contentType = "application/octet-stream";
-            }
+    private static MediaType diagramContentType(String filename) {
+        String extension = filename.substring(filename.lastIndexOf('.') + 1);
+        return DIAGRAM_CONTENT_TYPES.getOrDefault(extension, MediaType.APPLICATION_OCTET_STREAM);
+    }
 
-            log.info("Successfully served diagram: {}", filename);
-            return ResponseEntity.ok()
-                    .contentType(MediaType.parseMediaType(contentType))
-                    .header(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + resource.getFilename() + "\"")
-                    .body(resource);
-        } catch (IOException e){
-            log.error("Could not determine file type for diagram: {}", filename, e);
-            return ResponseEntity.internalServerError().build();
+    /**
+     * Asks Tomcat to send the whole file itself once the request returns, if the connector supports
+     * it and the file is large enough for sendfile to beat a buffered copy.
+     */
+    private boolean sendfile(HttpServletRequest request, Resource resource, long size) {
+        if (size < sendfileMinBytes
+                || !HttpMethod.GET.matches(request.getMethod())
+                || request.getHeader(HttpHeaders.RANGE) != null
+                || !Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORTED))
+                || !resource.isFile()) {
+            return false;
         }
+        try {
+            request.setAttribute(SENDFILE_FILENAME, resource.getFile().getAbsolutePath());
+        } catch (IOException e) {
+            return false;
+        }
+        request.setAttribute(SENDFILE_START, 0L);
+        request.setAttribute(SENDFILE_END, size);
+        return true;
     }
 
     @PostMapping("/api/plantuml/generate")
     @ResponseBody
-    public ResponseEntity<byte[]> generatePlantUmlDiagram(@RequestBody PlantUmlRequest request) {
+    public ResponseEntity<byte[]> generatePlantUmlDiagram(@RequestBody PlantUmlRequest request,
+                                                          @RequestParam(required = false) String format,
+                                                          @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
+        // An explicit format parameter wins over the Accept header
+        Optional<DiagramFormat> diagramFormat = format != null
+                ? DiagramFormat.fromName(format)
+                : DiagramFormat.negotiate(accept, plantUmlService.getDefaultFormat());
+        if (diagramFormat.isEmpty()) {
+            return ResponseEntity.status(HttpStatus.NOT_ACCEPTABLE).build();
+        }
         try {
-            String validateUml = c4ModelService.validateAndEnhanceC4Syntax(request.getUmlCode());
-            byte[] diagramBytes = plantUmlService.generateDiagramBytes(validateUml);
+            String validateUml = c4ModelService.prepareForRendering(request.getUmlCode());
+            byte[] diagramBytes = plantUmlService.generateDiagramBytes(validateUml, diagramFormat.get());
             return ResponseEntity.ok()
-                    .contentType(MediaType.IMAGE_PNG)
+                    .contentType(diagramFormat.get().mediaType())
+                    .header(HttpHeaders.VARY, HttpHeaders.ACCEPT)
                     .body(diagramBytes);
+        } catch (DiagramRenderRejectedException e) {
+            log.warn("Rejected PlantUML render: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                    .build();
         } catch(IOException e) {
             log.error("Error generating PlantUML diagram:", e);
             return ResponseEntity.internalServerError().build();
@@ -113,8 +324,7 @@ public class AssistantController {
     }
 
     @GetMapping("/api/health")
-    public ResponseEntity<Map<String, Boolean>> healthCheck() {
-        boolean isRunning = healthCheckService.isLlamaRunning();
-        return ResponseEntity.ok(Map.of("isLlamaRunning", isRunning));
+    public ResponseEntity<HealthCheckService.Status> healthCheck() {
+        return ResponseEntity.ok(healthCheckService.getStatus());
     }
 }
\ No newline at end of file
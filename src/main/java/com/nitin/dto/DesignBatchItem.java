@@ -0,0 +1,20 @@
+package com.nitin.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Builder;
+import lombok.Data;
+
+/**
+ * The outcome of one request of a batch, streamed as soon as it completes. {@code index} is the
+ * request's position in the batch, since items complete out of order.
+ */
+@Data
+@Builder
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class DesignBatchItem {
+    private int index;
+    private DesignJob.Status status;
+    private long durationMillis;
+    private String errorMessage;
+    private DesignResponse result;
+}
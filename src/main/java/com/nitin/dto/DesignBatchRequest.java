@@ -0,0 +1,10 @@
+package com.nitin.dto;
+
+import java.util.List;
+
+public class DesignBatchRequest {
+    private List<DesignRequest> requests;
+
+    public List<DesignRequest> getRequests() { return requests; }
+    public void setRequests(List<DesignRequest> requests) { this.requests = requests; }
+}
@@ -4,11 +4,15 @@ import java.util.List;
 
 public class DesignRequest {
     private String request;
+    private String conversationId;
     private List<Conversation> conversationHistory;
 
     public String getRequest() { return request; }
     public void setRequest(String request) { this.request = request; }
 
+    public String getConversationId() { return conversationId; }
+    public void setConversationId(String conversationId) { this.conversationId = conversationId; }
+
     public List<Conversation> getConversationHistory() { return conversationHistory; }
     public void setConversationHistory(List<Conversation> conversationHistory) { this.conversationHistory = conversationHistory; }
 }
@@ -1,15 +1,19 @@
 package com.nitin.dto;
 
+import java.util.Map;
+
 public class DesignResponse {
     private String userRequest;
     private String explanation;
     private String plantUmlCode;
     private String diagramPath;
     private String diagramFilename;
+    private Map<String, String> diagramExports;
     private boolean success;
     private String errorMessage;
     private Conversation conversation;
     private boolean clarificationNeeded;
+    private String conversationId;
 
     // Private constructor to force use of the builder
     private DesignResponse() {}
@@ -19,16 +23,33 @@ public class DesignResponse {
         return new DesignResponseBuilder();
     }
 
+    public DesignResponseBuilder toBuilder() {
+        return builder()
+                .userRequest(userRequest)
+                .explanation(explanation)
+                .plantUmlCode(plantUmlCode)
+                .diagramPath(diagramPath)
+                .diagramFilename(diagramFilename)
+                .diagramExports(diagramExports)
+                .success(success)
+                .errorMessage(errorMessage)
+                .conversation(conversation)
+                .clarificationNeeded(clarificationNeeded)
+                .conversationId(conversationId);
+    }
+
     // Getters
     public String getUserRequest() { return userRequest; }
     public String getExplanation() { return explanation; }
     public String getPlantUmlCode() { return plantUmlCode; }
     public String getDiagramPath() { return diagramPath; }
     public String getDiagramFilename() { return diagramFilename; }
+    public Map<String, String> getDiagramExports() { return diagramExports; }
     public boolean isSuccess() { return success; }
     public String getErrorMessage() { return errorMessage; }
     public Conversation getConversation() { return conversation; }
     public boolean isClarificationNeeded() { return clarificationNeeded; }
+    public String getConversationId() { return conversationId; }
 
     public static class DesignResponseBuilder {
         private DesignResponse response = new DesignResponse();
@@ -61,6 +82,14 @@ public class DesignResponse {
             return this;
         }
 
+        /**
+         * The stored file names of the diagram in the export formats, by file extension.
+         */
+        public DesignResponseBuilder diagramExports(Map<String, String> diagramExports) {
+            response.diagramExports = diagramExports;
+            return this;
+        }
+
         public DesignResponseBuilder success(boolean success) {
             response.success = success;
             return this;
@@ -81,6 +110,11 @@ public class DesignResponse {
             return this;
         }
 
+        public DesignResponseBuilder conversationId(String conversationId) {
+            response.conversationId = conversationId;
+            return this;
+        }
+
         public DesignResponse build() {
             return response;
         }
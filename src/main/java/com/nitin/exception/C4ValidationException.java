@@ -0,0 +1,30 @@
+package com.nitin.exception;
+
+import com.nitin.c4.C4Problem;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Thrown when a C4 diagram has errors that would make PlantUML fail, so it is not rendered.
+ */
+public class C4ValidationException extends RuntimeException {
+
+    private static final int LISTED_PROBLEMS = 5;
+
+    private final List<C4Problem> problems;
+
+    public C4ValidationException(List<C4Problem> problems) {
+        super(describe(problems));
+        this.problems = List.copyOf(problems);
+    }
+
+    public List<C4Problem> getProblems() { return problems; }
+
+    private static String describe(List<C4Problem> problems) {
+        List<C4Problem> errors = problems.stream().filter(C4Problem::isError).toList();
+        String listed = errors.stream().limit(LISTED_PROBLEMS).map(C4Problem::toString).collect(Collectors.joining("; "));
+        int more = errors.size() - LISTED_PROBLEMS;
+        return "Invalid C4 diagram: " + listed + (more > 0 ? " (and " + more + " more)" : "");
+    }
+}
@@ -0,0 +1,20 @@
+package com.nitin.exception;
+
+import java.io.IOException;
+
+/**
+ * Thrown when the diagram render queue is full. It is an {@link IOException} so callers that already
+ * treat rendering failures as recoverable keep doing so; the API answers it with {@code 503} and the
+ * estimated number of seconds until the queue has drained.
+ */
+public class DiagramRenderRejectedException extends IOException {
+
+    private final long retryAfterSeconds;
+
+    public DiagramRenderRejectedException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public long getRetryAfterSeconds() { return retryAfterSeconds; }
+}
@@ -0,0 +1,13 @@
+package com.nitin.exception;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a single diagram render runs longer than {@code plantuml.render.timeout}.
+ */
+public class DiagramRenderTimeoutException extends IOException {
+
+    public DiagramRenderTimeoutException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,22 @@
+package com.nitin.exception;
+
+import org.springframework.http.HttpStatus;
+
+/**
+ * Thrown when the LLM backend has no capacity left for a request. Carries the status to answer
+ * with and an estimate, in seconds, of when a retry is likely to be admitted.
+ */
+public class LlmOverloadedException extends RuntimeException {
+
+    private final HttpStatus status;
+    private final long retryAfterSeconds;
+
+    public LlmOverloadedException(HttpStatus status, String message, long retryAfterSeconds) {
+        super(message);
+        this.status = status;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public HttpStatus getStatus() { return status; }
+    public long getRetryAfterSeconds() { return retryAfterSeconds; }
+}
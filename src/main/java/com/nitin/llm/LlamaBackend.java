@@ -0,0 +1,114 @@
+package com.nitin.llm;
+
+import dev.langchain4j.model.chat.ChatLanguageModel;
+import dev.langchain4j.model.chat.StreamingChatLanguageModel;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One llama.cpp server behind the {@link LlamaBackendRouter}, with the load and health figures
+ * the router uses to pick it.
+ */
+public class LlamaBackend {
+
+    private static final double EWMA_WEIGHT = 0.3;
+
+    public record Stats(String url, boolean available, int outstanding, long averageLatencyMillis,
+                        long requests, long failures, int consecutiveFailures, Instant ejectedUntil) {}
+
+    private final String url;
+    private final ChatLanguageModel chatModel;
+    private final StreamingChatLanguageModel streamingModel;
+    private final ChatLanguageModel repairModel;
+
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private double averageLatencyMillis;
+    private int consecutiveFailures;
+    private int ejections;
+    private Instant ejectedUntil;
+
+    public LlamaBackend(String url, ChatLanguageModel chatModel, StreamingChatLanguageModel streamingModel,
+                        ChatLanguageModel repairModel) {
+        this.url = url;
+        this.chatModel = chatModel;
+        this.streamingModel = streamingModel;
+        this.repairModel = repairModel;
+    }
+
+    public String getUrl() { return url; }
+    ChatLanguageModel getChatModel() { return chatModel; }
+    StreamingChatLanguageModel getStreamingModel() { return streamingModel; }
+    ChatLanguageModel getRepairModel() { return repairModel; }
+
+    int getOutstanding() {
+        return outstanding.get();
+    }
+
+    synchronized double getAverageLatencyMillis() {
+        return averageLatencyMillis;
+    }
+
+    synchronized boolean isAvailable() {
+        return ejectedUntil == null;
+    }
+
+    synchronized boolean isDueForProbe(Instant now) {
+        return ejectedUntil != null && !now.isBefore(ejectedUntil);
+    }
+
+    void started() {
+        outstanding.incrementAndGet();
+        requests.incrementAndGet();
+    }
+
+    synchronized void succeeded(long latencyMillis) {
+        outstanding.decrementAndGet();
+        averageLatencyMillis = averageLatencyMillis == 0
+                ? latencyMillis
+                : EWMA_WEIGHT * latencyMillis + (1 - EWMA_WEIGHT) * averageLatencyMillis;
+        consecutiveFailures = 0;
+    }
+
+    /**
+     * Records a failed call and returns {@code true} if it caused the backend to be ejected.
+     */
+    synchronized boolean failed(int maxConsecutiveFailures, Duration baseEjection) {
+        outstanding.decrementAndGet();
+        failures.incrementAndGet();
+        consecutiveFailures++;
+        if (ejectedUntil == null && consecutiveFailures >= maxConsecutiveFailures) {
+            eject(baseEjection);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Keeps the backend ejected after a failed probe, backing off exponentially.
+     */
+    synchronized void probeFailed(Duration baseEjection) {
+        eject(baseEjection);
+    }
+
+    synchronized void readmit() {
+        ejectedUntil = null;
+        consecutiveFailures = 0;
+        ejections = 0;
+    }
+
+    synchronized Stats stats() {
+        return new Stats(url, ejectedUntil == null, outstanding.get(), Math.round(averageLatencyMillis),
+                requests.get(), failures.get(), consecutiveFailures, ejectedUntil);
+    }
+
+    private void eject(Duration baseEjection) {
+        long backoff = baseEjection.toMillis() << Math.min(ejections, 5);
+        ejections++;
+        ejectedUntil = Instant.now().plusMillis(backoff);
+    }
+}
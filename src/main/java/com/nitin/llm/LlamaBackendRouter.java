@@ -0,0 +1,210 @@
+package com.nitin.llm;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.model.StreamingResponseHandler;
+import dev.langchain4j.model.chat.ChatLanguageModel;
+import dev.langchain4j.model.chat.StreamingChatLanguageModel;
+import dev.langchain4j.model.output.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Spreads generations over several llama.cpp servers. A conversation sticks to the backend that
+ * served it before, so its KV cache stays warm; other requests go to the available backend with the
+ * fewest outstanding requests or the lowest latency EWMA. Backends that fail repeatedly are ejected
+ * and only re-admitted once a probe of their {@code /health} endpoint succeeds.
+ */
+public class LlamaBackendRouter implements ChatLanguageModel, StreamingChatLanguageModel {
+
+    private static final Logger log = LoggerFactory.getLogger(LlamaBackendRouter.class);
+    private static final int MAX_TRACKED_CONVERSATIONS = 10_000;
+
+    public enum Strategy {
+        LEAST_OUTSTANDING, EWMA
+    }
+
+    private final List<LlamaBackend> backends;
+    private final Strategy strategy;
+    private final int maxConsecutiveFailures;
+    private final Duration ejectionTime;
+    private int nextOffset;
+    private final HttpClient probeClient = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(2)).build();
+    private final Map<String, LlamaBackend> backendByConversation = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, LlamaBackend> eldest) {
+            return size() > MAX_TRACKED_CONVERSATIONS;
+        }
+    };
+
+    public LlamaBackendRouter(List<LlamaBackend> backends, Strategy strategy, int maxConsecutiveFailures, Duration ejectionTime) {
+        this.backends = List.copyOf(backends);
+        this.strategy = strategy;
+        this.maxConsecutiveFailures = maxConsecutiveFailures;
+        this.ejectionTime = ejectionTime;
+    }
+
+    @Override
+    public Response<AiMessage> generate(List<ChatMessage> messages) {
+        return generate(messages, LlamaBackend::getChatModel);
+    }
+
+    /**
+     * The backends' repair models, which answer with a much smaller token budget, routed and
+     * accounted for like regular generations.
+     */
+    public ChatLanguageModel repairModel() {
+        return messages -> generate(messages, LlamaBackend::getRepairModel);
+    }
+
+    private Response<AiMessage> generate(List<ChatMessage> messages, Function<LlamaBackend, ChatLanguageModel> model) {
+        LlamaBackend backend = select();
+        long start = System.nanoTime();
+        backend.started();
+        try {
+            Response<AiMessage> response = model.apply(backend).generate(messages);
+            backend.succeeded(Duration.ofNanos(System.nanoTime() - start).toMillis());
+            return response;
+        } catch (RuntimeException e) {
+            recordFailure(backend, e);
+            throw e;
+        }
+    }
+
+    @Override
+    public void generate(List<ChatMessage> messages, StreamingResponseHandler<AiMessage> handler) {
+        LlamaBackend backend = select();
+        long start = System.nanoTime();
+        backend.started();
+        try {
+            backend.getStreamingModel().generate(messages, new StreamingResponseHandler<>() {
+                @Override
+                public void onNext(String token) {
+                    handler.onNext(token);
+                }
+
+                @Override
+                public void onComplete(Response<AiMessage> response) {
+                    backend.succeeded(Duration.ofNanos(System.nanoTime() - start).toMillis());
+                    handler.onComplete(response);
+                }
+
+                @Override
+                public void onError(Throwable error) {
+                    recordFailure(backend, error);
+                    handler.onError(error);
+                }
+            });
+        } catch (RuntimeException e) {
+            recordFailure(backend, e);
+            throw e;
+        }
+    }
+
+    public List<String> urls() {
+        return backends.stream().map(LlamaBackend::getUrl).toList();
+    }
+
+    public List<LlamaBackend.Stats> stats() {
+        return backends.stream().map(LlamaBackend::stats).toList();
+    }
+
+    /**
+     * Probes ejected backends whose ejection period is over and re-admits those that answer.
+     */
+    @Scheduled(fixedDelayString = "${llama.routing.probe-interval:PT5S}")
+    public void probeEjectedBackends() {
+        Instant now = Instant.now();
+        for (LlamaBackend backend : backends) {
+            if (!backend.isDueForProbe(now)) {
+                continue;
+            }
+            if (probe(backend)) {
+                backend.readmit();
+                log.info("Re-admitted llama.cpp backend {}", backend.getUrl());
+            } else {
+                backend.probeFailed(ejectionTime);
+                log.debug("llama.cpp backend {} is still unavailable", backend.getUrl());
+            }
+        }
+    }
+
+    private LlamaBackend select() {
+        String conversationId = LlmClientContext.currentConversationId();
+        synchronized (backendByConversation) {
+            if (conversationId != null) {
+                LlamaBackend pinned = backendByConversation.get(conversationId);
+                if (pinned != null && pinned.isAvailable()) {
+                    return pinned;
+                }
+            }
+            LlamaBackend chosen = leastLoaded(true);
+            if (chosen == null) {
+                // Everything is ejected: use the least loaded backend rather than failing outright
+                chosen = leastLoaded(false);
+            }
+            if (conversationId != null) {
+                backendByConversation.put(conversationId, chosen);
+            }
+            return chosen;
+        }
+    }
+
+    private LlamaBackend leastLoaded(boolean availableOnly) {
+        // Start at a rotating offset so ties are spread over the backends
+        int offset = nextOffset++;
+        LlamaBackend best = null;
+        for (int i = 0; i < backends.size(); i++) {
+            LlamaBackend backend = backends.get(Math.floorMod(offset + i, backends.size()));
+            if (availableOnly && !backend.isAvailable()) {
+                continue;
+            }
+            if (best == null || load(backend) < load(best)) {
+                best = backend;
+            }
+        }
+        return best;
+    }
+
+    private double load(LlamaBackend backend) {
+        if (strategy == Strategy.EWMA) {
+            // Weight latency by queue length so an idle, slower backend still gets traffic
+            return (backend.getOutstanding() + 1) * backend.getAverageLatencyMillis();
+        }
+        return backend.getOutstanding();
+    }
+
+    private void recordFailure(LlamaBackend backend, Throwable error) {
+        if (backend.failed(maxConsecutiveFailures, ejectionTime)) {
+            log.warn("Ejected llama.cpp backend {} after {} consecutive failures, last: {}",
+                    backend.getUrl(), maxConsecutiveFailures, error.getMessage());
+        }
+    }
+
+    private boolean probe(LlamaBackend backend) {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(backend.getUrl().replaceAll("/+$", "") + "/health"))
+                .timeout(Duration.ofSeconds(5))
+                .GET()
+                .build();
+        try {
+            return probeClient.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() == 200;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.nitin.llm;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.model.StreamingResponseHandler;
+import dev.langchain4j.model.chat.ChatLanguageModel;
+import dev.langchain4j.model.chat.StreamingChatLanguageModel;
+import dev.langchain4j.model.output.FinishReason;
+import dev.langchain4j.model.output.Response;
+import dev.langchain4j.model.output.TokenUsage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Client for llama.cpp's native {@code /completion} endpoint. Prompts are rendered with a fixed
+ * {@link PromptTemplate}, so the system prompt is a byte-stable prefix, and sent with
+ * {@code cache_prompt} and the conversation's {@code id_slot}, while that slot is idle: llama.cpp
+ * then only prefills the part of the prompt that is not already in that slot's KV cache. Prefill and generation timings reported
+ * by the server are logged for every request.
+ */
+public class LlamaCppCompletionModel implements ChatLanguageModel, StreamingChatLanguageModel {
+
+    private static final Logger log = LoggerFactory.getLogger(LlamaCppCompletionModel.class);
+    private static final String DATA_PREFIX = "data: ";
+
+    public record Timings(int promptTokens, int cachedTokens, double prefillMillis, int generatedTokens, double generationMillis) {}
+
+    private final URI completionUri;
+    private final PromptTemplate promptTemplate;
+    private final SlotAffinity slotAffinity;
+    private final double temperature;
+    private final int maxTokens;
+    private final Duration timeout;
+    private final HttpClient httpClient;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    public LlamaCppCompletionModel(String baseUrl, PromptTemplate promptTemplate, SlotAffinity slotAffinity,
+                                   double temperature, int maxTokens, Duration timeout) {
+        this.completionUri = URI.create(baseUrl.replaceAll("/+$", "") + "/completion");
+        this.promptTemplate = promptTemplate;
+        this.slotAffinity = slotAffinity;
+        this.temperature = temperature;
+        this.maxTokens = maxTokens;
+        this.timeout = timeout;
+        this.httpClient = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+    }
+
+    @Override
+    public Response<AiMessage> generate(List<ChatMessage> messages) {
+        try (SlotAffinity.Claim slot = slotAffinity.claim(LlmClientContext.currentConversationId())) {
+            HttpRequest request = buildRequest(messages, slot.slot(), false);
+            HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() != 200) {
+                throw new IllegalStateException("llama.cpp returned " + response.statusCode() + ": " + response.body());
+            }
+            JsonNode body = objectMapper.readTree(response.body());
+            return toResponse(body.path("content").asText(), body);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not reach llama.cpp at " + completionUri + ": " + e.getMessage(), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for llama.cpp", e);
+        }
+    }
+
+    @Override
+    public void generate(List<ChatMessage> messages, StreamingResponseHandler<AiMessage> handler) {
+        SlotAffinity.Claim slot = slotAffinity.claim(LlmClientContext.currentConversationId());
+        HttpRequest request;
+        try {
+            request = buildRequest(messages, slot.slot(), true);
+        } catch (RuntimeException e) {
+            slot.close();
+            throw e;
+        }
+        httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofLines())
+                .thenAccept(response -> {
+                    if (response.statusCode() != 200) {
+                        String body = String.join("\n", response.body().toList());
+                        handler.onError(new IllegalStateException("llama.cpp returned " + response.statusCode() + ": " + body));
+                        return;
+                    }
+                    readStream(response.body(), handler);
+                })
+                .exceptionally(error -> {
+                    handler.onError(error);
+                    return null;
+                })
+                .whenComplete((ignored, error) -> slot.close());
+    }
+
+    private void readStream(Stream<String> lines, StreamingResponseHandler<AiMessage> handler) {
+        StringBuilder content = new StringBuilder();
+        try (lines) {
+            for (String line : (Iterable<String>) lines::iterator) {
+                if (!line.startsWith(DATA_PREFIX)) {
+                    continue;
+                }
+                JsonNode chunk = objectMapper.readTree(line.substring(DATA_PREFIX.length()));
+                String token = chunk.path("content").asText("");
+                if (!token.isEmpty()) {
+                    content.append(token);
+                    handler.onNext(token);
+                }
+                if (chunk.path("stop").asBoolean(false)) {
+                    handler.onComplete(toResponse(content.toString(), chunk));
+                    return;
+                }
+            }
+            handler.onComplete(Response.from(AiMessage.from(content.toString())));
+        } catch (IOException | RuntimeException e) {
+            handler.onError(e);
+        }
+    }
+
+    private HttpRequest buildRequest(List<ChatMessage> messages, int slot, boolean stream) {
+        ObjectNode body = objectMapper.createObjectNode()
+                .put("prompt", promptTemplate.render(messages))
+                .put("n_predict", maxTokens)
+                .put("temperature", temperature)
+                .put("cache_prompt", true)
+                .put("id_slot", slot)
+                .put("stream", stream);
+        try {
+            return HttpRequest.newBuilder(completionUri)
+                    .timeout(timeout)
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(objectMapper.writeValueAsString(body)))
+                    .build();
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not serialize llama.cpp request", e);
+        }
+    }
+
+    private Response<AiMessage> toResponse(String content, JsonNode body) {
+        JsonNode timingsNode = body.path("timings");
+        int promptTokens = body.path("tokens_evaluated").asInt();
+        int prefilledTokens = timingsNode.path("prompt_n").asInt();
+        Timings timings = new Timings(
+                promptTokens,
+                Math.max(0, promptTokens - prefilledTokens),
+                timingsNode.path("prompt_ms").asDouble(),
+                timingsNode.path("predicted_n").asInt(),
+                timingsNode.path("predicted_ms").asDouble());
+        log.info("llama.cpp slot {}: prompt of {} tokens ({} from cache) prefilled in {} ms, generated {} tokens in {} ms",
+                body.path("id_slot").asInt(-1), timings.promptTokens(), timings.cachedTokens(),
+                Math.round(timings.prefillMillis()), timings.generatedTokens(), Math.round(timings.generationMillis()));
+
+        FinishReason finishReason = body.path("stopped_limit").asBoolean(false) ? FinishReason.LENGTH : FinishReason.STOP;
+        return Response.from(AiMessage.from(content),
+                new TokenUsage(timings.promptTokens(), timings.generatedTokens()),
+                finishReason);
+    }
+}
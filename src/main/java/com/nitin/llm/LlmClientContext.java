@@ -0,0 +1,84 @@
+package com.nitin.llm;
+
+import java.util.concurrent.Callable;
+
+/**
+ * Identifies the client on whose behalf the current thread calls the LLM, so the scheduler can
+ * share backend slots fairly between clients, and the conversation being continued, so backends
+ * can keep it on the slot that already caches its prompt. Set per request by the web layer.
+ * Background work, which no caller is waiting on, is marked as such so the scheduler queues it
+ * instead of turning it away.
+ */
+public final class LlmClientContext {
+
+    public static final String ANONYMOUS = "anonymous";
+
+    private static final ThreadLocal<String> CLIENT_ID = new ThreadLocal<>();
+    private static final ThreadLocal<String> CONVERSATION_ID = new ThreadLocal<>();
+    private static final ThreadLocal<Boolean> BACKGROUND = new ThreadLocal<>();
+
+    private LlmClientContext() {}
+
+    public static String currentClientId() {
+        String clientId = CLIENT_ID.get();
+        return clientId != null ? clientId : ANONYMOUS;
+    }
+
+    /**
+     * Returns the conversation the current call belongs to, or {@code null} if unknown.
+     */
+    public static String currentConversationId() {
+        return CONVERSATION_ID.get();
+    }
+
+    /**
+     * Whether the current call is background work, such as a design job or a batch item.
+     */
+    public static boolean isBackground() {
+        return Boolean.TRUE.equals(BACKGROUND.get());
+    }
+
+    public static void set(String clientId) {
+        CLIENT_ID.set(clientId);
+    }
+
+    public static void clear() {
+        CLIENT_ID.remove();
+    }
+
+    /**
+     * Runs the task with the given client id bound, restoring the previous binding afterwards.
+     * Used when work is handed off to another thread.
+     */
+    public static <T> T callAs(String clientId, Callable<T> task) throws Exception {
+        return callWith(CLIENT_ID, clientId, task);
+    }
+
+    /**
+     * Runs the task with the given conversation id bound, restoring the previous binding afterwards.
+     */
+    public static <T> T callInConversation(String conversationId, Callable<T> task) throws Exception {
+        return callWith(CONVERSATION_ID, conversationId, task);
+    }
+
+    /**
+     * Runs the task as background work, restoring the previous binding afterwards.
+     */
+    public static <T> T callInBackground(Callable<T> task) throws Exception {
+        return callWith(BACKGROUND, Boolean.TRUE, task);
+    }
+
+    private static <T, V> T callWith(ThreadLocal<V> binding, V value, Callable<T> task) throws Exception {
+        V previous = binding.get();
+        binding.set(value);
+        try {
+            return task.call();
+        } finally {
+            if (previous != null) {
+                binding.set(previous);
+            } else {
+                binding.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package com.nitin.llm;
+
+import com.nitin.exception.LlmOverloadedException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Admission control in front of the llama.cpp server. Hands out one permit per server slot and
+ * queues the rest, serving waiting clients round-robin so a single client cannot starve others.
+ *
+ * <p>A request that has to wait is admitted only if it fits the queue and is expected to start
+ * within the wait budget. The queue bounds, {@code max-queued} overall and {@code max-queued-per-client}
+ * per client, apply first and are what limit the queue while generations are short next to the
+ * budget. The estimate takes over when generations are long: it counts the waiters served before
+ * the request in round-robin order, and the time the running generations still need by the observed
+ * average generation time. Rejections answer 429 (client limit) or 503 (queue full, or expected
+ * wait too long) with that estimate as Retry-After, instead of piling requests up inside llama.cpp
+ * to time out together. An admitted request that still waits the whole budget is rejected with 503.
+ *
+ * <p>Background work, such as design jobs and batches, has already been accepted and has no caller
+ * waiting on the connection, so it queues without those rules: it waits, round-robin with everyone
+ * else under its client id, until a permit is free. It does not count against the queue bounds,
+ * but it does count in the wait estimated for interactive requests.
+ */
+@Component
+public class LlmScheduler {
+
+    private static final Logger log = LoggerFactory.getLogger(LlmScheduler.class);
+    private static final double EWMA_WEIGHT = 0.2;
+
+    public record Stats(int permits, int available, int queued, int clients, long averageGenerationMillis) {}
+
+    private final int permits;
+    private final int maxQueued;
+    private final int maxQueuedPerClient;
+    private final Duration maxWait;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<String, ArrayDeque<Waiter>> waitersByClient = new LinkedHashMap<>();
+    private final Set<Permit> running = new HashSet<>();
+    private int available;
+    private int queued;
+    private int backgroundQueued;
+    private double averageGenerationMillis;
+
+    public LlmScheduler(@Value("${llama.scheduler.permits:1}") int permits,
+                        @Value("${llama.scheduler.max-queued:4}") int maxQueued,
+                        @Value("${llama.scheduler.max-queued-per-client:2}") int maxQueuedPerClient,
+                        @Value("${llama.scheduler.max-wait:PT5M}") Duration maxWait,
+                        @Value("${llama.scheduler.initial-generation-estimate:PT1M}") Duration initialEstimate) {
+        this.permits = permits;
+        this.maxQueued = maxQueued;
+        this.maxQueuedPerClient = maxQueuedPerClient;
+        this.maxWait = maxWait;
+        this.available = permits;
+        this.averageGenerationMillis = initialEstimate.toMillis();
+    }
+
+    /**
+     * Blocks until a backend slot is free for the client, or throws {@link LlmOverloadedException}
+     * when the request cannot be admitted. The returned permit must be closed exactly once.
+     */
+    public Permit acquire(String clientId) {
+        return acquire(clientId, false);
+    }
+
+    /**
+     * Like {@link #acquire(String)}, but with {@code background} set the caller waits for a permit
+     * however long the queue is, and is only turned away if interrupted.
+     */
+    public Permit acquire(String clientId, boolean background) {
+        Waiter waiter = null;
+        lock.lock();
+        try {
+            if (available > 0 && queued == 0) {
+                available--;
+                return start();
+            }
+            if (background) {
+                waiter = enqueue(clientId, true);
+                log.debug("Queued background LLM request for client {} ({} waiting)", clientId, queued);
+                while (!waiter.granted) {
+                    waiter.condition.await();
+                }
+                return start();
+            }
+
+            ArrayDeque<Waiter> clientQueue = waitersByClient.get(clientId);
+            int clientQueued = clientQueue != null
+                    ? (int) clientQueue.stream().filter(queuedWaiter -> !queuedWaiter.background).count() : 0;
+            long estimatedWaitMillis = estimatedWaitMillis(waitersAhead(clientId));
+            if (clientQueued >= maxQueuedPerClient) {
+                throw new LlmOverloadedException(HttpStatus.TOO_MANY_REQUESTS,
+                        "Too many queued design requests for this client", retryAfterSeconds(estimatedWaitMillis));
+            }
+            if (queued - backgroundQueued >= maxQueued) {
+                throw new LlmOverloadedException(HttpStatus.SERVICE_UNAVAILABLE,
+                        "The LLM backend is at capacity", retryAfterSeconds(estimatedWaitMillis));
+            }
+            if (estimatedWaitMillis > maxWait.toMillis()) {
+                // It would most likely time out in the queue
+                throw new LlmOverloadedException(HttpStatus.SERVICE_UNAVAILABLE,
+                        "The LLM backend cannot start this request in time", retryAfterSeconds(estimatedWaitMillis));
+            }
+
+            waiter = enqueue(clientId, false);
+            log.debug("Queued LLM request for client {} ({} waiting, estimated wait {} ms)", clientId, queued, estimatedWaitMillis);
+
+            long remainingNanos = maxWait.toNanos();
+            while (!waiter.granted && remainingNanos > 0) {
+                remainingNanos = waiter.condition.awaitNanos(remainingNanos);
+            }
+            if (waiter.granted) {
+                return start();
+            }
+            dequeue(clientId, waiter);
+            throw new LlmOverloadedException(HttpStatus.SERVICE_UNAVAILABLE,
+                    "Timed out waiting for a free LLM slot", retryAfterSeconds(estimatedWaitMillis(queued)));
+        } catch (InterruptedException e) {
+            // The waiter may have been granted the permit just before the interrupt
+            if (waiter != null && waiter.granted) {
+                handOff();
+            } else if (waiter != null) {
+                dequeue(clientId, waiter);
+            }
+            Thread.currentThread().interrupt();
+            throw new LlmOverloadedException(HttpStatus.SERVICE_UNAVAILABLE,
+                    "Interrupted while waiting for a free LLM slot", retryAfterSeconds(estimatedWaitMillis(queued)));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Stats stats() {
+        lock.lock();
+        try {
+            return new Stats(permits, available, queued, waitersByClient.size(), Math.round(averageGenerationMillis));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Permit start() {
+        Permit permit = new Permit();
+        running.add(permit);
+        return permit;
+    }
+
+    private void release(Permit permit, long heldNanos) {
+        lock.lock();
+        try {
+            running.remove(permit);
+            double heldMillis = TimeUnit.NANOSECONDS.toMillis(heldNanos);
+            averageGenerationMillis = EWMA_WEIGHT * heldMillis + (1 - EWMA_WEIGHT) * averageGenerationMillis;
+            handOff();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Passes a freed permit to the next waiting client, or returns it to the pool. Called with the lock held.
+     */
+    private void handOff() {
+        Waiter next = nextWaiter();
+        if (next != null) {
+            next.granted = true;
+            next.condition.signal();
+        } else {
+            available++;
+        }
+    }
+
+    private Waiter enqueue(String clientId, boolean background) {
+        Waiter waiter = new Waiter(lock.newCondition(), background);
+        waitersByClient.computeIfAbsent(clientId, id -> new ArrayDeque<>()).addLast(waiter);
+        queued++;
+        if (background) {
+            backgroundQueued++;
+        }
+        return waiter;
+    }
+
+    private Waiter nextWaiter() {
+        Iterator<Map.Entry<String, ArrayDeque<Waiter>>> clients = waitersByClient.entrySet().iterator();
+        if (!clients.hasNext()) {
+            return null;
+        }
+        Map.Entry<String, ArrayDeque<Waiter>> first = clients.next();
+        clients.remove();
+        Waiter waiter = first.getValue().pollFirst();
+        if (!first.getValue().isEmpty()) {
+            // Move the client to the back of the rotation
+            waitersByClient.put(first.getKey(), first.getValue());
+        }
+        queued--;
+        if (waiter.background) {
+            backgroundQueued--;
+        }
+        return waiter;
+    }
+
+    private void dequeue(String clientId, Waiter waiter) {
+        ArrayDeque<Waiter> clientQueue = waitersByClient.get(clientId);
+        if (clientQueue != null && clientQueue.remove(waiter)) {
+            queued--;
+            if (waiter.background) {
+                backgroundQueued--;
+            }
+            if (clientQueue.isEmpty()) {
+                waitersByClient.remove(clientId);
+            }
+        }
+    }
+
+    /**
+     * How many waiters round-robin serves before a new waiter of the client: the client's own, and
+     * from every other client at most one per round the new waiter has to wait.
+     */
+    private int waitersAhead(String clientId) {
+        ArrayDeque<Waiter> clientQueue = waitersByClient.get(clientId);
+        int rounds = clientQueue != null ? clientQueue.size() : 0;
+        int ahead = rounds;
+        for (Map.Entry<String, ArrayDeque<Waiter>> entry : waitersByClient.entrySet()) {
+            if (!entry.getKey().equals(clientId)) {
+                ahead += Math.min(entry.getValue().size(), rounds + 1);
+            }
+        }
+        return ahead;
+    }
+
+    /**
+     * Expected wait of a request with {@code ahead} waiters before it: until the permit it will get
+     * is free, after what its running generation still needs, plus one average generation per
+     * earlier round of waiters. Called with the lock held.
+     */
+    private long estimatedWaitMillis(int ahead) {
+        long average = Math.round(averageGenerationMillis);
+        long now = System.nanoTime();
+        long[] remaining = new long[permits];
+        int i = 0;
+        for (Permit permit : running) {
+            if (i < permits) {
+                remaining[i++] = Math.max(0, average - TimeUnit.NANOSECONDS.toMillis(now - permit.acquiredAt));
+            }
+        }
+        Arrays.sort(remaining);
+        return remaining[ahead % permits] + (long) (ahead / permits) * average;
+    }
+
+    private static long retryAfterSeconds(long estimatedWaitMillis) {
+        return Math.max(1, TimeUnit.MILLISECONDS.toSeconds(estimatedWaitMillis));
+    }
+
+    private static final class Waiter {
+        private final Condition condition;
+        private final boolean background;
+        private boolean granted;
+
+        private Waiter(Condition condition, boolean background) {
+            this.condition = condition;
+            this.background = background;
+        }
+    }
+
+    public final class Permit implements AutoCloseable {
+        private final long acquiredAt = System.nanoTime();
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        @Override
+        public void close() {
+            if (released.compareAndSet(false, true)) {
+                release(this, System.nanoTime() - acquiredAt);
+            }
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.nitin.llm;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.UserMessage;
+
+import java.util.List;
+
+/**
+ * Renders chat messages into the raw prompt expected by llama.cpp's {@code /completion} endpoint.
+ * Rendering is deterministic, so identical leading messages always produce identical leading bytes
+ * and llama.cpp can reuse the KV cache for that prefix.
+ */
+public enum PromptTemplate {
+
+    /** DeepSeek-R1 distills (the default model). */
+    DEEPSEEK("<｜begin▁of▁sentence｜>", "", "\n\n", "<｜User｜>", "", "<｜Assistant｜>", "<｜end▁of▁sentence｜>",
+            "<｜Assistant｜>"),
+
+    /** Qwen, and other models trained on ChatML. */
+    CHATML("", "<|im_start|>system\n", "<|im_end|>\n", "<|im_start|>user\n", "<|im_end|>\n", "<|im_start|>assistant\n",
+            "<|im_end|>\n", "<|im_start|>assistant\n");
+
+    private final String begin;
+    private final String systemPrefix;
+    private final String systemSuffix;
+    private final String userPrefix;
+    private final String userSuffix;
+    private final String assistantPrefix;
+    private final String assistantSuffix;
+    private final String generationPrompt;
+
+    PromptTemplate(String begin, String systemPrefix, String systemSuffix, String userPrefix, String userSuffix,
+                   String assistantPrefix, String assistantSuffix, String generationPrompt) {
+        this.begin = begin;
+        this.systemPrefix = systemPrefix;
+        this.systemSuffix = systemSuffix;
+        this.userPrefix = userPrefix;
+        this.userSuffix = userSuffix;
+        this.assistantPrefix = assistantPrefix;
+        this.assistantSuffix = assistantSuffix;
+        this.generationPrompt = generationPrompt;
+    }
+
+    public String render(List<ChatMessage> messages) {
+        StringBuilder prompt = new StringBuilder(begin);
+        for (ChatMessage message : messages) {
+            switch (message) {
+                case SystemMessage system -> prompt.append(systemPrefix).append(system.text()).append(systemSuffix);
+                case UserMessage user -> prompt.append(userPrefix).append(user.singleText()).append(userSuffix);
+                case AiMessage ai -> prompt.append(assistantPrefix).append(ai.text()).append(assistantSuffix);
+                default -> { }
+            }
+        }
+        return prompt.append(generationPrompt).toString();
+    }
+}
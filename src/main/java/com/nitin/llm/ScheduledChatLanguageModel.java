@@ -0,0 +1,41 @@
+package com.nitin.llm;
+
+import com.nitin.metrics.DesignMetrics;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.model.chat.ChatLanguageModel;
+import dev.langchain4j.model.output.Response;
+
+import java.util.List;
+
+/**
+ * Runs every generation of the delegate under a {@link LlmScheduler} permit. The wait for the
+ * permit and the generation are recorded as separate stages; {@code stage} names the generation
+ * stage and tags its token metrics.
+ */
+public class ScheduledChatLanguageModel implements ChatLanguageModel {
+
+    private final ChatLanguageModel delegate;
+    private final LlmScheduler scheduler;
+    private final DesignMetrics metrics;
+    private final String stage;
+
+    public ScheduledChatLanguageModel(ChatLanguageModel delegate, LlmScheduler scheduler, DesignMetrics metrics, String stage) {
+        this.delegate = delegate;
+        this.scheduler = scheduler;
+        this.metrics = metrics;
+        this.stage = stage;
+    }
+
+    @Override
+    public Response<AiMessage> generate(List<ChatMessage> messages) {
+        String clientId = LlmClientContext.currentClientId();
+        boolean background = LlmClientContext.isBackground();
+        try (LlmScheduler.Permit permit = metrics.observe(DesignMetrics.QUEUE, () -> scheduler.acquire(clientId, background))) {
+            long start = System.nanoTime();
+            Response<AiMessage> response = metrics.observe(stage, () -> delegate.generate(messages));
+            metrics.recordTokens(stage, response.tokenUsage(), System.nanoTime() - start);
+            return response;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.nitin.llm;
+
+import com.nitin.metrics.DesignMetrics;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.model.StreamingResponseHandler;
+import dev.langchain4j.model.chat.StreamingChatLanguageModel;
+import dev.langchain4j.model.output.Response;
+import io.micrometer.observation.Observation;
+
+import java.util.List;
+
+/**
+ * Streaming counterpart of {@link ScheduledChatLanguageModel}. The permit is taken on the calling
+ * thread, so rejections surface before streaming starts, and released when the stream ends. Time to
+ * first token is measured from the moment the permit is granted.
+ */
+public class ScheduledStreamingChatLanguageModel implements StreamingChatLanguageModel {
+
+    private final StreamingChatLanguageModel delegate;
+    private final LlmScheduler scheduler;
+    private final DesignMetrics metrics;
+    private final String stage;
+
+    public ScheduledStreamingChatLanguageModel(StreamingChatLanguageModel delegate, LlmScheduler scheduler,
+                                               DesignMetrics metrics, String stage) {
+        this.delegate = delegate;
+        this.scheduler = scheduler;
+        this.metrics = metrics;
+        this.stage = stage;
+    }
+
+    @Override
+    public void generate(List<ChatMessage> messages, StreamingResponseHandler<AiMessage> handler) {
+        String clientId = LlmClientContext.currentClientId();
+        boolean background = LlmClientContext.isBackground();
+        LlmScheduler.Permit permit = metrics.observe(DesignMetrics.QUEUE, () -> scheduler.acquire(clientId, background));
+        Observation generation = metrics.stage(stage).start();
+        long start = System.nanoTime();
+        try {
+            delegate.generate(messages, new StreamingResponseHandler<>() {
+                private long firstTokenAt;
+
+                @Override
+                public void onNext(String token) {
+                    if (firstTokenAt == 0) {
+                        firstTokenAt = System.nanoTime();
+                        metrics.recordTimeToFirstToken(stage, firstTokenAt - start);
+                    }
+                    handler.onNext(token);
+                }
+
+                @Override
+                public void onComplete(Response<AiMessage> response) {
+                    permit.close();
+                    generation.stop();
+                    metrics.recordTokens(stage, response.tokenUsage(), System.nanoTime() - (firstTokenAt != 0 ? firstTokenAt : start));
+                    handler.onComplete(response);
+                }
+
+                @Override
+                public void onError(Throwable error) {
+                    permit.close();
+                    generation.error(error);
+                    generation.stop();
+                    handler.onError(error);
+                }
+            });
+        } catch (RuntimeException e) {
+            permit.close();
+            generation.error(e);
+            generation.stop();
+            throw e;
+        }
+    }
+}
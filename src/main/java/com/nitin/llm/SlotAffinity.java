@@ -0,0 +1,92 @@
+package com.nitin.llm;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Pins each conversation to one llama.cpp slot, so follow-up turns land on the slot whose KV cache
+ * already holds the conversation's prompt. New conversations are spread over the idle slots
+ * round-robin.
+ *
+ * <p>A pinned slot is only used while it is idle. When it is busy with another request, the request
+ * goes without a slot ({@code -1}) and llama.cpp picks an idle one, prefilling the prompt again,
+ * rather than queueing inside llama.cpp behind the busy slot while another sits idle. Only requests
+ * sent to a slot count as busy: with {@code llama.scheduler.permits} matching the slots, requests
+ * left to llama.cpp's choice, such as repairs, can still share a slot with a pinned one.
+ */
+public class SlotAffinity {
+
+    private static final int MAX_TRACKED_CONVERSATIONS = 10_000;
+
+    private final int slots;
+    private final int[] inFlight;
+    private int nextSlot;
+    private final Map<String, Integer> slotByConversation = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+            return size() > MAX_TRACKED_CONVERSATIONS;
+        }
+    };
+
+    public SlotAffinity(int slots) {
+        this.slots = slots;
+        this.inFlight = new int[Math.max(0, slots)];
+    }
+
+    /**
+     * Claims the slot for the conversation, or -1 to let llama.cpp choose when the conversation is
+     * unknown or its slot is busy. The claim must be closed once the request is done.
+     */
+    public Claim claim(String conversationId) {
+        if (conversationId == null || slots <= 0) {
+            return new Claim(-1);
+        }
+        synchronized (slotByConversation) {
+            Integer pinned = slotByConversation.get(conversationId);
+            if (pinned != null) {
+                return inFlight[pinned] == 0 ? start(pinned) : new Claim(-1);
+            }
+            for (int i = 0; i < slots; i++) {
+                int slot = Math.floorMod(nextSlot + i, slots);
+                if (inFlight[slot] == 0) {
+                    nextSlot = slot + 1;
+                    slotByConversation.put(conversationId, slot);
+                    return start(slot);
+                }
+            }
+            // Every slot is busy; pin the conversation on a later turn
+            return new Claim(-1);
+        }
+    }
+
+    private Claim start(int slot) {
+        inFlight[slot]++;
+        return new Claim(slot);
+    }
+
+    public final class Claim implements AutoCloseable {
+        private final int slot;
+        private boolean released;
+
+        private Claim(int slot) {
+            this.slot = slot;
+        }
+
+        /**
+         * The {@code id_slot} to send, -1 for any.
+         */
+        public int slot() {
+            return slot;
+        }
+
+        @Override
+        public void close() {
+            synchronized (slotByConversation) {
+                if (slot >= 0 && !released) {
+                    released = true;
+                    inFlight[slot]--;
+                }
+            }
+        }
+    }
+}
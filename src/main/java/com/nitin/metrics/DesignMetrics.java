@@ -0,0 +1,107 @@
+package com.nitin.metrics;
+
+import dev.langchain4j.model.output.TokenUsage;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency and throughput metrics of the design pipeline. Every stage of a design is a
+ * {@code design.stage} observation tagged with the stage name, which Micrometer records as a timer
+ * and, with tracing enabled, as a span under the {@code design.request} span of the whole design.
+ * LLM calls also record time to first token, token counts and tokens per second.
+ */
+@Component
+public class DesignMetrics {
+
+    public static final String PROMPT = "prompt";
+    public static final String QUEUE = "queue";
+    public static final String GENERATION = "generation";
+    public static final String REPAIR = "repair";
+    public static final String EXTRACTION = "extraction";
+    public static final String PATCH = "patch";
+    public static final String NORMALIZATION = "normalization";
+    public static final String VALIDATION = "validation";
+    public static final String RENDER = "render";
+    public static final String STORE = "store";
+    public static final String PREVIEW = "preview";
+
+    private final ObservationRegistry observationRegistry;
+    private final MeterRegistry meterRegistry;
+
+    public DesignMetrics(ObservationRegistry observationRegistry, MeterRegistry meterRegistry) {
+        this.observationRegistry = observationRegistry;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Runs one stage of the pipeline as an observation.
+     */
+    public <T, E extends Throwable> T observe(String stage, Observation.CheckedCallable<T, E> callable) throws E {
+        return stage(stage).observeChecked(callable);
+    }
+
+    /**
+     * A stage observation, not started yet, for stages that end on another thread.
+     */
+    public Observation stage(String stage) {
+        return Observation.createNotStarted("design.stage", observationRegistry)
+                .contextualName(stage)
+                .lowCardinalityKeyValue("stage", stage);
+    }
+
+    /**
+     * The observation of a whole design, not started yet. Callers set {@code outcome} before
+     * stopping it, and {@code cache} to {@code hit} when the response cache answered; every tag is
+     * set up front, as Prometheus needs the same tag keys on every sample.
+     */
+    public Observation request(String mode) {
+        return Observation.createNotStarted("design.request", observationRegistry)
+                .contextualName("design " + mode)
+                .lowCardinalityKeyValue("mode", mode)
+                .lowCardinalityKeyValue("cache", "miss")
+                .lowCardinalityKeyValue("outcome", "unknown");
+    }
+
+    public void recordTimeToFirstToken(String model, long nanos) {
+        Timer.builder("llm.time.to.first.token")
+                .tag("model", model)
+                .register(meterRegistry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Records the tokens of a generation and its decoding rate. {@code decodeNanos} is the time spent
+     * producing the output tokens, which excludes prompt processing when time to first token is known.
+     */
+    public void recordTokens(String model, TokenUsage usage, long decodeNanos) {
+        if (usage == null) {
+            return;
+        }
+        if (usage.inputTokenCount() != null) {
+            tokens(model, "prompt").record(usage.inputTokenCount());
+        }
+        if (usage.outputTokenCount() != null) {
+            tokens(model, "completion").record(usage.outputTokenCount());
+            if (decodeNanos > 0 && usage.outputTokenCount() > 0) {
+                DistributionSummary.builder("llm.tokens.per.second")
+                        .tag("model", model)
+                        .register(meterRegistry)
+                        .record(usage.outputTokenCount() * 1e9 / decodeNanos);
+            }
+        }
+    }
+
+    private DistributionSummary tokens(String model, String type) {
+        return DistributionSummary.builder("llm.tokens")
+                .baseUnit("tokens")
+                .tag("model", model)
+                .tag("type", type)
+                .register(meterRegistry);
+    }
+}
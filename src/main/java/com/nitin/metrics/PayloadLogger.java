@@ -0,0 +1,39 @@
+package com.nitin.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Logs LLM prompts and responses for a sample of requests, cut to a maximum length, instead of
+ * writing every multi-kilobyte payload to the log. Unsampled payloads only log their size, at debug.
+ */
+@Component
+public class PayloadLogger {
+
+    private static final Logger log = LoggerFactory.getLogger(PayloadLogger.class);
+
+    @Value("${logging.payloads.sample-rate:0.01}")
+    private double sampleRate;
+
+    @Value("${logging.payloads.max-chars:2000}")
+    private int maxChars;
+
+    public void log(String kind, String payload) {
+        if (payload == null) {
+            return;
+        }
+        if (sampleRate <= 0 || ThreadLocalRandom.current().nextDouble() >= sampleRate) {
+            log.debug("{}: {} chars", kind, payload.length());
+            return;
+        }
+        if (payload.length() > maxChars) {
+            log.info("{} ({} chars, first {} shown): {}", kind, payload.length(), maxChars, payload.substring(0, maxChars));
+        } else {
+            log.info("{} ({} chars): {}", kind, payload.length(), payload);
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.nitin.metrics;
+
+import com.nitin.llm.LlamaBackend;
+import com.nitin.llm.LlamaBackendRouter;
+import com.nitin.llm.LlmScheduler;
+import com.nitin.service.DesignBatchService;
+import com.nitin.service.DesignResponseCache;
+import com.nitin.service.DesignService;
+import com.nitin.service.DiagramPreviewService;
+import com.nitin.service.DiagramRenderCache;
+import com.nitin.service.DiagramRenderExecutor;
+import com.nitin.service.DiagramRepairService;
+import com.nitin.service.PlantUmlService;
+import com.nitin.service.SingleFlight;
+import com.nitin.storage.DiagramStore;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Publishes the counters and gauges of the render pool, caches, diagram store, request coalescing,
+ * repairs, previews, batches, LLM scheduler and llama.cpp backends as Micrometer meters, read from
+ * each component's stats on every scrape. Latencies are not repeated here: they are the
+ * {@code design.stage} and {@code design.request} timers of {@link DesignMetrics}.
+ */
+@Component
+public class ServiceMetrics implements MeterBinder {
+
+    private final PlantUmlService plantUmlService;
+    private final DiagramStore diagramStore;
+    private final DesignService designService;
+    private final DesignResponseCache designResponseCache;
+    private final DiagramRepairService diagramRepairService;
+    private final DiagramPreviewService diagramPreviewService;
+    private final DesignBatchService designBatchService;
+    private final LlmScheduler llmScheduler;
+    private final LlamaBackendRouter llamaBackendRouter;
+
+    public ServiceMetrics(PlantUmlService plantUmlService, DiagramStore diagramStore, DesignService designService,
+                          DesignResponseCache designResponseCache, DiagramRepairService diagramRepairService,
+                          DiagramPreviewService diagramPreviewService, DesignBatchService designBatchService,
+                          LlmScheduler llmScheduler, LlamaBackendRouter llamaBackendRouter) {
+        this.plantUmlService = plantUmlService;
+        this.diagramStore = diagramStore;
+        this.designService = designService;
+        this.designResponseCache = designResponseCache;
+        this.diagramRepairService = diagramRepairService;
+        this.diagramPreviewService = diagramPreviewService;
+        this.designBatchService = designBatchService;
+        this.llmScheduler = llmScheduler;
+        this.llamaBackendRouter = llamaBackendRouter;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        bindRenderPool(registry);
+        bindRenderCache(registry);
+        bindDiagramStore(registry);
+        bindCoalescing(registry, "render", plantUmlService, PlantUmlService::getCoalescingStats);
+        bindCoalescing(registry, "design", designService, DesignService::getCoalescingStats);
+        bindDesignCache(registry);
+        bindRepairs(registry);
+        bindPreviews(registry);
+        bindBatches(registry);
+        bindScheduler(registry);
+        bindBackends(registry);
+    }
+
+    private void bindRenderPool(MeterRegistry registry) {
+        Function<PlantUmlService, DiagramRenderExecutor.Stats> stats = PlantUmlService::getRenderStats;
+        gauge(registry, "plantuml.render.threads", plantUmlService, stats, DiagramRenderExecutor.Stats::threads);
+        gauge(registry, "plantuml.render.active", plantUmlService, stats, DiagramRenderExecutor.Stats::active);
+        gauge(registry, "plantuml.render.abandoned", plantUmlService, stats, DiagramRenderExecutor.Stats::abandoned);
+        gauge(registry, "plantuml.render.queued", plantUmlService, stats, DiagramRenderExecutor.Stats::queued);
+        gauge(registry, "plantuml.render.queue.capacity", plantUmlService, stats, DiagramRenderExecutor.Stats::queueCapacity);
+        counter(registry, "plantuml.render.completed", plantUmlService, stats, DiagramRenderExecutor.Stats::completed);
+        counter(registry, "plantuml.render.timeouts", plantUmlService, stats, DiagramRenderExecutor.Stats::timeouts);
+        counter(registry, "plantuml.render.rejected", plantUmlService, stats, DiagramRenderExecutor.Stats::rejected);
+    }
+
+    private void bindRenderCache(MeterRegistry registry) {
+        Function<PlantUmlService, DiagramRenderCache.Stats> stats = PlantUmlService::getRenderCacheStats;
+        counter(registry, "plantuml.cache.requests", plantUmlService, stats, DiagramRenderCache.Stats::memoryHits, "result", "memory_hit");
+        counter(registry, "plantuml.cache.requests", plantUmlService, stats, DiagramRenderCache.Stats::diskHits, "result", "disk_hit");
+        counter(registry, "plantuml.cache.requests", plantUmlService, stats, DiagramRenderCache.Stats::misses, "result", "miss");
+        gauge(registry, "plantuml.cache.entries", plantUmlService, stats, DiagramRenderCache.Stats::entries);
+        Gauge.builder("plantuml.cache.size", plantUmlService, service -> service.getRenderCacheStats().bytes())
+                .baseUnit("bytes")
+                .register(registry);
+    }
+
+    private void bindDiagramStore(MeterRegistry registry) {
+        Function<DiagramStore, DiagramStore.Stats> stats = DiagramStore::stats;
+        gauge(registry, "plantuml.store.files", diagramStore, stats, DiagramStore.Stats::files);
+        Gauge.builder("plantuml.store.size", diagramStore, store -> store.stats().bytes())
+                .baseUnit("bytes")
+                .register(registry);
+        counter(registry, "plantuml.store.saved", diagramStore, stats, DiagramStore.Stats::saved);
+        counter(registry, "plantuml.store.evicted", diagramStore, stats, DiagramStore.Stats::evicted);
+        FunctionCounter.builder("plantuml.store.evicted.size", diagramStore, store -> store.stats().evictedBytes())
+                .baseUnit("bytes")
+                .register(registry);
+        Gauge.builder("plantuml.store.last.eviction", diagramStore, store -> {
+                    Instant lastEviction = store.stats().lastEviction();
+                    return lastEviction == null ? Double.NaN : lastEviction.getEpochSecond();
+                })
+                .description("When files were last evicted, in seconds since the epoch")
+                .baseUnit("seconds")
+                .register(registry);
+    }
+
+    private <T> void bindCoalescing(MeterRegistry registry, String flight, T owner, Function<T, SingleFlight.Stats> stats) {
+        counter(registry, "coalescing.executions", owner, stats, SingleFlight.Stats::executions, "flight", flight);
+        counter(registry, "coalescing.coalesced", owner, stats, SingleFlight.Stats::coalesced, "flight", flight);
+        counter(registry, "coalescing.cancelled", owner, stats, SingleFlight.Stats::cancelled, "flight", flight);
+        gauge(registry, "coalescing.in.flight", owner, stats, SingleFlight.Stats::inFlight, "flight", flight);
+    }
+
+    private void bindDesignCache(MeterRegistry registry) {
+        Function<DesignResponseCache, DesignResponseCache.Stats> stats = DesignResponseCache::stats;
+        counter(registry, "design.cache.requests", designResponseCache, stats, DesignResponseCache.Stats::exactHits, "result", "exact_hit");
+        counter(registry, "design.cache.requests", designResponseCache, stats, DesignResponseCache.Stats::semanticHits, "result", "semantic_hit");
+        counter(registry, "design.cache.requests", designResponseCache, stats, DesignResponseCache.Stats::misses, "result", "miss");
+        gauge(registry, "design.cache.entries", designResponseCache, stats, DesignResponseCache.Stats::entries);
+    }
+
+    private void bindRepairs(MeterRegistry registry) {
+        Function<DiagramRepairService, DiagramRepairService.Stats> stats = DiagramRepairService::stats;
+        counter(registry, "design.repair.attempts", diagramRepairService, stats, DiagramRepairService.Stats::attempts);
+        counter(registry, "design.repair.results", diagramRepairService, stats, DiagramRepairService.Stats::repaired, "outcome", "repaired");
+        counter(registry, "design.repair.results", diagramRepairService, stats, DiagramRepairService.Stats::unrepaired, "outcome", "unrepaired");
+    }
+
+    private void bindPreviews(MeterRegistry registry) {
+        Function<DiagramPreviewService, DiagramPreviewService.Stats> stats = DiagramPreviewService::stats;
+        counter(registry, "design.preview.sessions", diagramPreviewService, stats, DiagramPreviewService.Stats::sessions);
+        counter(registry, "design.preview.renders", diagramPreviewService, stats, DiagramPreviewService.Stats::rendered, "outcome", "rendered");
+        counter(registry, "design.preview.renders", diagramPreviewService, stats, DiagramPreviewService.Stats::skipped, "outcome", "skipped");
+        counter(registry, "design.preview.renders", diagramPreviewService, stats, DiagramPreviewService.Stats::failed, "outcome", "failed");
+    }
+
+    private void bindBatches(MeterRegistry registry) {
+        Function<DesignBatchService, DesignBatchService.Stats> stats = DesignBatchService::stats;
+        counter(registry, "design.batch.batches", designBatchService, stats, DesignBatchService.Stats::batches);
+        counter(registry, "design.batch.items", designBatchService, stats, DesignBatchService.Stats::succeeded, "outcome", "succeeded");
+        counter(registry, "design.batch.items", designBatchService, stats, DesignBatchService.Stats::failed, "outcome", "failed");
+        gauge(registry, "design.batch.active.lanes", designBatchService, stats, DesignBatchService.Stats::activeLanes);
+    }
+
+    private void bindScheduler(MeterRegistry registry) {
+        Function<LlmScheduler, LlmScheduler.Stats> stats = LlmScheduler::stats;
+        gauge(registry, "llm.scheduler.permits", llmScheduler, stats, LlmScheduler.Stats::permits);
+        gauge(registry, "llm.scheduler.available", llmScheduler, stats, LlmScheduler.Stats::available);
+        gauge(registry, "llm.scheduler.queued", llmScheduler, stats, LlmScheduler.Stats::queued);
+        gauge(registry, "llm.scheduler.clients", llmScheduler, stats, LlmScheduler.Stats::clients);
+        Gauge.builder("llm.scheduler.generation.estimate", llmScheduler, scheduler -> scheduler.stats().averageGenerationMillis())
+                .description("Moving average of how long a permit is held, behind wait estimates and Retry-After")
+                .baseUnit("milliseconds")
+                .register(registry);
+    }
+
+    private void bindBackends(MeterRegistry registry) {
+        int backends = llamaBackendRouter.urls().size();
+        for (int i = 0; i < backends; i++) {
+            int index = i;
+            Function<LlamaBackendRouter, LlamaBackend.Stats> stats = router -> router.stats().get(index);
+            String url = stats.apply(llamaBackendRouter).url();
+            gauge(registry, "llm.backend.available", llamaBackendRouter, stats, backend -> backend.available() ? 1 : 0, "backend", url);
+            gauge(registry, "llm.backend.outstanding", llamaBackendRouter, stats, LlamaBackend.Stats::outstanding, "backend", url);
+            gauge(registry, "llm.backend.consecutive.failures", llamaBackendRouter, stats, LlamaBackend.Stats::consecutiveFailures, "backend", url);
+            counter(registry, "llm.backend.requests", llamaBackendRouter, stats, LlamaBackend.Stats::requests, "backend", url);
+            counter(registry, "llm.backend.failures", llamaBackendRouter, stats, LlamaBackend.Stats::failures, "backend", url);
+            Gauge.builder("llm.backend.latency.estimate", llamaBackendRouter, router -> stats.apply(router).averageLatencyMillis())
+                    .description("Moving average of the backend's latency, used to route requests")
+                    .tag("backend", url)
+                    .baseUnit("milliseconds")
+                    .register(registry);
+        }
+    }
+
+    /**
+     * Registers a gauge on a component. Meters only hold their object weakly, so it is the component
+     * Spring keeps, not a lambda around it.
+     */
+    private static <T, S> void gauge(MeterRegistry registry, String name, T component, Function<T, S> stats,
+                                     ToDoubleFunction<S> value, String... tags) {
+        Gauge.builder(name, component, owner -> value.applyAsDouble(stats.apply(owner)))
+                .tags(tags)
+                .register(registry);
+    }
+
+    private static <T, S> void counter(MeterRegistry registry, String name, T component, Function<T, S> stats,
+                                       ToDoubleFunction<S> value, String... tags) {
+        FunctionCounter.builder(name, component, owner -> value.applyAsDouble(stats.apply(owner)))
+                .tags(tags)
+                .register(registry);
+    }
+}
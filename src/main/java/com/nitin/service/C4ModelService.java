@@ -1,81 +1,103 @@
 package com.nitin.service;
 
+import com.nitin.c4.C4Library;
+import com.nitin.c4.C4Model;
+import com.nitin.c4.C4Parser;
+import com.nitin.c4.C4Patch;
+import com.nitin.c4.C4Problem;
+import com.nitin.c4.C4Validator;
+import com.nitin.exception.C4ValidationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.stereotype.Service;
 import org.springframework.util.FileCopyUtils;
 
+import javax.annotation.PostConstruct;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
 
 @Service
 public class C4ModelService {
 
-    public String validateAndEnhanceC4Syntax(String c4Code) {
-        String enhanced = c4Code.trim();
-
-        // Fix common syntax errors from LLM
-        enhanced = enhanced.replaceAll("([a-zA-Z]+)/([a-zA-Z0-9_]+),", "$1($2,");
+    private static final Logger log = LoggerFactory.getLogger(C4ModelService.class);
 
-        // Remove existing C4 includes to avoid conflicts
-        enhanced = enhanced.replaceAll("(?i)!include\\s+<?C4_\\w+.puml>?", "");
+    @Value("${plantuml.c4.validation.enabled:true}")
+    private boolean validationEnabled;
 
-        // Add @startuml and @enduml if missing
-        if (!enhanced.startsWith("@startuml")) {
-            enhanced = "@startuml\n" + enhanced;
-        }
-        if (!enhanced.endsWith("@enduml")) {
-            enhanced = enhanced + "\n@enduml";
-        }
+    @PostConstruct
+    public void loadC4Library() {
+        // Read the library's macro names at startup instead of on the first diagram
+        C4Library.isDefined("Rel");
+    }
 
-        // Build the header with includes and styling
-        StringBuilder header = new StringBuilder();
+    public String validateAndEnhanceC4Syntax(String c4Code) {
+        return C4SourceNormalizer.normalize(c4Code).source();
+    }
 
-        // Add includes based on elements found
-        boolean hasComponent = enhanced.contains("Component(");
-        boolean hasContainer = enhanced.contains("Container(");
-        boolean hasContext = enhanced.contains("System(") || enhanced.contains("Person(");
+    public C4SourceNormalizer.Result normalize(String c4Code) {
+        return C4SourceNormalizer.normalize(c4Code);
+    }
 
-        if (hasContext || hasContainer || hasComponent) {
-            header.append("!include C4_Context.puml\n");
+    /**
+     * Normalizes an LLM diagram, parses it into a {@link C4Model} and validates it, returning the
+     * canonical PlantUML to render. Diagrams with errors are rejected here, before any rendering.
+     *
+     * @throws C4ValidationException if the diagram has errors
+     */
+    public String prepareForRendering(String c4Code) {
+        C4SourceNormalizer.Result normalized = C4SourceNormalizer.normalize(c4Code);
+        if (!validationEnabled) {
+            return normalized.source();
         }
-        if (hasContainer || hasComponent) {
-            header.append("!include C4_Container.puml\n");
+        long start = System.nanoTime();
+        C4Model model = C4Parser.parse(normalized.source(), normalized::originalLine);
+        List<C4Problem> problems = C4Validator.validate(model);
+        log.debug("Parsed and validated C4 diagram in {} us, {} problem(s)", (System.nanoTime() - start) / 1000, problems.size());
+        if (C4Validator.hasErrors(problems)) {
+            throw new C4ValidationException(problems);
         }
-        if (hasComponent) {
-            header.append("!include C4_Component.puml\n");
-        }
-
-        // Add basic C4 styling if not present
-        if (!enhanced.contains("LAYOUT_") && !enhanced.contains("HIDE_STEREOTYPE")) {
-            header.append(getC4Styling()).append("\n");
-        }
-        
-        // Prepend header after @startuml
-        enhanced = enhanced.replaceFirst("(?i)@startuml", "@startuml\n" + header.toString());
-
-        return enhanced;
+        problems.forEach(problem -> log.info("C4 diagram warning at {}", problem));
+        return model.toPlantUml();
     }
 
-    private String getC4Styling() {
-        return """
-                LAYOUT_WITH_LEGEND()
-                HIDE_STEREOTYPE()""";
+    /**
+     * Applies a {@link C4Patch} to the previous turn's diagram and returns the patched diagram as
+     * canonical PlantUML, which is then prepared for rendering like a diagram written in full.
+     */
+    public String applyPatch(String previousC4Code, String patchText) {
+        C4SourceNormalizer.Result normalized = C4SourceNormalizer.normalize(previousC4Code);
+        C4Patch patch = C4Patch.parse(patchText);
+        C4Model model = patch.applyTo(C4Parser.parse(normalized.source()));
+        log.debug("Applied {} patch operation(s) to the previous diagram", patch.operations().size());
+        patch.problems().forEach(problem -> log.info("C4 patch warning at {}", problem));
+        model.syntaxProblems().forEach(problem -> log.info("C4 patch warning at {}", problem));
+        return model.toPlantUml();
     }
 
-    public C4DiagramType detectDiagramType(String c4Code) {
-        String lowerCode = c4Code.toLowerCase();
-
-        if (lowerCode.contains("component(") && lowerCode.contains("container(")) {
-            return C4DiagramType.COMPONENT;
-        } else if (lowerCode.contains("container(")) {
-            return C4DiagramType.CONTAINER;
-        } else if (lowerCode.contains("system(") || lowerCode.contains("person(")) {
-            return C4DiagramType.CONTEXT;
+    /**
+     * Hashes the canonical model of a diagram, so diagrams that differ only in comments, layout of
+     * the source or argument spacing hash the same.
+     */
+    public String modelHash(String c4Code) {
+        C4Model model = C4Parser.parse(C4SourceNormalizer.normalize(c4Code).source());
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(model.toPlantUml().getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
         }
+    }
 
-        return C4DiagramType.CONTEXT; // Default
+    public C4DiagramType detectDiagramType(String c4Code) {
+        return C4SourceNormalizer.normalize(c4Code).diagramType();
     }
 
     public String generateC4Template(C4DiagramType type, String systemName) throws IOException {
@@ -0,0 +1,263 @@
+package com.nitin.service;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Normalizes PlantUML C4 source produced by the LLM in one linear scan. The scan repairs the
+ * {@code Element/alias,} slip (should be {@code Element(alias,}), drops the model's own
+ * {@code !include C4_*.puml} lines, finds the C4 element kinds used and whether a layout is already
+ * set, and guarantees the {@code @startuml}/{@code @enduml} frame. The matching includes and default
+ * styling are then inserted right after {@code @startuml}. Everything is written into a single
+ * builder, so normalizing costs one copy of the source.
+ */
+public final class C4SourceNormalizer {
+
+    public enum ElementKind {
+        PERSON("Person"), SYSTEM("System"), CONTAINER("Container"), COMPONENT("Component");
+
+        private final String macro;
+
+        ElementKind(String macro) {
+            this.macro = macro;
+        }
+    }
+
+    /**
+     * The normalized source with what the scan found. {@code lineShift} is how many lines the body
+     * moved down, so problems found in the normalized source can be reported against the original.
+     */
+    public record Result(String source, Set<ElementKind> elementKinds, C4ModelService.C4DiagramType diagramType, int lineShift) {
+        public int originalLine(int normalizedLine) {
+            return Math.max(1, normalizedLine - lineShift);
+        }
+    }
+
+    private static final String START = "@startuml";
+    private static final String END = "@enduml";
+    private static final String STYLING = "LAYOUT_WITH_LEGEND()\nHIDE_STEREOTYPE()\n";
+    private static final ElementKind[] KINDS = ElementKind.values();
+
+    private C4SourceNormalizer() {
+    }
+
+    public static Result normalize(String c4Code) {
+        int end = c4Code.length();
+        while (end > 0 && c4Code.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        int pos = skipLeadingIncludes(c4Code, 0, end);
+
+        StringBuilder out = new StringBuilder(end - pos + START.length() + END.length() + 128);
+        out.append(START);
+        boolean hasStart = c4Code.regionMatches(true, pos, START, 0, START.length());
+        if (hasStart) {
+            // Keep a diagram name written on the @startuml line
+            pos += START.length();
+            while (pos < end && c4Code.charAt(pos) != '\n' && c4Code.charAt(pos) != '\r') {
+                out.append(c4Code.charAt(pos++));
+            }
+        }
+        out.append('\n');
+        int headerAt = out.length();
+        if (!hasStart) {
+            out.append('\n');
+        }
+
+        int lineShift = countNewlines(out, 0, out.length()) - countNewlines(c4Code, 0, pos);
+        int kinds = 0;
+        int kindsIgnoreCase = 0;
+        boolean hasLayout = false;
+        while (pos < end) {
+            char c = c4Code.charAt(pos);
+            if (c == '!') {
+                int includeEnd = matchC4Include(c4Code, pos, end);
+                if (includeEnd != -1) {
+                    pos = includeEnd;
+                    continue;
+                }
+            } else if (c == '/' && isFixableSlash(c4Code, pos, end)) {
+                c = '(';
+            } else if ((c == 'L' && c4Code.startsWith("LAYOUT_", pos))
+                    || (c == 'H' && c4Code.startsWith("HIDE_STEREOTYPE", pos))) {
+                hasLayout = true;
+            }
+            if (c == '(') {
+                for (ElementKind kind : KINDS) {
+                    if (endsWith(out, kind.macro, false)) {
+                        kinds |= 1 << kind.ordinal();
+                        kindsIgnoreCase |= 1 << kind.ordinal();
+                    } else if (endsWith(out, kind.macro, true)) {
+                        kindsIgnoreCase |= 1 << kind.ordinal();
+                    }
+                }
+            }
+            out.append(c);
+            pos++;
+        }
+        if (!endsWith(out, END, false)) {
+            out.append('\n').append(END);
+        }
+
+        String header = header(kinds, hasLayout);
+        out.insert(headerAt, header);
+        lineShift += countNewlines(header, 0, header.length());
+        return new Result(out.toString(), toKinds(kinds), diagramType(kindsIgnoreCase), lineShift);
+    }
+
+    private static String header(int kinds, boolean hasLayout) {
+        boolean context = kinds != 0;
+        boolean container = (kinds & (bit(ElementKind.CONTAINER) | bit(ElementKind.COMPONENT))) != 0;
+        boolean component = (kinds & bit(ElementKind.COMPONENT)) != 0;
+        StringBuilder header = new StringBuilder(128);
+        if (context) {
+            header.append("!include C4_Context.puml\n");
+        }
+        if (container) {
+            header.append("!include C4_Container.puml\n");
+        }
+        if (component) {
+            header.append("!include C4_Component.puml\n");
+        }
+        if (!hasLayout) {
+            header.append(STYLING);
+        }
+        return header.toString();
+    }
+
+    private static C4ModelService.C4DiagramType diagramType(int kinds) {
+        if ((kinds & bit(ElementKind.COMPONENT)) != 0 && (kinds & bit(ElementKind.CONTAINER)) != 0) {
+            return C4ModelService.C4DiagramType.COMPONENT;
+        }
+        if ((kinds & bit(ElementKind.CONTAINER)) != 0) {
+            return C4ModelService.C4DiagramType.CONTAINER;
+        }
+        return C4ModelService.C4DiagramType.CONTEXT;
+    }
+
+    private static Set<ElementKind> toKinds(int kinds) {
+        Set<ElementKind> result = EnumSet.noneOf(ElementKind.class);
+        for (ElementKind kind : KINDS) {
+            if ((kinds & bit(kind)) != 0) {
+                result.add(kind);
+            }
+        }
+        return result;
+    }
+
+    private static int bit(ElementKind kind) {
+        return 1 << kind.ordinal();
+    }
+
+    /**
+     * Skips whitespace and C4 includes in front of {@code @startuml}, so a source that opens with
+     * its includes still gets a single frame.
+     */
+    private static int skipLeadingIncludes(String source, int pos, int end) {
+        while (true) {
+            while (pos < end && source.charAt(pos) <= ' ') {
+                pos++;
+            }
+            int includeEnd = pos < end && source.charAt(pos) == '!' ? matchC4Include(source, pos, end) : -1;
+            if (includeEnd == -1) {
+                return pos;
+            }
+            pos = includeEnd;
+        }
+    }
+
+    /**
+     * Matches {@code !include <C4_Name.puml>} (brackets optional, case-insensitive) at {@code pos}
+     * and returns the index after it, or -1.
+     */
+    private static int matchC4Include(String source, int pos, int end) {
+        int i = pos + 1;
+        if (!source.regionMatches(true, i, "include", 0, 7)) {
+            return -1;
+        }
+        i += 7;
+        int whitespaceStart = i;
+        while (i < end && isWhitespace(source.charAt(i))) {
+            i++;
+        }
+        if (i == whitespaceStart) {
+            return -1;
+        }
+        if (i < end && source.charAt(i) == '<') {
+            i++;
+        }
+        if (!source.regionMatches(true, i, "C4_", 0, 3)) {
+            return -1;
+        }
+        i += 3;
+        int nameStart = i;
+        while (i < end && isWordChar(source.charAt(i))) {
+            i++;
+        }
+        // The name is followed by any one character (normally '.') and "puml"
+        for (int separator = i; separator > nameStart; separator--) {
+            if (separator < end && !isLineTerminator(source.charAt(separator))
+                    && separator + 5 <= end && source.regionMatches(true, separator + 1, "puml", 0, 4)) {
+                int matchEnd = separator + 5;
+                return matchEnd < end && source.charAt(matchEnd) == '>' ? matchEnd + 1 : matchEnd;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * A {@code /} between a letter and an alias followed by a comma was meant to be an opening
+     * parenthesis, as in {@code Container/web_app, "Web App"}.
+     */
+    private static boolean isFixableSlash(String source, int pos, int end) {
+        if (pos == 0 || !isAsciiLetter(source.charAt(pos - 1))) {
+            return false;
+        }
+        int i = pos + 1;
+        while (i < end && isWordChar(source.charAt(i))) {
+            i++;
+        }
+        return i > pos + 1 && i < end && source.charAt(i) == ',';
+    }
+
+    private static int countNewlines(CharSequence text, int from, int to) {
+        int count = 0;
+        for (int i = from; i < to; i++) {
+            if (text.charAt(i) == '\n') {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static boolean endsWith(StringBuilder builder, String suffix, boolean ignoreCase) {
+        int offset = builder.length() - suffix.length();
+        if (offset < 0) {
+            return false;
+        }
+        for (int i = 0; i < suffix.length(); i++) {
+            char a = builder.charAt(offset + i);
+            char b = suffix.charAt(i);
+            if (a != b && !(ignoreCase && Character.toLowerCase(a) == Character.toLowerCase(b))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isAsciiLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static boolean isWordChar(char c) {
+        return isAsciiLetter(c) || (c >= '0' && c <= '9') || c == '_';
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    private static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+}
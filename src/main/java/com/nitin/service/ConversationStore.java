@@ -0,0 +1,138 @@
+package com.nitin.service;
+
+import com.nitin.dto.Conversation;
+import com.nitin.dto.DesignResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Server-side conversation history, keyed by conversation id, so clients no longer post the whole
+ * history on every turn. Each session is stored already compacted, which bounds its memory as well
+ * as the prompt built from it. Idle sessions expire after a TTL. Each session also remembers the
+ * last diagram it rendered, which follow-up turns patch or reuse.
+ */
+@Component
+public class ConversationStore {
+
+    @Autowired
+    private HistoryCompactor historyCompactor;
+
+    @Autowired
+    private C4ModelService c4ModelService;
+
+    @Value("${design.conversations.max-sessions:1000}")
+    private int maxSessions;
+
+    @Value("${design.conversations.ttl:PT2H}")
+    private Duration ttl;
+
+    /**
+     * The last successfully rendered diagram of a conversation, with the hash of its canonical model.
+     */
+    public record Diagram(String plantUml, String modelHash, String diagramPath, String diagramFilename, Map<String, String> exports) {}
+
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the session for the id. Unknown or missing ids start a new session, seeded from the
+     * history the client sent, so clients that still post their history keep working.
+     */
+    public Session resolve(String conversationId, List<Conversation> clientHistory) {
+        if (conversationId != null) {
+            Session existing = sessions.get(conversationId);
+            if (existing != null) {
+                existing.touch();
+                return existing;
+            }
+        }
+        String id = conversationId != null ? conversationId : UUID.randomUUID().toString();
+        Session session = sessions.computeIfAbsent(id, Session::new);
+        if (clientHistory != null && !clientHistory.isEmpty()) {
+            session.append(historyCompactor, clientHistory, null);
+        }
+        evictOverflow();
+        return session;
+    }
+
+    public void record(Session session, String userRequest, DesignResponse response) {
+        List<Conversation> turns = List.of(
+                Conversation.builder().message(userRequest).sender(Conversation.Sender.USER).build(),
+                Conversation.builder().message(response.getExplanation()).sender(Conversation.Sender.ASSISTANT).build());
+        String plantUml = response.isSuccess() ? response.getPlantUmlCode() : null;
+        session.append(historyCompactor, turns, plantUml);
+        if (plantUml != null && !plantUml.isBlank() && response.getDiagramFilename() != null) {
+            session.setLatestDiagram(new Diagram(plantUml, c4ModelService.modelHash(plantUml), response.getDiagramPath(),
+                    response.getDiagramFilename(), response.getDiagramExports()));
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${design.conversations.sweep-interval:PT5M}")
+    public void evictExpired() {
+        Instant cutoff = Instant.now().minus(ttl);
+        sessions.values().removeIf(session -> session.lastAccess.isBefore(cutoff));
+    }
+
+    private void evictOverflow() {
+        int overflow = sessions.size() - maxSessions;
+        if (overflow <= 0) {
+            return;
+        }
+        sessions.values().stream()
+                .sorted(Comparator.comparing((Session session) -> session.lastAccess))
+                .limit(overflow)
+                .toList()
+                .forEach(session -> sessions.remove(session.id));
+    }
+
+    public static final class Session {
+        private final String id;
+        private volatile Instant lastAccess = Instant.now();
+        private HistoryCompactor.CompactedHistory history = new HistoryCompactor.CompactedHistory("", List.of(), null);
+        private Diagram latestDiagram;
+
+        private Session(String id) {
+            this.id = id;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public synchronized HistoryCompactor.CompactedHistory getHistory() {
+            return history;
+        }
+
+        /**
+         * Returns the last diagram rendered in this conversation, or {@code null} before the first one.
+         */
+        public synchronized Diagram getLatestDiagram() {
+            return latestDiagram;
+        }
+
+        private synchronized void setLatestDiagram(Diagram diagram) {
+            latestDiagram = diagram;
+        }
+
+        private synchronized void append(HistoryCompactor compactor, List<Conversation> turns, String plantUml) {
+            List<Conversation> allTurns = new ArrayList<>(history.recentTurns());
+            allTurns.addAll(turns);
+            history = compactor.compact(history.summary(), allTurns, plantUml != null ? plantUml : history.latestPlantUml());
+            touch();
+        }
+
+        private void touch() {
+            lastAccess = Instant.now();
+        }
+    }
+}
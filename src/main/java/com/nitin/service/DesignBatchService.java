@@ -0,0 +1,189 @@
+package com.nitin.service;
+
+import com.nitin.dto.DesignBatchItem;
+import com.nitin.dto.DesignJob;
+import com.nitin.dto.DesignRequest;
+import com.nitin.dto.DesignResponse;
+import com.nitin.exception.LlmOverloadedException;
+import com.nitin.llm.LlmClientContext;
+import com.nitin.llm.LlmScheduler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates many designs for one client. Each batch keeps one more request in flight than the
+ * LLM scheduler has slots, so a slot is refilled as soon as a generation ends and every llama.cpp
+ * slot decodes in parallel, while finished generations render on the render pool. Requests queue
+ * for the scheduler as background work under the submitting client: they take turns round-robin
+ * with interactive users, and a busy backend delays them instead of failing them, whatever the
+ * scheduler's queue bounds, wait estimate and {@code design.batch.concurrency}.
+ */
+@Service
+public class DesignBatchService {
+
+    private static final Logger log = LoggerFactory.getLogger(DesignBatchService.class);
+
+    /**
+     * Receives the items of a batch as they complete, from several threads, and the end of the batch.
+     */
+    public interface BatchListener {
+        /**
+         * Returns {@code false} when the client went away, which stops the rest of the batch.
+         */
+        boolean onItem(DesignBatchItem item);
+
+        void onComplete();
+    }
+
+    public record Stats(long batches, long items, long succeeded, long failed, int activeLanes) {}
+
+    @Autowired
+    private DesignService designService;
+
+    @Autowired
+    private LlmScheduler llmScheduler;
+
+    @Value("${design.batch.max-items:100}")
+    private int maxItems;
+
+    @Value("${design.batch.concurrency:0}")
+    private int concurrency;
+
+    @Value("${design.batch.threads:8}")
+    private int threads;
+
+    @Value("${design.batch.queue-capacity:64}")
+    private int queueCapacity;
+
+    private ThreadPoolExecutor batchExecutor;
+
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong items = new AtomicLong();
+    private final AtomicLong succeeded = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    @PostConstruct
+    public void startExecutor() {
+        batchExecutor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(queueCapacity), new CustomizableThreadFactory("design-batch-"));
+    }
+
+    @PreDestroy
+    public void stopExecutor() {
+        batchExecutor.shutdownNow();
+    }
+
+    public int getMaxItems() {
+        return maxItems;
+    }
+
+    /**
+     * Starts the batch and returns immediately; results are passed to the listener. Throws
+     * {@link LlmOverloadedException} when the batch pool cannot take another batch.
+     */
+    public void submit(List<DesignRequest> requests, BatchListener listener) {
+        int inFlight = Math.min(requests.size(), concurrency > 0 ? concurrency : llmScheduler.stats().permits() + 1);
+        Batch batch = new Batch(requests, LlmClientContext.currentClientId(), listener);
+        // Count every lane before starting any, so a lane finishing early cannot end the batch
+        batch.lanes.set(inFlight);
+        int started = 0;
+        for (int i = 0; i < inFlight; i++, started++) {
+            try {
+                batchExecutor.execute(() -> runNext(batch));
+            } catch (RejectedExecutionException e) {
+                if (i == 0) {
+                    throw new LlmOverloadedException(HttpStatus.SERVICE_UNAVAILABLE, "Too many design batches are running",
+                            Math.max(1, TimeUnit.MILLISECONDS.toSeconds(llmScheduler.stats().averageGenerationMillis())));
+                }
+                // The lanes already started work through the whole batch, just with less parallelism
+                if (batch.lanes.addAndGet(i - inFlight) == 0) {
+                    listener.onComplete();
+                }
+                break;
+            }
+        }
+        batches.incrementAndGet();
+        log.info("Started a batch of {} designs for client {}, {} at a time", requests.size(), batch.clientId, started);
+    }
+
+    public Stats stats() {
+        return new Stats(batches.get(), items.get(), succeeded.get(), failed.get(), batchExecutor.getActiveCount());
+    }
+
+    /**
+     * One lane of a batch: takes the next unclaimed request until none is left, then ends the batch
+     * if it was the last lane running.
+     */
+    private void runNext(Batch batch) {
+        int index;
+        while (!batch.stopped && (index = batch.next.getAndIncrement()) < batch.requests.size()) {
+            DesignBatchItem item = runItem(batch, index);
+            if (!batch.listener.onItem(item)) {
+                log.info("Batch client {} went away, stopping the batch", batch.clientId);
+                batch.stopped = true;
+            }
+        }
+        if (batch.lanes.decrementAndGet() == 0) {
+            batch.listener.onComplete();
+        }
+    }
+
+    private DesignBatchItem runItem(Batch batch, int index) {
+        DesignRequest request = batch.requests.get(index);
+        long start = System.nanoTime();
+        DesignJob.Status status;
+        DesignResponse response = null;
+        String errorMessage = null;
+        try {
+            response = LlmClientContext.callAs(batch.clientId, () -> LlmClientContext.callInBackground(
+                    () -> designService.generateDesign(request.getConversationId(), request.getRequest(), request.getConversationHistory())));
+            status = response.isSuccess() ? DesignJob.Status.SUCCEEDED : DesignJob.Status.FAILED;
+            errorMessage = response.getErrorMessage();
+        } catch (Exception e) {
+            log.warn("Batch design {} failed: {}", index, e.getMessage());
+            status = DesignJob.Status.FAILED;
+            errorMessage = e.getMessage();
+        }
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        items.incrementAndGet();
+        (status == DesignJob.Status.SUCCEEDED ? succeeded : failed).incrementAndGet();
+        return DesignBatchItem.builder()
+                .index(index)
+                .status(status)
+                .durationMillis(millis)
+                .errorMessage(errorMessage)
+                .result(response)
+                .build();
+    }
+
+    private static final class Batch {
+        private final List<DesignRequest> requests;
+        private final String clientId;
+        private final BatchListener listener;
+        private final AtomicInteger next = new AtomicInteger();
+        private final AtomicInteger lanes = new AtomicInteger();
+        private volatile boolean stopped;
+
+        private Batch(List<DesignRequest> requests, String clientId, BatchListener listener) {
+            this.requests = requests;
+            this.clientId = clientId;
+            this.listener = listener;
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.nitin.service;
+
+import com.nitin.dto.Conversation;
+import com.nitin.dto.DesignJob;
+import com.nitin.dto.DesignResponse;
+import com.nitin.exception.LlmOverloadedException;
+import com.nitin.llm.LlmClientContext;
+import com.nitin.llm.LlmScheduler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs design generations in the background so the HTTP request returns immediately with a job id.
+ * Jobs queue for the LLM as background work, so a full scheduler queue delays them instead of
+ * failing them. Finished jobs are kept for a limited time and up to a bounded count for clients to poll.
+ */
+@Service
+public class DesignJobService {
+
+    private static final Logger log = LoggerFactory.getLogger(DesignJobService.class);
+
+    @Autowired
+    private DesignService designService;
+
+    @Autowired
+    private LlmScheduler llmScheduler;
+
+    @Value("${design.jobs.threads:2}")
+    private int threads;
+
+    @Value("${design.jobs.queue-capacity:200}")
+    private int queueCapacity;
+
+    @Value("${design.jobs.max-retained:500}")
+    private int maxRetained;
+
+    @Value("${design.jobs.ttl:PT1H}")
+    private Duration ttl;
+
+    private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+    private ThreadPoolExecutor designJobExecutor;
+
+    @PostConstruct
+    public void startExecutor() {
+        designJobExecutor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), new CustomizableThreadFactory("design-job-"));
+    }
+
+    @PreDestroy
+    public void stopExecutor() {
+        designJobExecutor.shutdownNow();
+    }
+
+    public DesignJob submit(String conversationId, String userRequest, List<Conversation> conversationHistory) {
+        Job job = new Job(UUID.randomUUID().toString());
+        String clientId = LlmClientContext.currentClientId();
+        try {
+            job.future = designJobExecutor.submit(() -> run(job, clientId, conversationId, userRequest, conversationHistory));
+        } catch (RejectedExecutionException e) {
+            long retryAfterSeconds = TimeUnit.MILLISECONDS.toSeconds(llmScheduler.stats().averageGenerationMillis()
+                    * (designJobExecutor.getQueue().size() / designJobExecutor.getMaximumPoolSize() + 1));
+            throw new LlmOverloadedException(HttpStatus.SERVICE_UNAVAILABLE, "The design job queue is full",
+                    Math.max(1, retryAfterSeconds));
+        }
+        jobs.put(job.id, job);
+        evictOverflow();
+        log.debug("Submitted design job {} for client {}", job.id, clientId);
+        return job.snapshot();
+    }
+
+    public Optional<DesignJob> get(String jobId) {
+        return Optional.ofNullable(jobs.get(jobId)).map(Job::snapshot);
+    }
+
+    public Optional<DesignJob> cancel(String jobId) {
+        Job job = jobs.get(jobId);
+        if (job == null) {
+            return Optional.empty();
+        }
+        if (job.finish(DesignJob.Status.CANCELLED, null)) {
+            job.future.cancel(true);
+            log.debug("Cancelled design job {}", jobId);
+        }
+        return Optional.of(job.snapshot());
+    }
+
+    @Scheduled(fixedDelayString = "${design.jobs.sweep-interval:PT1M}")
+    public void evictExpired() {
+        Instant cutoff = Instant.now().minus(ttl);
+        jobs.values().removeIf(job -> job.isFinished() && job.completedAt.isBefore(cutoff));
+    }
+
+    private void run(Job job, String clientId, String conversationId, String userRequest, List<Conversation> conversationHistory) {
+        if (!job.start()) {
+            return;
+        }
+        try {
+            // Waits for the LLM however long its queue is, rather than failing the job on a 429 or 503
+            DesignResponse response = LlmClientContext.callAs(clientId, () -> LlmClientContext.callInBackground(
+                    () -> designService.generateDesign(conversationId, userRequest, conversationHistory)));
+            job.finish(response.isSuccess() ? DesignJob.Status.SUCCEEDED : DesignJob.Status.FAILED, response);
+        } catch (Exception e) {
+            log.error("Design job {} failed: {}", job.id, e.getMessage());
+            job.finish(DesignJob.Status.FAILED, DesignResponse.builder()
+                    .userRequest(userRequest)
+                    .success(false)
+                    .errorMessage(e.getMessage())
+                    .build());
+        }
+    }
+
+    private void evictOverflow() {
+        int overflow = jobs.size() - maxRetained;
+        if (overflow <= 0) {
+            return;
+        }
+        jobs.values().stream()
+                .filter(Job::isFinished)
+                .sorted(Comparator.comparing((Job job) -> job.completedAt))
+                .limit(overflow)
+                .toList()
+                .forEach(job -> jobs.remove(job.id));
+    }
+
+    private static final class Job {
+        private final String id;
+        private final Instant submittedAt = Instant.now();
+        private volatile Future<?> future;
+        private DesignJob.Status status = DesignJob.Status.QUEUED;
+        private Instant startedAt;
+        private volatile Instant completedAt;
+        private DesignResponse result;
+
+        private Job(String id) {
+            this.id = id;
+        }
+
+        synchronized boolean start() {
+            if (status != DesignJob.Status.QUEUED) {
+                return false;
+            }
+            status = DesignJob.Status.RUNNING;
+            startedAt = Instant.now();
+            return true;
+        }
+
+        synchronized boolean finish(DesignJob.Status finalStatus, DesignResponse response) {
+            if (status.isFinished()) {
+                return false;
+            }
+            status = finalStatus;
+            result = response;
+            completedAt = Instant.now();
+            return true;
+        }
+
+        synchronized boolean isFinished() {
+            return status.isFinished();
+        }
+
+        synchronized DesignJob snapshot() {
+            return DesignJob.builder()
+                    .jobId(id)
+                    .status(status)
+                    .submittedAt(submittedAt)
+                    .startedAt(startedAt)
+                    .completedAt(completedAt)
+                    .result(result)
+                    .build();
+        }
+    }
+}
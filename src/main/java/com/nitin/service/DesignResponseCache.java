@@ -0,0 +1,252 @@
+package com.nitin.service;
+
+import com.nitin.dto.DesignResponse;
+import com.nitin.storage.DiagramStore;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.store.embedding.CosineSimilarity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Caches successful design responses so repeated prompts skip the LLM. Exact matches are keyed by a
+ * hash of the normalized conversation (system prompt, history and request). When an embedding model
+ * is configured, a request that is close enough to a cached one within the same conversation context
+ * is also served from the cache. Hits reuse the already rendered diagram, after checking, outside
+ * the cache's lock, that the diagram store still has it.
+ */
+@Component
+public class DesignResponseCache {
+
+    private static final Logger log = LoggerFactory.getLogger(DesignResponseCache.class);
+
+    public record Stats(long exactHits, long semanticHits, long misses, int entries) {}
+
+    private record Entry(String contextKey, Embedding requestEmbedding, DesignResponse response, Instant createdAt) {}
+
+    private record Candidate(String key, Entry entry, double similarity) {}
+
+    @Value("${design.cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${design.cache.max-entries:500}")
+    private int maxEntries;
+
+    @Value("${design.cache.ttl:PT24H}")
+    private Duration ttl;
+
+    @Value("${design.cache.semantic.threshold:0.95}")
+    private double similarityThreshold;
+
+    private final EmbeddingModel embeddingModel;
+    private final DiagramStore diagramStore;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final AtomicLong exactHits = new AtomicLong();
+    private final AtomicLong semanticHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public DesignResponseCache(ObjectProvider<EmbeddingModel> embeddingModel, DiagramStore diagramStore) {
+        this.embeddingModel = embeddingModel.getIfAvailable();
+        this.diagramStore = diagramStore;
+    }
+
+    public Optional<DesignResponse> lookup(List<ChatMessage> messages, String userRequest) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        String key = hash(messages, messages.size());
+        Entry exact = get(key);
+        if (exact != null) {
+            exactHits.incrementAndGet();
+            log.debug("Serving design from cache for request: {}", userRequest);
+            return Optional.of(forRequest(exact.response(), userRequest));
+        }
+
+        if (embeddingModel != null) {
+            Entry similar = findSimilar(hash(messages, messages.size() - 1), embed(messages));
+            if (similar != null) {
+                semanticHits.incrementAndGet();
+                log.debug("Serving near-duplicate design from cache for request: {}", userRequest);
+                return Optional.of(forRequest(similar.response(), userRequest));
+            }
+        }
+        misses.incrementAndGet();
+        return Optional.empty();
+    }
+
+    public void put(List<ChatMessage> messages, DesignResponse response) {
+        if (!enabled || !response.isSuccess()) {
+            return;
+        }
+        Embedding requestEmbedding = embeddingModel != null ? embed(messages) : null;
+        Entry entry = new Entry(hash(messages, messages.size() - 1), requestEmbedding, response, Instant.now());
+        lock.lock();
+        try {
+            entries.put(hash(messages, messages.size()), entry);
+            Iterator<Entry> eldest = entries.values().iterator();
+            while (entries.size() > maxEntries && eldest.hasNext()) {
+                eldest.next();
+                eldest.remove();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Identifies the conversation and request, normalized the same way as exact cache matches.
+     */
+    static String key(List<ChatMessage> messages) {
+        return hash(messages, messages.size());
+    }
+
+    public Stats stats() {
+        lock.lock();
+        try {
+            return new Stats(exactHits.get(), semanticHits.get(), misses.get(), entries.size());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Entry get(String key) {
+        Entry entry;
+        lock.lock();
+        try {
+            entry = entries.get(key);
+            if (entry != null && isExpired(entry)) {
+                entries.remove(key);
+                return null;
+            }
+        } finally {
+            lock.unlock();
+        }
+        return entry != null && hasDiagrams(key, entry) ? entry : null;
+    }
+
+    /**
+     * The most similar entry of the same conversation context, at or above the threshold. Only the
+     * entries of that context are compared, and only the chosen one's diagrams are checked.
+     */
+    private Entry findSimilar(String contextKey, Embedding requestEmbedding) {
+        List<Candidate> candidates = new ArrayList<>();
+        lock.lock();
+        try {
+            Instant now = Instant.now();
+            for (Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator(); it.hasNext(); ) {
+                Map.Entry<String, Entry> cached = it.next();
+                Entry entry = cached.getValue();
+                if (!entry.contextKey().equals(contextKey) || entry.requestEmbedding() == null) {
+                    continue;
+                }
+                if (isExpired(entry, now)) {
+                    it.remove();
+                    continue;
+                }
+                double similarity = CosineSimilarity.between(entry.requestEmbedding(), requestEmbedding);
+                if (similarity >= similarityThreshold) {
+                    candidates.add(new Candidate(cached.getKey(), entry, similarity));
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        candidates.sort(Comparator.comparingDouble(Candidate::similarity).reversed());
+        for (Candidate candidate : candidates) {
+            if (hasDiagrams(candidate.key(), candidate.entry())) {
+                return candidate.entry();
+            }
+        }
+        return null;
+    }
+
+    private boolean isExpired(Entry entry) {
+        return isExpired(entry, Instant.now());
+    }
+
+    private boolean isExpired(Entry entry, Instant now) {
+        return entry.createdAt().plus(ttl).isBefore(now);
+    }
+
+    /**
+     * Whether the diagram store still has the entry's diagrams, which it may have evicted since the
+     * response was cached. Looks at the store without holding the lock, and drops the entry if not.
+     */
+    private boolean hasDiagrams(String key, Entry entry) {
+        String diagramFilename = entry.response().getDiagramFilename();
+        Map<String, String> exports = entry.response().getDiagramExports();
+        boolean present = (diagramFilename == null || diagramStore.find(diagramFilename).isPresent())
+                && (exports == null || exports.values().stream().allMatch(name -> diagramStore.find(name).isPresent()));
+        if (!present) {
+            lock.lock();
+            try {
+                entries.remove(key, entry);
+            } finally {
+                lock.unlock();
+            }
+        }
+        return present;
+    }
+
+    private Embedding embed(List<ChatMessage> messages) {
+        return embeddingModel.embed(normalize(text(messages.get(messages.size() - 1)))).content();
+    }
+
+    private static DesignResponse forRequest(DesignResponse cached, String userRequest) {
+        return cached.toBuilder().userRequest(userRequest).build();
+    }
+
+    private static String hash(List<ChatMessage> messages, int count) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (ChatMessage message : messages.subList(0, count)) {
+                digest.update(message.type().name().getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+                digest.update(normalize(text(message)).getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static String text(ChatMessage message) {
+        return switch (message) {
+            case SystemMessage system -> system.text();
+            case UserMessage user -> user.singleText();
+            case AiMessage ai -> ai.text();
+            default -> "";
+        };
+    }
+
+    private static String normalize(String text) {
+        return text == null ? "" : text.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+}
@@ -1,40 +1,105 @@
 
 package com.nitin.service;
 
+import com.nitin.c4.C4Problem;
 import com.nitin.dto.Conversation;
 import com.nitin.dto.DesignResponse;
+import com.nitin.exception.C4ValidationException;
+import com.nitin.exception.LlmOverloadedException;
+import com.nitin.llm.LlmClientContext;
+import com.nitin.metrics.DesignMetrics;
+import com.nitin.metrics.PayloadLogger;
+import com.nitin.storage.DiagramStore;
+import com.nitin.storage.StoredDiagram;
+import dev.langchain4j.data.message.AiMessage;
 import dev.langchain4j.data.message.ChatMessage;
 import dev.langchain4j.data.message.SystemMessage;
 import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.model.StreamingResponseHandler;
 import dev.langchain4j.model.chat.ChatLanguageModel;
+import dev.langchain4j.model.chat.StreamingChatLanguageModel;
+import dev.langchain4j.model.output.Response;
+import io.micrometer.observation.Observation;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 @Service
 public class DesignService {
 
     private static final Logger log = LoggerFactory.getLogger(DesignService.class);
-    private static final Pattern MARKDOWN_PATTERN = Pattern.compile("```plantuml\\s*([\\s\\S]*?)```", Pattern.CASE_INSENSITIVE);
-    private static final Pattern UML_PATTERN = Pattern.compile("(@startuml[\\s\\S]*?@enduml)", Pattern.CASE_INSENSITIVE);
 
     @Autowired
     private ChatLanguageModel chatLanguageModel;
 
+    @Autowired
+    private StreamingChatLanguageModel streamingChatLanguageModel;
+
     @Autowired
     private PlantUmlService plantUmlService;
 
     @Autowired
     private C4ModelService c4ModelService;
 
-    private record DiagramResult(String diagramPath, String diagramFilename) {}
+    @Autowired
+    private DiagramRepairService diagramRepairService;
+
+    @Autowired
+    private DiagramPreviewService diagramPreviewService;
+
+    @Autowired
+    private DesignResponseCache responseCache;
+
+    @Autowired
+    private ConversationStore conversationStore;
+
+    @Autowired
+    private HistoryCompactor historyCompactor;
+
+    @Autowired
+    private DesignMetrics designMetrics;
+
+    @Autowired
+    private PayloadLogger payloadLogger;
+
+    @Autowired
+    private DiagramStore diagramStore;
+
+    @Value("${design.incremental.enabled:false}")
+    private boolean incrementalEnabled;
+
+    @Value("${design.coalescing.enabled:true}")
+    private boolean coalescingEnabled;
+
+    @Value("${design.stream.completion-threads:2}")
+    private int completionThreads;
+
+    @Value("${design.stream.completion-queue-capacity:32}")
+    private int completionQueueCapacity;
+
+    private SingleFlight<DesignResponse> designFlights;
+
+    // Finishes streamed designs (validation, repairs, rendering) off the HTTP client's threads
+    private ThreadPoolExecutor completionExecutor;
+
+    private record DiagramResult(String diagramPath, String diagramFilename, Map<String, String> exports) {}
 
     private static final String DESIGN_PROMPT_TEMPLATE = """
             You are a software architect expert specializing in C4 model diagrams.
@@ -63,85 +128,343 @@ public class DesignService {
             Now, generate the design for the user's request.
             """;
 
-    public DesignResponse generateDesign(String userRequest, List<Conversation> conversationHistory) {
-        try {
-            List<ChatMessage> messages = new ArrayList<>();
-            messages.add(SystemMessage.from(DESIGN_PROMPT_TEMPLATE));
-
-            if (conversationHistory != null) {
-                for (Conversation convo : conversationHistory) {
-                    if (convo.getSender() == Conversation.Sender.USER) {
-                        messages.add(UserMessage.from(convo.getMessage()));
-                    } else if (convo.getSender() == Conversation.Sender.ASSISTANT) {
-                        messages.add(SystemMessage.from(convo.getMessage()));
-                    }
-                }
-            }
-            messages.add(UserMessage.from(userRequest));
+    private static final String PATCH_PROMPT = """
+            The conversation already has the current diagram shown above. Unless the user asks for a
+            completely different design, do NOT repeat the whole diagram. After the explanation, give
+            only the changes to it in a ```c4patch markdown block, one change per line:
+            + Container(cache, "Cache", "Redis", "Caches product data")  adds an element, or replaces the element with the same alias
+            + Container(cache, "Cache", "Redis", "Caches product data") in backend  adds an element inside the boundary with alias backend
+            + Rel(api, cache, "Reads from", "RESP")  adds a relationship, or replaces the one from api to cache
+            - cache  removes the element with that alias and its relationships
+            - Rel(api, db)  removes the relationships from api to db
+            If the diagram does not change, give an empty ```c4patch block.
+            """;
+
+    @PostConstruct
+    public void init() {
+        designFlights = new SingleFlight<>("design-flight-", coalescingEnabled);
+        completionExecutor = new ThreadPoolExecutor(completionThreads, completionThreads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(completionQueueCapacity), new CustomizableThreadFactory("design-completion-"));
+    }
 
-            // Generate response from LLaMA
-            String response = chatLanguageModel.generate(messages).content().text();
-            log.info("Full LLaMA response: " + response);
+    @PreDestroy
+    public void stop() {
+        designFlights.shutdown();
+        completionExecutor.shutdownNow();
+    }
 
-            // Parse the response
-            return parseDesignResponse(response, userRequest);
+    public DesignResponse generateDesign(String conversationId, String userRequest, List<Conversation> conversationHistory) {
+        Observation observation = designMetrics.request("blocking").start();
+        try (Observation.Scope scope = observation.openScope()) {
+            ConversationStore.Session session = conversationStore.resolve(conversationId, conversationHistory);
+            DesignResponse designResponse = generateDesign(session, userRequest, observation).toBuilder()
+                    .conversationId(session.getId())
+                    .build();
+            conversationStore.record(session, userRequest, designResponse);
+            observation.lowCardinalityKeyValue("outcome", outcome(designResponse));
+            return designResponse;
+        } catch (RuntimeException e) {
+            observation.lowCardinalityKeyValue("outcome", "error");
+            observation.error(e);
+            throw e;
+        } finally {
+            observation.stop();
+        }
+    }
 
+    private DesignResponse generateDesign(ConversationStore.Session session, String userRequest, Observation observation) {
+        try {
+            List<ChatMessage> messages = designMetrics.observe(DesignMetrics.PROMPT, () -> buildMessages(session, userRequest));
+            Optional<DesignResponse> cached = responseCache.lookup(messages, userRequest);
+            if (cached.isPresent()) {
+                observation.lowCardinalityKeyValue("cache", "hit");
+                return cached.get();
+            }
+
+            // Identical requests already in flight share one LLM call. Its stages are recorded under
+            // the request that started it, and it queues for the scheduler as that request's client
+            // only, so coalesced requests take no admission slot of their own. Background work only
+            // shares calls with background work, so it never inherits an interactive rejection
+            String clientId = LlmClientContext.currentClientId();
+            boolean background = LlmClientContext.isBackground();
+            ConversationStore.Diagram previous = session.getLatestDiagram();
+            String flightKey = (background ? "background:" : "") + DesignResponseCache.key(messages);
+            DesignResponse designResponse = designFlights.execute(flightKey, () -> {
+                Callable<DesignResponse> generation = () -> LlmClientContext.callAs(clientId,
+                        () -> generateFromLlm(session.getId(), messages, userRequest, previous));
+                try (Observation.Scope scope = observation.openScope()) {
+                    return background ? LlmClientContext.callInBackground(generation) : generation.call();
+                }
+            });
+            return designResponse.toBuilder().userRequest(userRequest).build();
+
+        } catch (LlmOverloadedException e) {
+            throw e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return buildErrorResponse(userRequest, "Design generation was cancelled");
         } catch (Exception e) {
             log.error("Error generating design: " + e.getMessage());
             return buildErrorResponse(userRequest, "Error generating design: " + e.getMessage());
         }
     }
 
-    private DesignResponse parseDesignResponse(String response, String userRequest) {
-        String explanation = extractExplanation(response);
-        String plantUmlCode = extractPlantUMLCode(response);
+    private DesignResponse generateFromLlm(String conversationId, List<ChatMessage> messages, String userRequest,
+                                           ConversationStore.Diagram previous) throws Exception {
+        // Generate response from LLaMA
+        String response = LlmClientContext.callInConversation(conversationId,
+                () -> chatLanguageModel.generate(messages).content().text());
+        payloadLogger.log("LLM response", response);
+
+        // Parse the response
+        DesignResponse designResponse = parseDesignResponse(response, userRequest, previous);
+        responseCache.put(messages, designResponse);
+        return designResponse;
+    }
+
+    public SingleFlight.Stats getCoalescingStats() {
+        return designFlights.stats();
+    }
+
+    public void streamDesign(String conversationId, String userRequest, List<Conversation> conversationHistory, DesignStreamListener callerListener) {
+        // Stopped when the design completes, usually on another thread
+        Observation observation = designMetrics.request("stream").start();
+        ConversationStore.Session session = conversationStore.resolve(conversationId, conversationHistory);
+        DesignStreamListener listener = new DesignStreamListener() {
+            @Override
+            public void onExplanation(String text) {
+                callerListener.onExplanation(text);
+            }
+
+            @Override
+            public void onDiagramStarted() {
+                callerListener.onDiagramStarted();
+            }
+
+            @Override
+            public void onDiagramPreview(StoredDiagram preview) {
+                callerListener.onDiagramPreview(preview);
+            }
 
-        if (plantUmlCode.isEmpty()) {
-            return buildNoUmlResponse(userRequest, explanation);
+            @Override
+            public void onComplete(DesignResponse response) {
+                DesignResponse designResponse = response.toBuilder().conversationId(session.getId()).build();
+                conversationStore.record(session, userRequest, designResponse);
+                observation.lowCardinalityKeyValue("outcome", outcome(designResponse));
+                observation.stop();
+                callerListener.onComplete(designResponse);
+            }
+        };
+
+        List<ChatMessage> messages = Observation.tryScoped(observation,
+                () -> designMetrics.observe(DesignMetrics.PROMPT, () -> buildMessages(session, userRequest)));
+        Optional<DesignResponse> cached = responseCache.lookup(messages, userRequest);
+        if (cached.isPresent()) {
+            observation.lowCardinalityKeyValue("cache", "hit");
+            listener.onExplanation(cached.get().getExplanation());
+            listener.onComplete(cached.get());
+            return;
         }
+        PlantUmlFenceDetector fenceDetector = new PlantUmlFenceDetector();
+        DiagramPreviewService.Session preview = diagramPreviewService.open(listener::onDiagramPreview);
+        String clientId = LlmClientContext.currentClientId();
+        ConversationStore.Diagram previous = session.getLatestDiagram();
+
+        try (Observation.Scope scope = observation.openScope()) {
+            LlmClientContext.callInConversation(session.getId(), () -> {
+                streamingChatLanguageModel.generate(messages, new StreamingResponseHandler<AiMessage>() {
+                    private boolean diagramStarted;
+
+                    @Override
+                    public void onNext(String token) {
+                        preview.accept(token);
+                        String explanation = fenceDetector.accept(token);
+                        if (!explanation.isEmpty()) {
+                            listener.onExplanation(explanation);
+                        }
+                        if (!diagramStarted && fenceDetector.isInDiagram()) {
+                            diagramStarted = true;
+                            listener.onDiagramStarted();
+                        }
+                    }
 
-        try {
-            DiagramResult diagramResult = generateDiagramFromUml(plantUmlCode);
-            return buildSuccessResponse(userRequest, explanation, plantUmlCode, diagramResult);
-        } catch (IOException e) {
-            log.error("Error generating diagram: " + e.getMessage());
-            return buildErrorResponse(userRequest, "Error generating diagram: " + e.getMessage());
+                    @Override
+                    public void onComplete(Response<AiMessage> response) {
+                        preview.close();
+                        String rest = fenceDetector.flush();
+                        if (!rest.isEmpty()) {
+                            listener.onExplanation(rest);
+                        }
+                        String text = response.content().text();
+                        payloadLogger.log("LLM response", text);
+                        // Repairs and renders would hold up the HTTP client's thread, so finish elsewhere
+                        try {
+                            completionExecutor.execute(() -> {
+                                DesignResponse designResponse;
+                                try (Observation.Scope scope = observation.openScope()) {
+                                    designResponse = LlmClientContext.callAs(clientId, () -> parseDesignResponse(text, userRequest, previous));
+                                } catch (Exception e) {
+                                    log.error("Error generating diagram: " + e.getMessage());
+                                    designResponse = buildErrorResponse(userRequest, "Error generating diagram: " + e.getMessage());
+                                }
+                                responseCache.put(messages, designResponse);
+                                listener.onComplete(designResponse);
+                            });
+                        } catch (RejectedExecutionException e) {
+                            log.warn("Too many streamed designs are finishing; rejecting the diagram");
+                            listener.onComplete(buildErrorResponse(userRequest, "Server is busy finishing other designs, please retry"));
+                        }
+                    }
+
+                    @Override
+                    public void onError(Throwable error) {
+                        preview.close();
+                        log.error("Error streaming design: " + error.getMessage());
+                        listener.onComplete(buildErrorResponse(userRequest, "Error generating design: " + error.getMessage()));
+                    }
+                });
+                return null;
+            });
+        } catch (LlmOverloadedException e) {
+            preview.close();
+            observation.lowCardinalityKeyValue("outcome", "error");
+            observation.error(e);
+            observation.stop();
+            throw e;
+        } catch (Exception e) {
+            preview.close();
+            log.error("Error streaming design: " + e.getMessage());
+            listener.onComplete(buildErrorResponse(userRequest, "Error generating design: " + e.getMessage()));
         }
     }
 
-    private DiagramResult generateDiagramFromUml(String plantUmlCode) throws IOException {
-        String processedUml = c4ModelService.validateAndEnhanceC4Syntax(plantUmlCode);
-        String diagramPath = plantUmlService.generateDiagram(processedUml);
-        String diagramFilename = java.nio.file.Paths.get(diagramPath).getFileName().toString();
-        return new DiagramResult(diagramPath, diagramFilename);
+    private List<ChatMessage> buildMessages(ConversationStore.Session session, String userRequest) {
+        List<ChatMessage> messages = new ArrayList<>();
+        messages.add(SystemMessage.from(DESIGN_PROMPT_TEMPLATE));
+        messages.addAll(historyCompactor.toMessages(session.getHistory()));
+        if (incrementalEnabled && session.getLatestDiagram() != null) {
+            messages.add(SystemMessage.from(PATCH_PROMPT));
+        }
+        messages.add(UserMessage.from(userRequest));
+        return messages;
     }
 
-    private String extractExplanation(String response) {
-        String explanation = extractSection(response, "EXPLANATION:", "PLANTUML:");
-        return explanation.isEmpty() ? extractBeforePlantUML(response) : explanation;
+    /**
+     * Extracts and renders the diagram of a design response. A diagram that is missing or fails
+     * validation is sent back to the model together with the errors, up to the configured number of
+     * repair attempts, before the design is returned as failed. On follow-up turns the response may
+     * instead patch the {@code previous} diagram, and a diagram whose model has not changed reuses
+     * the previous rendering.
+     */
+    private DesignResponse parseDesignResponse(String response, String userRequest, ConversationStore.Diagram previous) {
+        String explanation = designMetrics.observe(DesignMetrics.EXTRACTION, () -> extractExplanation(response));
+        String plantUmlCode = designMetrics.observe(DesignMetrics.EXTRACTION, () -> PlantUmlExtractor.extract(response));
+        if (plantUmlCode.isEmpty() && previous != null) {
+            Optional<String> patch = designMetrics.observe(DesignMetrics.EXTRACTION, () -> PlantUmlExtractor.extractPatch(response));
+            if (patch.isPresent()) {
+                plantUmlCode = designMetrics.observe(DesignMetrics.PATCH, () -> c4ModelService.applyPatch(previous.plantUml(), patch.get()));
+            }
+        }
+        int repairs = 0;
+
+        while (true) {
+            DesignResponse failure;
+            Callable<String> repair;
+            if (plantUmlCode.isEmpty()) {
+                failure = buildNoUmlResponse(userRequest, explanation);
+                repair = () -> diagramRepairService.repairMissingDiagram(explanation);
+            } else if (previous != null && isUnchanged(previous, plantUmlCode)) {
+                log.info("Diagram model is unchanged from the previous turn, reusing its rendering");
+                DiagramResult diagramResult = new DiagramResult(previous.diagramPath(), previous.diagramFilename(), previous.exports());
+                return recordRepairs(repairs, buildSuccessResponse(userRequest, explanation, previous.plantUml(), diagramResult));
+            } else {
+                String brokenCode;
+                List<String> problems;
+                String errorMessage;
+                try {
+                    String code = plantUmlCode;
+                    String processedUml = designMetrics.observe(DesignMetrics.NORMALIZATION, () -> c4ModelService.prepareForRendering(code));
+                    problems = designMetrics.observe(DesignMetrics.VALIDATION, () -> plantUmlService.checkSyntax(processedUml));
+                    if (problems.isEmpty()) {
+                        DiagramResult diagramResult = generateDiagramFromUml(processedUml);
+                        return recordRepairs(repairs, buildSuccessResponse(userRequest, explanation, plantUmlCode, diagramResult));
+                    }
+                    // Line numbers of the syntax check refer to the processed source, so that is what gets repaired
+                    brokenCode = processedUml;
+                    errorMessage = "Invalid PlantUML diagram: " + String.join("; ", problems);
+                } catch (C4ValidationException e) {
+                    brokenCode = plantUmlCode;
+                    problems = e.getProblems().stream().filter(C4Problem::isError).map(C4Problem::toString).toList();
+                    errorMessage = e.getMessage();
+                } catch (IOException e) {
+                    log.error("Error generating diagram: " + e.getMessage());
+                    return recordRepairs(repairs, buildErrorResponse(userRequest, "Error generating diagram: " + e.getMessage()));
+                }
+                log.warn("Rejected diagram before rendering: {}", errorMessage);
+                failure = buildInvalidDiagramResponse(userRequest, explanation, plantUmlCode, errorMessage);
+                String diagram = brokenCode;
+                List<String> diagramProblems = problems;
+                repair = () -> diagramRepairService.repair(diagram, diagramProblems);
+            }
+
+            if (repairs >= diagramRepairService.getMaxAttempts()) {
+                return recordRepairs(repairs, failure);
+            }
+            repairs++;
+            log.info("Asking the model to repair the diagram, attempt {}", repairs);
+            String repairedCode;
+            try {
+                repairedCode = PlantUmlExtractor.extract(repair.call());
+            } catch (Exception e) {
+                log.warn("Diagram repair failed: {}", e.getMessage());
+                return recordRepairs(repairs, failure);
+            }
+            if (repairedCode.isEmpty() || repairedCode.strip().equals(plantUmlCode.strip())) {
+                log.warn("Diagram repair returned no new diagram");
+                return recordRepairs(repairs, failure);
+            }
+            plantUmlCode = repairedCode;
+        }
     }
 
-    private String extractPlantUMLCode(String text) {
-        log.debug("Attempting to extract PlantUML code from text:\n{}", text);
-        StringBuilder allUmlCode = new StringBuilder();
+    private static String outcome(DesignResponse designResponse) {
+        return designResponse.isSuccess() ? "success" : "failure";
+    }
 
-        Matcher markdownMatcher = MARKDOWN_PATTERN.matcher(text);
-        boolean found = false;
-        while (markdownMatcher.find()) {
-            if (!found) {
-                log.info("Found PlantUML code within markdown block(s).");
-                found = true;
-            }
-            String umlBlock = markdownMatcher.group(1).trim();
-            allUmlCode.append(umlBlock).append("\n");
+    private DesignResponse recordRepairs(int repairs, DesignResponse designResponse) {
+        if (repairs > 0) {
+            diagramRepairService.recordResult(designResponse.isSuccess());
         }
+        return designResponse;
+    }
 
-        if (found) {
-            return allUmlCode.toString();
+    /**
+     * Whether the diagram has the same canonical model as the previous turn's, whose files are still stored.
+     */
+    private boolean isUnchanged(ConversationStore.Diagram previous, String plantUmlCode) {
+        if (!previous.modelHash().equals(c4ModelService.modelHash(plantUmlCode))
+                || diagramStore.find(previous.diagramFilename()).isEmpty()) {
+            return false;
         }
+        return previous.exports() == null
+                || previous.exports().values().stream().allMatch(name -> diagramStore.find(name).isPresent());
+    }
+
+    private DiagramResult generateDiagramFromUml(String processedUml) throws IOException {
+        Map<DiagramFormat, StoredDiagram> diagrams = plantUmlService.generateDiagramWithExports(processedUml);
+        StoredDiagram diagram = diagrams.get(plantUmlService.getDefaultFormat());
+        Map<String, String> exports = new LinkedHashMap<>();
+        diagrams.forEach((format, export) -> {
+            if (export != diagram) {
+                exports.put(format.extension(), export.name());
+            }
+        });
+        return new DiagramResult(diagram.location(), diagram.name(), exports);
+    }
 
-        log.warn("No valid PlantUML code found in the response.");
-        return "";
+    private String extractExplanation(String response) {
+        String explanation = extractSection(response, "EXPLANATION:", "PLANTUML:");
+        return explanation.isEmpty() ? extractBeforePlantUML(response) : explanation;
     }
 
     private String extractSection(String text, String startMarker, String endMarker) {
@@ -160,6 +483,9 @@ public class DesignService {
         if (plantUmlStart == -1) {
             plantUmlStart = text.indexOf("@startuml");
         }
+        if (plantUmlStart == -1) {
+            plantUmlStart = text.indexOf("```c4patch");
+        }
 
         if (plantUmlStart != -1) {
             return text.substring(0, plantUmlStart).trim();
@@ -175,6 +501,7 @@ public class DesignService {
                 .plantUmlCode(plantUmlCode)
                 .diagramPath(diagramResult.diagramPath())
                 .diagramFilename(diagramResult.diagramFilename())
+                .diagramExports(diagramResult.exports())
                 .success(true)
                 .conversation(Conversation.builder()
                         .message(explanation)
@@ -197,6 +524,20 @@ public class DesignService {
                 .build();
     }
 
+    private DesignResponse buildInvalidDiagramResponse(String userRequest, String explanation, String plantUmlCode, String errorMessage) {
+        return DesignResponse.builder()
+                .userRequest(userRequest)
+                .explanation(explanation)
+                .plantUmlCode(plantUmlCode)
+                .success(false)
+                .errorMessage(errorMessage)
+                .conversation(Conversation.builder()
+                        .message(explanation)
+                        .sender(Conversation.Sender.ASSISTANT)
+                        .build())
+                .build();
+    }
+
     private DesignResponse buildErrorResponse(String userRequest, String errorMessage) {
         return DesignResponse.builder()
                 .userRequest(userRequest)
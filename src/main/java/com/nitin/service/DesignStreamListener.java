@@ -0,0 +1,23 @@
+package com.nitin.service;
+
+import com.nitin.dto.DesignResponse;
+import com.nitin.storage.StoredDiagram;
+
+/**
+ * Receives the progress of a streamed design generation. Callbacks arrive on the LLM client's
+ * I/O thread, in order, and {@link #onComplete} is always the last call. Previews are the exception:
+ * they arrive on a preview thread, but never after {@link #onComplete}.
+ */
+public interface DesignStreamListener {
+
+    void onExplanation(String text);
+
+    void onDiagramStarted();
+
+    /**
+     * A rendering of the diagram generated so far, replaced by the next preview or the final design.
+     */
+    void onDiagramPreview(StoredDiagram preview);
+
+    void onComplete(DesignResponse response);
+}
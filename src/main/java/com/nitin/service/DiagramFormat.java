@@ -0,0 +1,80 @@
+package com.nitin.service;
+
+import net.sourceforge.plantuml.FileFormat;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+
+/**
+ * The image formats diagrams are rendered in. PDF is not offered: PlantUML only produces it with
+ * Apache FOP and Batik on the classpath.
+ */
+public enum DiagramFormat {
+
+    SVG(FileFormat.SVG, MediaType.valueOf("image/svg+xml")),
+    PNG(FileFormat.PNG, MediaType.IMAGE_PNG);
+
+    private final FileFormat fileFormat;
+    private final MediaType mediaType;
+
+    DiagramFormat(FileFormat fileFormat, MediaType mediaType) {
+        this.fileFormat = fileFormat;
+        this.mediaType = mediaType;
+    }
+
+    public FileFormat fileFormat() {
+        return fileFormat;
+    }
+
+    public MediaType mediaType() {
+        return mediaType;
+    }
+
+    public String extension() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+
+    public static Optional<DiagramFormat> fromName(String name) {
+        for (DiagramFormat format : values()) {
+            if (format.name().equalsIgnoreCase(name.strip())) {
+                return Optional.of(format);
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Picks the format for an {@code Accept} header: the most preferred media type that matches a
+     * format, where wildcards match the preferred format first. Returns the preferred format when
+     * there is no header, and nothing when no accepted type can be produced.
+     */
+    public static Optional<DiagramFormat> negotiate(String accept, DiagramFormat preferred) {
+        if (accept == null || accept.isBlank()) {
+            return Optional.of(preferred);
+        }
+        List<MediaType> accepted;
+        try {
+            accepted = MediaType.parseMediaTypes(accept).stream()
+                    .filter(mediaType -> mediaType.getQualityValue() > 0)
+                    .sorted(Comparator.comparingDouble(MediaType::getQualityValue).reversed())
+                    .toList();
+        } catch (InvalidMediaTypeException e) {
+            return Optional.of(preferred);
+        }
+        for (MediaType mediaType : accepted) {
+            if (mediaType.includes(preferred.mediaType)) {
+                return Optional.of(preferred);
+            }
+            for (DiagramFormat format : values()) {
+                if (mediaType.includes(format.mediaType)) {
+                    return Optional.of(format);
+                }
+            }
+        }
+        return Optional.empty();
+    }
+}
@@ -0,0 +1,369 @@
+package com.nitin.service;
+
+import com.nitin.c4.C4Model;
+import com.nitin.c4.C4Parser;
+import com.nitin.exception.C4ValidationException;
+import com.nitin.storage.StoredDiagram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Renders previews of a diagram while the LLM is still writing it. As soon as the diagram type is
+ * known from the model's {@code !include}, the matching C4 template is rendered as a skeleton; once
+ * real elements arrive, the complete statements received so far are rendered instead, with
+ * relationships held back until both ends exist and open boundaries closed.
+ *
+ * <p>Renders are debounced and coalesced: a session has at most one render in flight, and the next
+ * one starts a debounce interval after it with the latest statements. Previews are speculative: they
+ * bypass the render cache, yield to final renders by skipping while the render pool has a queue, and
+ * stop when the stream completes.
+ */
+@Service
+public class DiagramPreviewService {
+
+    private static final Logger log = LoggerFactory.getLogger(DiagramPreviewService.class);
+
+    private static final String[] DIAGRAM_MARKERS = {"```plantuml", "@startuml"};
+    private static final Pattern INCLUDE_PATTERN = Pattern.compile("C4_(Context|Container|Component)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern TITLE_SYSTEM_PATTERN = Pattern.compile("\\bfor\\s+(?:the\\s+)?(.+?)(?:\\s+-\\s+.*)?$", Pattern.CASE_INSENSITIVE);
+    private static final String DEFAULT_SYSTEM_NAME = "System";
+
+    /**
+     * Receives the previews of a session, on a preview thread. Nothing is reported once the session
+     * is closed, apart from a preview already being reported when it closes.
+     */
+    @FunctionalInterface
+    public interface PreviewListener {
+        void onPreview(StoredDiagram preview);
+    }
+
+    public record Stats(long sessions, long rendered, long skipped, long failed) {}
+
+    @Autowired
+    private C4ModelService c4ModelService;
+
+    @Autowired
+    private PlantUmlService plantUmlService;
+
+    @Autowired
+    private DiagramRenderExecutor renderExecutor;
+
+    @Value("${design.preview.enabled:true}")
+    private boolean enabled;
+
+    @Value("${design.preview.debounce:PT0.5S}")
+    private Duration debounce;
+
+    @Value("${design.preview.threads:1}")
+    private int threads;
+
+    private ScheduledThreadPoolExecutor previewExecutor;
+
+    private final AtomicLong sessions = new AtomicLong();
+    private final AtomicLong rendered = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    @PostConstruct
+    public void startExecutor() {
+        previewExecutor = new ScheduledThreadPoolExecutor(threads, new CustomizableThreadFactory("diagram-preview-"));
+        previewExecutor.setRemoveOnCancelPolicy(true);
+    }
+
+    @PreDestroy
+    public void stopExecutor() {
+        previewExecutor.shutdownNow();
+    }
+
+    /**
+     * Starts previewing a token stream. The caller passes every token to the session, from one
+     * thread, and closes it before reporting the final design.
+     */
+    public Session open(PreviewListener listener) {
+        if (enabled) {
+            sessions.incrementAndGet();
+        }
+        return new Session(listener);
+    }
+
+    public Stats stats() {
+        return new Stats(sessions.get(), rendered.get(), skipped.get(), failed.get());
+    }
+
+    private record Statement(String text, List<String> references) {}
+
+    public final class Session {
+
+        private final PreviewListener listener;
+
+        // Parsing state, confined to the thread passing the tokens
+        private final StringBuilder text = new StringBuilder();
+        private int scanned;
+        private boolean inDiagram;
+        private boolean diagramEnded;
+        private final StringBuilder pendingStatement = new StringBuilder();
+        private final List<Statement> statements = new ArrayList<>();
+        private final Set<String> aliases = new HashSet<>();
+        private int openBoundaries;
+        private boolean hasElements;
+        private C4ModelService.C4DiagramType diagramType;
+        private String systemName;
+        private String lastSubmitted;
+
+        // Render state, guarded by this
+        private String latestSource;
+        private boolean scheduled;
+        private boolean rendering;
+        private String lastPreview;
+
+        // Written under this, but also read without it before reporting a preview
+        private volatile boolean closed;
+
+        private Session(PreviewListener listener) {
+            this.listener = listener;
+        }
+
+        public void accept(String token) {
+            if (!enabled || diagramEnded) {
+                return;
+            }
+            text.append(token);
+            if (!inDiagram && !findDiagram()) {
+                return;
+            }
+            int lineEnd;
+            boolean changed = false;
+            while (!diagramEnded && (lineEnd = text.indexOf("\n", scanned)) != -1) {
+                String line = text.substring(scanned, lineEnd).strip();
+                scanned = lineEnd + 1;
+                changed |= acceptLine(line);
+            }
+            if (changed) {
+                String source = previewSource();
+                if (source != null && !source.equals(lastSubmitted)) {
+                    lastSubmitted = source;
+                    submit(source);
+                }
+            }
+        }
+
+        /**
+         * Stops the previews without waiting for a render in flight. That render finishes, but its
+         * preview is only reported if it is ready before the session closes.
+         */
+        public void close() {
+            synchronized (this) {
+                closed = true;
+                latestSource = null;
+            }
+        }
+
+        private boolean findDiagram() {
+            int from = Math.max(0, scanned - DIAGRAM_MARKERS[0].length());
+            for (String marker : DIAGRAM_MARKERS) {
+                int start = text.indexOf(marker, from);
+                if (start != -1) {
+                    inDiagram = true;
+                    scanned = start;
+                    return true;
+                }
+            }
+            scanned = text.length();
+            return false;
+        }
+
+        /**
+         * Takes one complete line of the diagram and returns whether the preview changed.
+         */
+        private boolean acceptLine(String line) {
+            if (!pendingStatement.isEmpty()) {
+                // A macro call spanning several lines
+                pendingStatement.append(' ').append(line);
+                if (C4Parser.isUnterminatedCall(pendingStatement)) {
+                    return false;
+                }
+                line = pendingStatement.toString();
+                pendingStatement.setLength(0);
+            } else if (line.isEmpty() || line.startsWith("'") || line.startsWith("```") || line.regionMatches(true, 0, "@startuml", 0, 9)) {
+                return false;
+            } else if (line.regionMatches(true, 0, "@enduml", 0, 7)) {
+                diagramEnded = true;
+                return false;
+            } else if (line.startsWith("!")) {
+                Matcher include = INCLUDE_PATTERN.matcher(line);
+                if (line.startsWith("!include") && include.find() && diagramType == null) {
+                    diagramType = C4ModelService.C4DiagramType.valueOf(include.group(1).toUpperCase(Locale.ROOT));
+                    return true;
+                }
+                return false;
+            } else if (C4Parser.isUnterminatedCall(line)) {
+                pendingStatement.append(line);
+                return false;
+            }
+            return acceptStatement(line);
+        }
+
+        private boolean acceptStatement(String statement) {
+            if (statement.equals("}")) {
+                if (openBoundaries == 0) {
+                    return false;
+                }
+                openBoundaries--;
+            } else if (statement.endsWith("{")) {
+                openBoundaries++;
+            }
+            if (statement.regionMatches(true, 0, "title ", 0, 6) && systemName == null) {
+                Matcher title = TITLE_SYSTEM_PATTERN.matcher(statement.substring(6).strip());
+                if (title.find()) {
+                    systemName = title.group(1);
+                }
+            }
+            List<String> references = null;
+            switch (C4Parser.parseStatement(statement)) {
+                case C4Model.Relationship relationship -> references = List.of(relationship.from(), relationship.to());
+                case C4Model.Element element -> addElement(element.alias(), element.type().macro(), element.label());
+                case C4Model.Boundary boundary -> addElement(boundary.alias(), boundary.type().macro(), boundary.label());
+                case null, default -> {
+                }
+            }
+            statements.add(new Statement(statement, references));
+            return true;
+        }
+
+        private void addElement(String alias, String macro, String label) {
+            if (alias.isEmpty()) {
+                return;
+            }
+            aliases.add(alias);
+            hasElements = true;
+            if (systemName == null && macro.startsWith("System") && !label.isEmpty()) {
+                systemName = label;
+            }
+        }
+
+        /**
+         * The source to preview: the statements so far once there are elements, the skeleton
+         * template while only the diagram type is known, or nothing yet.
+         */
+        private String previewSource() {
+            if (hasElements) {
+                StringBuilder source = new StringBuilder("@startuml\n");
+                for (Statement statement : statements) {
+                    if (statement.references() == null || aliases.containsAll(statement.references())) {
+                        source.append(statement.text()).append('\n');
+                    }
+                }
+                source.append("}\n".repeat(openBoundaries));
+                return source.append("@enduml\n").toString();
+            }
+            if (diagramType != null) {
+                try {
+                    return c4ModelService.generateC4Template(diagramType, systemName != null ? systemName : DEFAULT_SYSTEM_NAME);
+                } catch (Exception e) {
+                    log.debug("Could not load the {} template: {}", diagramType, e.getMessage());
+                }
+            }
+            return null;
+        }
+
+        private synchronized void submit(String source) {
+            if (closed) {
+                return;
+            }
+            latestSource = source;
+            if (!scheduled && !rendering) {
+                schedule();
+            }
+        }
+
+        private void schedule() {
+            scheduled = true;
+            previewExecutor.schedule(this::render, debounce.toMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        private void render() {
+            String source;
+            synchronized (this) {
+                scheduled = false;
+                if (closed || latestSource == null) {
+                    return;
+                }
+                source = latestSource;
+                latestSource = null;
+                rendering = true;
+            }
+            try {
+                DiagramRenderExecutor.Stats renderStats = renderExecutor.stats();
+                if (renderStats.queued() > 0 || renderStats.abandoned() > 0) {
+                    // Final renders are waiting, or a worker is stuck in a timed-out render that a smetana
+                    // retry may need; try again with the latest statements after the next interval
+                    skipped.incrementAndGet();
+                    synchronized (this) {
+                        if (latestSource == null) {
+                            latestSource = source;
+                        }
+                    }
+                    return;
+                }
+                StoredDiagram preview = renderPreview(source);
+                boolean changed = false;
+                if (preview != null) {
+                    synchronized (this) {
+                        // Statements that do not change the image, such as a comment, are not sent again
+                        if (!closed && !preview.name().equals(lastPreview)) {
+                            lastPreview = preview.name();
+                            changed = true;
+                        }
+                    }
+                }
+                // The listener writes to the client, so report outside the lock close() takes
+                if (changed && !closed) {
+                    listener.onPreview(preview);
+                }
+            } catch (Exception e) {
+                failed.incrementAndGet();
+                log.debug("Could not render a diagram preview: {}", e.getMessage());
+            } finally {
+                synchronized (this) {
+                    rendering = false;
+                    if (!closed && latestSource != null) {
+                        schedule();
+                    }
+                }
+            }
+        }
+
+        private StoredDiagram renderPreview(String source) throws Exception {
+            String prepared;
+            try {
+                prepared = c4ModelService.prepareForRendering(source);
+            } catch (C4ValidationException e) {
+                // Usually a statement the model is about to complete; the next preview will include it
+                skipped.incrementAndGet();
+                return null;
+            }
+            StoredDiagram preview = plantUmlService.generatePreview(prepared);
+            rendered.incrementAndGet();
+            return preview;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.nitin.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Content-addressed cache of rendered diagrams. Entries are keyed by a SHA-256 of the exact
+ * source handed to PlantUML plus the output format, so identical sources never hit Graphviz twice.
+ * A bounded in-memory LRU sits in front of a directory of rendered files under the output directory.
+ */
+@Component
+public class DiagramRenderCache {
+
+    private static final Logger log = LoggerFactory.getLogger(DiagramRenderCache.class);
+
+    public record Stats(long memoryHits, long diskHits, long misses, int entries, long bytes) {}
+
+    @Value("${plantuml.output-directory}")
+    private String outputDirectory;
+
+    @Value("${plantuml.cache.max-entries:256}")
+    private int maxEntries;
+
+    @Value("${plantuml.cache.max-bytes:67108864}")
+    private long maxBytes;
+
+    @Value("${plantuml.cache.disk-enabled:true}")
+    private boolean diskEnabled;
+
+    private final LinkedHashMap<String, byte[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Returns the cached rendering, or {@code null} (counted as a miss) if the source has not been
+     * rendered in this format yet.
+     */
+    public byte[] find(String umlSource, String format) throws IOException {
+        String key = key(umlSource, format);
+
+        byte[] cached = getFromMemory(key);
+        if (cached != null) {
+            memoryHits.incrementAndGet();
+            return cached;
+        }
+
+        byte[] stored = diskEnabled ? readFromDisk(diskPath(key, format)) : null;
+        if (stored != null) {
+            diskHits.incrementAndGet();
+            putInMemory(key, stored);
+            return stored;
+        }
+
+        misses.incrementAndGet();
+        return null;
+    }
+
+    public void put(String umlSource, String format, byte[] rendered) {
+        String key = key(umlSource, format);
+        putInMemory(key, rendered);
+        if (diskEnabled) {
+            writeToDisk(diskPath(key, format), rendered);
+        }
+    }
+
+    public Stats stats() {
+        synchronized (entries) {
+            return new Stats(memoryHits.get(), diskHits.get(), misses.get(), entries.size(), totalBytes);
+        }
+    }
+
+    private byte[] getFromMemory(String key) {
+        synchronized (entries) {
+            return entries.get(key);
+        }
+    }
+
+    private void putInMemory(String key, byte[] bytes) {
+        if (bytes.length > maxBytes) {
+            return;
+        }
+        synchronized (entries) {
+            byte[] previous = entries.put(key, bytes);
+            if (previous != null) {
+                totalBytes -= previous.length;
+            }
+            totalBytes += bytes.length;
+
+            Iterator<Map.Entry<String, byte[]>> eldest = entries.entrySet().iterator();
+            while ((entries.size() > maxEntries || totalBytes > maxBytes) && eldest.hasNext()) {
+                totalBytes -= eldest.next().getValue().length;
+                eldest.remove();
+            }
+        }
+    }
+
+    private byte[] readFromDisk(Path diskPath) throws IOException {
+        try {
+            return Files.readAllBytes(diskPath);
+        } catch (NoSuchFileException e) {
+            // Not rendered yet, or removed by the diagram store's retention
+            return null;
+        }
+    }
+
+    private void writeToDisk(Path diskPath, byte[] bytes) {
+        try {
+            Files.createDirectories(diskPath.getParent());
+            Path tempFile = Files.createTempFile(diskPath.getParent(), "render-", ".tmp");
+            Files.write(tempFile, bytes);
+            Files.move(tempFile, diskPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Could not write rendered diagram to cache at {}: {}", diskPath, e.getMessage());
+        }
+    }
+
+    private Path diskPath(String key, String format) {
+        return Paths.get(outputDirectory, "cache", key + "." + format.toLowerCase());
+    }
+
+    private static String key(String umlSource, String format) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(format.toUpperCase().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) '\n');
+            digest.update(umlSource.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.nitin.service;
+
+import com.nitin.exception.DiagramRenderRejectedException;
+import com.nitin.exception.DiagramRenderTimeoutException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded pool of platform threads for PlantUML/Graphviz rendering. Rendering is CPU-bound, so it is
+ * kept off request threads: with virtual threads enabled it would otherwise occupy carrier threads,
+ * and without them a burst of renders could saturate every core. Renders beyond the queue capacity
+ * are rejected rather than queued without bound, and each render gets a wall-clock timeout that
+ * starts when a worker picks it up.
+ *
+ * <p>A timed-out render is cancelled, but in-process PlantUML and Graphviz layout do not check the
+ * interrupt, so its worker stays busy until the render ends by itself. Such workers are reported as
+ * {@code abandoned} and left out of the workers expected to drain the queue.
+ */
+@Component
+public class DiagramRenderExecutor {
+
+    private static final Logger log = LoggerFactory.getLogger(DiagramRenderExecutor.class);
+
+    @FunctionalInterface
+    public interface RenderTask<T> {
+        T render() throws IOException;
+    }
+
+    public record Stats(int threads, int active, int abandoned, int queued, int queueCapacity,
+                        long completed, long timeouts, long rejected) {}
+
+    private static final int RUNNING = 0;
+    private static final int FINISHED = 1;
+    private static final int ABANDONED = 2;
+
+    @Value("${plantuml.render.threads:0}")
+    private int threads;
+
+    @Value("${plantuml.render.queue-capacity:32}")
+    private int queueCapacity;
+
+    @Value("${plantuml.render.timeout:PT20S}")
+    private Duration timeout;
+
+    private ThreadPoolExecutor executor;
+
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong renderNanos = new AtomicLong();
+    private final AtomicInteger abandoned = new AtomicInteger();
+
+    @PostConstruct
+    public void start() {
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        executor = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(queueCapacity), new CustomizableThreadFactory("diagram-render-"));
+    }
+
+    @PreDestroy
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    public <T> T render(RenderTask<T> task) throws IOException {
+        CountDownLatch started = new CountDownLatch(1);
+        AtomicInteger state = new AtomicInteger(RUNNING);
+        Future<T> future;
+        try {
+            future = executor.submit(() -> {
+                started.countDown();
+                long start = System.nanoTime();
+                try {
+                    return task.render();
+                } finally {
+                    renderNanos.addAndGet(System.nanoTime() - start);
+                    completed.incrementAndGet();
+                    if (!state.compareAndSet(RUNNING, FINISHED)) {
+                        abandoned.decrementAndGet();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            throw new DiagramRenderRejectedException("Too many diagrams are being rendered, try again later",
+                    estimateDrainSeconds());
+        }
+
+        try {
+            // Wait for a worker first, so the timeout only covers the render itself
+            while (!started.await(100, TimeUnit.MILLISECONDS) && !future.isDone()) {
+                if (executor.isShutdown()) {
+                    throw new IOException("Diagram rendering is shutting down");
+                }
+            }
+            return future.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            timeouts.incrementAndGet();
+            // The interrupt does not stop PlantUML; the worker stays busy until the render ends
+            abandoned.incrementAndGet();
+            if (!state.compareAndSet(RUNNING, ABANDONED)) {
+                abandoned.decrementAndGet();
+            }
+            log.warn("Diagram rendering exceeded {}, cancelled it", timeout);
+            throw new DiagramRenderTimeoutException("Diagram rendering took longer than " + timeout.toSeconds() + " s");
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for diagram rendering", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException ioException) {
+                throw ioException;
+            }
+            throw new IOException("Diagram rendering failed: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    public Stats stats() {
+        return new Stats(executor.getMaximumPoolSize(), executor.getActiveCount(), abandoned.get(), executor.getQueue().size(),
+                queueCapacity, completed.get(), timeouts.get(), rejected.get());
+    }
+
+    private long estimateDrainSeconds() {
+        long done = completed.get();
+        long averageMillis = done == 0 ? timeout.toMillis() : Duration.ofNanos(renderNanos.get() / done).toMillis();
+        int workers = Math.max(1, executor.getMaximumPoolSize() - abandoned.get());
+        long waves = (executor.getQueue().size() + workers) / workers;
+        return Math.max(1, Duration.ofMillis(waves * averageMillis).toSeconds());
+    }
+}
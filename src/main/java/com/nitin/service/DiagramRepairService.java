@@ -0,0 +1,106 @@
+package com.nitin.service;
+
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.model.chat.ChatLanguageModel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Asks the LLM to fix a diagram that failed validation, instead of regenerating the whole design.
+ * The repair prompt holds only the broken diagram and the errors found locally by the C4 validator
+ * or PlantUML's syntax check, and is answered by the repair model, which has a much smaller token
+ * budget than a full design, so a repair costs a fraction of a new generation.
+ */
+@Service
+public class DiagramRepairService {
+
+    private static final Logger log = LoggerFactory.getLogger(DiagramRepairService.class);
+    private static final int MAX_LISTED_PROBLEMS = 10;
+    private static final int MAX_DESCRIPTION_CHARS = 4000;
+
+    public record Stats(long attempts, long repaired, long unrepaired) {}
+
+    private static final String REPAIR_PROMPT = """
+            You fix C4-PlantUML diagrams.
+            Do NOT include any explanation, internal thought processes or `<think>` sections in your response.
+
+            You MUST follow these instructions:
+            1.  Reply with only the corrected diagram, from @startuml to @enduml, in a single ```plantuml markdown block.
+            2.  Fix every listed error. Keep all elements, boundaries and relationships that are not part of an error.
+            3.  Use only the official C4-PlantUML syntax, such as Person(), System(), Container(), Component(), System_Boundary() and Rel().
+            4.  Every alias used in Rel() must be defined by an element or boundary.
+            """;
+
+    @Autowired
+    @Qualifier("repairChatLanguageModel")
+    private ChatLanguageModel repairModel;
+
+    @Value("${design.repair.enabled:true}")
+    private boolean enabled;
+
+    @Value("${design.repair.max-attempts:2}")
+    private int maxAttempts;
+
+    private final AtomicLong attempts = new AtomicLong();
+    private final AtomicLong repaired = new AtomicLong();
+    private final AtomicLong unrepaired = new AtomicLong();
+
+    /**
+     * How many repair calls a single design may make; 0 when repairs are disabled.
+     */
+    public int getMaxAttempts() {
+        return enabled ? maxAttempts : 0;
+    }
+
+    /**
+     * Asks the model to fix the diagram and returns its raw reply.
+     */
+    public String repair(String diagram, List<String> problems) {
+        StringBuilder request = new StringBuilder("This diagram has the following errors:\n");
+        problems.stream().limit(MAX_LISTED_PROBLEMS).forEach(problem -> request.append("- ").append(problem).append('\n'));
+        if (problems.size() > MAX_LISTED_PROBLEMS) {
+            request.append("- and ").append(problems.size() - MAX_LISTED_PROBLEMS).append(" more\n");
+        }
+        request.append("\n```plantuml\n").append(diagram.strip()).append("\n```");
+        return generate(request.toString());
+    }
+
+    /**
+     * Asks the model for the diagram of an architecture whose description came without one.
+     */
+    public String repairMissingDiagram(String description) {
+        String text = description.strip();
+        if (text.length() > MAX_DESCRIPTION_CHARS) {
+            text = text.substring(0, MAX_DESCRIPTION_CHARS);
+        }
+        return generate("This architecture description has no diagram. Write its C4 diagram.\n\n" + text);
+    }
+
+    public void recordResult(boolean fixed) {
+        (fixed ? repaired : unrepaired).incrementAndGet();
+    }
+
+    public Stats stats() {
+        return new Stats(attempts.get(), repaired.get(), unrepaired.get());
+    }
+
+    private String generate(String request) {
+        List<ChatMessage> messages = List.of(SystemMessage.from(REPAIR_PROMPT), UserMessage.from(request));
+        long start = System.nanoTime();
+        attempts.incrementAndGet();
+        try {
+            return repairModel.generate(messages).content().text();
+        } finally {
+            log.debug("Diagram repair call took {} ms", (System.nanoTime() - start) / 1_000_000);
+        }
+    }
+}
@@ -1,23 +1,120 @@
-
 package com.nitin.service;
 
-import dev.langchain4j.model.chat.ChatLanguageModel;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.nitin.llm.LlamaBackendRouter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Tracks whether the llama.cpp servers are up by probing their lightweight {@code /health} endpoint
+ * (or {@code /v1/models} on servers without it) on a background schedule. Callers only ever read the
+ * cached result, so polling the status never costs an inference slot.
+ */
 @Service
 public class HealthCheckService {
 
+    private static final Logger log = LoggerFactory.getLogger(HealthCheckService.class);
+
+    public enum State {
+        UNKNOWN, UP, BUSY, LOADING, DOWN
+    }
+
+    public record BackendStatus(String url, State state, Instant checkedAt, Long latencyMillis,
+                                Integer slotsIdle, Integer slotsProcessing, String detail) {}
+
+    public record Status(boolean isLlamaRunning, Instant checkedAt, List<BackendStatus> backends) {}
+
     @Autowired
-    private ChatLanguageModel chatLanguageModel;
+    private LlamaBackendRouter llamaBackendRouter;
+
+    @Value("${llama.health.timeout:PT2S}")
+    private Duration timeout;
+
+    private final HttpClient httpClient = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(2)).build();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private volatile Status status = new Status(false, null, List.of());
 
     public boolean isLlamaRunning() {
+        return status.isLlamaRunning();
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    @Scheduled(fixedDelayString = "${llama.health.interval:PT10S}")
+    public void refresh() {
+        List<BackendStatus> backends = llamaBackendRouter.urls().stream().map(this::probe).toList();
+        boolean running = backends.stream().anyMatch(backend -> backend.state() == State.UP || backend.state() == State.BUSY);
+        if (running != status.isLlamaRunning() || status.checkedAt() == null) {
+            log.info("llama.cpp is {}", running ? "reachable" : "not reachable");
+        }
+        status = new Status(running, Instant.now(), backends);
+    }
+
+    private BackendStatus probe(String url) {
+        String base = url.replaceAll("/+$", "");
+        long start = System.nanoTime();
+        try {
+            HttpResponse<String> response = get(base + "/health");
+            if (response.statusCode() == 404) {
+                // Servers without /health still list their models cheaply
+                response = get(base + "/v1/models");
+            }
+            long latency = Duration.ofNanos(System.nanoTime() - start).toMillis();
+            return toStatus(url, response, latency);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new BackendStatus(url, State.UNKNOWN, Instant.now(), null, null, null, "Interrupted");
+        } catch (Exception e) {
+            return new BackendStatus(url, State.DOWN, Instant.now(), null, null, null, e.toString());
+        }
+    }
+
+    private HttpResponse<String> get(String uri) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(uri)).timeout(timeout).GET().build();
+        return httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private BackendStatus toStatus(String url, HttpResponse<String> response, long latency) {
+        JsonNode body = readBody(response.body());
+        Integer slotsIdle = body.has("slots_idle") ? body.get("slots_idle").asInt() : null;
+        Integer slotsProcessing = body.has("slots_processing") ? body.get("slots_processing").asInt() : null;
+        String detail = body.path("status").asText(body.path("error").path("message").asText(null));
+
+        State state;
+        if (response.statusCode() == 200) {
+            state = State.UP;
+        } else if (response.statusCode() == 503 && slotsIdle != null) {
+            // Older llama.cpp servers answer 503 while every slot is busy
+            state = State.BUSY;
+        } else if (response.statusCode() == 503) {
+            state = State.LOADING;
+        } else {
+            state = State.DOWN;
+            detail = "HTTP " + response.statusCode();
+        }
+        return new BackendStatus(url, state, Instant.now(), latency, slotsIdle, slotsProcessing, detail);
+    }
+
+    private JsonNode readBody(String body) {
         try {
-            // Send a simple test query to the Llama model
-            chatLanguageModel.generate("Are you running?");
-            return true;
+            return objectMapper.readTree(body == null || body.isBlank() ? "{}" : body);
         } catch (Exception e) {
-            return false;
+            return objectMapper.createObjectNode();
         }
     }
 }
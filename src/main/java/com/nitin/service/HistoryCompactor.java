@@ -0,0 +1,111 @@
+package com.nitin.service;
+
+import com.nitin.dto.Conversation;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.UserMessage;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the conversation sent to the LLM within a token budget. The most recent turns are kept
+ * verbatim, older turns are folded into a short extractive summary, and of all the diagrams produced
+ * so far only the latest PlantUML block is kept. Prompt size therefore stays roughly constant no
+ * matter how long the conversation grows.
+ */
+@Component
+public class HistoryCompactor {
+
+    private static final int CHARS_PER_TOKEN = 4;
+
+    public record CompactedHistory(String summary, List<Conversation> recentTurns, String latestPlantUml) {}
+
+    @Value("${design.history.verbatim-turns:4}")
+    private int verbatimTurns;
+
+    @Value("${design.history.max-tokens:1500}")
+    private int maxTokens;
+
+    @Value("${design.history.summary-chars-per-turn:160}")
+    private int summaryCharsPerTurn;
+
+    public CompactedHistory compact(String summary, List<Conversation> turns, String latestPlantUml) {
+        List<Conversation> recent = new ArrayList<>();
+        StringBuilder newSummary = new StringBuilder(summary == null ? "" : summary);
+        String plantUml = latestPlantUml;
+
+        int firstRecent = Math.max(0, turns.size() - verbatimTurns);
+        for (int i = 0; i < turns.size(); i++) {
+            Conversation turn = turns.get(i);
+            if (turn.getDesign() != null && turn.getDesign().getPlantUmlCode() != null
+                    && !turn.getDesign().getPlantUmlCode().isBlank()) {
+                plantUml = turn.getDesign().getPlantUmlCode();
+            }
+            if (i < firstRecent) {
+                appendSummary(newSummary, turn);
+            } else {
+                recent.add(Conversation.builder().message(turn.getMessage()).sender(turn.getSender()).build());
+            }
+        }
+
+        // Fold further turns into the summary until the verbatim part fits the budget
+        while (recent.size() > 1 && estimateTokens(newSummary, recent, plantUml) > maxTokens) {
+            appendSummary(newSummary, recent.remove(0));
+        }
+
+        int maxSummaryChars = maxTokens * CHARS_PER_TOKEN / 2;
+        if (newSummary.length() > maxSummaryChars) {
+            int cut = newSummary.indexOf("\n", newSummary.length() - maxSummaryChars);
+            newSummary.delete(0, cut == -1 ? newSummary.length() - maxSummaryChars : cut + 1);
+        }
+        return new CompactedHistory(newSummary.toString(), recent, plantUml);
+    }
+
+    public List<ChatMessage> toMessages(CompactedHistory history) {
+        List<ChatMessage> messages = new ArrayList<>();
+        if (!history.summary().isEmpty()) {
+            messages.add(SystemMessage.from("Summary of the earlier conversation:\n" + history.summary()));
+        }
+        for (Conversation convo : history.recentTurns()) {
+            if (convo.getSender() == Conversation.Sender.USER) {
+                messages.add(UserMessage.from(convo.getMessage()));
+            } else if (convo.getSender() == Conversation.Sender.ASSISTANT) {
+                messages.add(SystemMessage.from(convo.getMessage()));
+            }
+        }
+        if (history.latestPlantUml() != null) {
+            messages.add(SystemMessage.from("The current diagram is:\n```plantuml\n" + history.latestPlantUml().trim() + "\n```"));
+        }
+        return messages;
+    }
+
+    private void appendSummary(StringBuilder summary, Conversation turn) {
+        if (turn.getMessage() == null || turn.getMessage().isBlank()) {
+            return;
+        }
+        String text = turn.getMessage().strip().replaceAll("\\s+", " ");
+        if (turn.getSender() == Conversation.Sender.ASSISTANT) {
+            int sentenceEnd = text.indexOf(". ");
+            if (sentenceEnd != -1) {
+                text = text.substring(0, sentenceEnd + 1);
+            }
+        }
+        if (text.length() > summaryCharsPerTurn) {
+            text = text.substring(0, summaryCharsPerTurn) + "...";
+        }
+        summary.append(turn.getSender() == Conversation.Sender.USER ? "- User: " : "- Assistant: ")
+                .append(text)
+                .append('\n');
+    }
+
+    private static int estimateTokens(CharSequence summary, List<Conversation> turns, String plantUml) {
+        int chars = summary.length() + (plantUml == null ? 0 : plantUml.length());
+        for (Conversation turn : turns) {
+            chars += turn.getMessage() == null ? 0 : turn.getMessage().length();
+        }
+        return chars / CHARS_PER_TOKEN;
+    }
+}
@@ -0,0 +1,79 @@
+package com.nitin.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Extracts the PlantUML diagram from an LLM response: the contents of every {@code ```plantuml}
+ * markdown block or, failing that, the first bare {@code @startuml ... @enduml} block. On follow-up
+ * turns the response may carry a {@code ```c4patch} block instead, see {@link com.nitin.c4.C4Patch}.
+ */
+public final class PlantUmlExtractor {
+
+    private static final Logger log = LoggerFactory.getLogger(PlantUmlExtractor.class);
+
+    private static final Pattern MARKDOWN_PATTERN = Pattern.compile("```plantuml\\s*([\\s\\S]*?)```", Pattern.CASE_INSENSITIVE);
+    private static final Pattern PATCH_PATTERN = Pattern.compile("```c4patch[ \\t]*\\n?([\\s\\S]*?)```", Pattern.CASE_INSENSITIVE);
+    private static final Pattern UML_PATTERN = Pattern.compile("(@startuml[\\s\\S]*?@enduml)", Pattern.CASE_INSENSITIVE);
+
+    private PlantUmlExtractor() {
+    }
+
+    /**
+     * Returns the diagram found in the text, or an empty string when there is none.
+     */
+    public static String extract(String text) {
+        String plantUmlCode = extractFromMarkdown(text);
+        if (plantUmlCode.isEmpty()) {
+            Matcher umlMatcher = UML_PATTERN.matcher(text);
+            if (umlMatcher.find()) {
+                log.info("Found PlantUML code outside a markdown block.");
+                return umlMatcher.group(1).trim() + "\n";
+            }
+        }
+        return plantUmlCode;
+    }
+
+    /**
+     * Returns the contents of all {@code ```plantuml} blocks, one after the other.
+     */
+    public static String extractFromMarkdown(String text) {
+        log.debug("Attempting to extract PlantUML code from {} chars of text", text.length());
+        StringBuilder allUmlCode = new StringBuilder();
+
+        Matcher markdownMatcher = MARKDOWN_PATTERN.matcher(text);
+        boolean found = false;
+        while (markdownMatcher.find()) {
+            if (!found) {
+                log.info("Found PlantUML code within markdown block(s).");
+                found = true;
+            }
+            String umlBlock = markdownMatcher.group(1).trim();
+            allUmlCode.append(umlBlock).append("\n");
+        }
+
+        if (found) {
+            return allUmlCode.toString();
+        }
+
+        log.warn("No valid PlantUML code found in the response.");
+        return "";
+    }
+
+    /**
+     * Returns the contents of the first {@code ```c4patch} block, which may be empty when the
+     * diagram does not change, or nothing if the response has no patch.
+     */
+    public static Optional<String> extractPatch(String text) {
+        Matcher patchMatcher = PATCH_PATTERN.matcher(text);
+        if (!patchMatcher.find()) {
+            return Optional.empty();
+        }
+        log.info("Found a C4 patch within a markdown block.");
+        return Optional.of(patchMatcher.group(1).trim());
+    }
+}
@@ -0,0 +1,102 @@
+package com.nitin.service;
+
+/**
+ * Splits a token stream into the explanation text that precedes the PlantUML block, or the C4
+ * patch of a follow-up turn, and everything after it. Tokens rarely line up with the fence, so a
+ * tail that could still turn into a marker is held back until the next token decides it.
+ */
+class PlantUmlFenceDetector {
+
+    private static final String[] MARKERS = {"```plantuml", "@startuml", "```c4patch"};
+
+    private final StringBuilder pending = new StringBuilder();
+    private boolean inDiagram;
+
+    /**
+     * Accepts the next token and returns the explanation text that is now safe to emit.
+     * Returns an empty string once the diagram block has started.
+     */
+    String accept(String token) {
+        if (inDiagram) {
+            return "";
+        }
+        pending.append(token);
+
+        int markerStart = findMarker();
+        if (markerStart != -1) {
+            inDiagram = true;
+            String explanation = pending.substring(0, markerStart);
+            pending.setLength(0);
+            return explanation;
+        }
+
+        int safeLength = pending.length() - heldBackLength();
+        String explanation = pending.substring(0, safeLength);
+        pending.delete(0, safeLength);
+        return explanation;
+    }
+
+    /**
+     * Releases any held-back text when the stream ends without a diagram block.
+     */
+    String flush() {
+        String rest = inDiagram ? "" : pending.toString();
+        pending.setLength(0);
+        return rest;
+    }
+
+    boolean isInDiagram() {
+        return inDiagram;
+    }
+
+    /**
+     * Finds the earliest marker, ignoring case like {@link PlantUmlExtractor} does, so a block
+     * fenced as {@code ```PlantUML} is not streamed as explanation.
+     */
+    private int findMarker() {
+        int first = -1;
+        for (String marker : MARKERS) {
+            int index = indexOfIgnoreCase(marker);
+            if (index != -1 && (first == -1 || index < first)) {
+                first = index;
+            }
+        }
+        return first;
+    }
+
+    private int indexOfIgnoreCase(String marker) {
+        for (int start = 0; start + marker.length() <= pending.length(); start++) {
+            if (matches(marker, start, marker.length())) {
+                return start;
+            }
+        }
+        return -1;
+    }
+
+    private int heldBackLength() {
+        int longest = 0;
+        for (String marker : MARKERS) {
+            int max = Math.min(marker.length() - 1, pending.length());
+            for (int len = max; len > longest; len--) {
+                if (endsWith(marker, len)) {
+                    longest = len;
+                    break;
+                }
+            }
+        }
+        return longest;
+    }
+
+    private boolean endsWith(String marker, int len) {
+        return matches(marker, pending.length() - len, len);
+    }
+
+    private boolean matches(String marker, int offset, int len) {
+        for (int i = 0; i < len; i++) {
+            if (Character.toLowerCase(pending.charAt(offset + i)) != Character.toLowerCase(marker.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,109 @@
+package com.nitin.service;
+
+import net.sourceforge.plantuml.FileFormat;
+import net.sourceforge.plantuml.SourceStringReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Renders a diagram in a separate {@code java -jar plantuml.jar -pipe} process. A runaway layout,
+ * including the {@code dot} process PlantUML starts, can then be killed outright when the render is
+ * cancelled, instead of lingering on a thread inside the application's JVM.
+ */
+@Component
+public class PlantUmlProcessRenderer {
+
+    private static final Logger log = LoggerFactory.getLogger(PlantUmlProcessRenderer.class);
+
+    @Value("${plantuml.render.out-of-process:false}")
+    private boolean enabled;
+
+    @Value("${plantuml.render.worker-jar:}")
+    private String workerJar;
+
+    @Value("${plantuml.render.worker-max-heap:512m}")
+    private String maxHeap;
+
+    private String plantUmlJar;
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            return;
+        }
+        plantUmlJar = workerJar.isBlank() ? locatePlantUmlJar() : workerJar;
+        if (plantUmlJar == null || !Files.isRegularFile(Paths.get(plantUmlJar))) {
+            throw new IllegalStateException("plantuml.render.out-of-process needs plantuml.render.worker-jar "
+                    + "to point to a PlantUML jar, found: " + plantUmlJar);
+        }
+        log.info("Rendering diagrams in worker processes using {}", plantUmlJar);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public byte[] render(String umlSource, FileFormat format, boolean withMetadata) throws IOException {
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        Path output = Files.createTempFile("plantuml-", "." + format.name().toLowerCase());
+        List<String> command = new ArrayList<>(List.of(java, "-Xmx" + maxHeap, "-Djava.awt.headless=true"));
+        // In file include mode the bundled C4 library is only on the include path of this JVM, see PlantUmlConfiguration
+        for (String property : List.of("plantuml.include.path", "RELATIVE_INCLUDE")) {
+            String value = System.getProperty(property);
+            if (value != null) {
+                command.add("-D" + property + "=" + value);
+            }
+        }
+        command.addAll(List.of("-jar", plantUmlJar, "-pipe", "-charset", "UTF-8", "-t" + format.name().toLowerCase()));
+        if (!withMetadata) {
+            command.add("-nometadata");
+        }
+        Process process = new ProcessBuilder(command)
+                .redirectOutput(output.toFile())
+                .redirectError(ProcessBuilder.Redirect.DISCARD)
+                .start();
+        try {
+            try (OutputStream stdin = process.getOutputStream()) {
+                stdin.write(umlSource.getBytes(StandardCharsets.UTF_8));
+            }
+            int exitCode = process.waitFor();
+            byte[] bytes = Files.readAllBytes(output);
+            if (bytes.length == 0) {
+                throw new IOException("PlantUML worker exited with " + exitCode + " without output");
+            }
+            return bytes;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Diagram rendering was cancelled");
+        } finally {
+            if (process.isAlive()) {
+                process.descendants().forEach(ProcessHandle::destroyForcibly);
+                process.destroyForcibly();
+            }
+            Files.deleteIfExists(output);
+        }
+    }
+
+    private static String locatePlantUmlJar() {
+        try {
+            Path path = Paths.get(SourceStringReader.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+            return path.toString();
+        } catch (Exception e) {
+            // Nested inside the application jar, so it cannot be started directly
+            return null;
+        }
+    }
+}
@@ -1,68 +1,313 @@
 package com.nitin.service;
 
-import net.sourceforge.plantuml.FileFormat;
+import com.nitin.c4.C4IncludeResolver;
+import com.nitin.exception.DiagramRenderTimeoutException;
+import com.nitin.metrics.DesignMetrics;
+import com.nitin.storage.DiagramStore;
+import com.nitin.storage.StoredDiagram;
+import net.sourceforge.plantuml.BlockUml;
 import net.sourceforge.plantuml.FileFormatOption;
 import net.sourceforge.plantuml.SourceStringReader;
+import net.sourceforge.plantuml.core.Diagram;
+import net.sourceforge.plantuml.syntax.SyntaxChecker;
+import net.sourceforge.plantuml.syntax.SyntaxResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
 import java.io.ByteArrayOutputStream;
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
 
 @Service
 public class PlantUmlService {
 
-    @Value("${plantuml.output-directory}")
-    private String outputDirectory;
+    private static final Logger log = LoggerFactory.getLogger(PlantUmlService.class);
+    private static final String SMETANA_PRAGMA = "!pragma layout smetana";
 
     @Value("${plantuml.image-format}")
     private String imageFormat;
 
-    public String generateDiagram(String umlSource) throws IOException {
+    @Autowired
+    private DiagramRenderCache renderCache;
+
+    @Autowired
+    private DiagramStore diagramStore;
+
+    @Autowired
+    private DiagramRenderExecutor renderExecutor;
+
+    @Autowired
+    private PlantUmlProcessRenderer processRenderer;
+
+    @Value("${plantuml.render.smetana-fallback:true}")
+    private boolean smetanaFallback;
+
+    @Value("${plantuml.c4.include-mode:memory}")
+    private String includeMode;
+
+    @Autowired
+    private DesignMetrics designMetrics;
+
+    @Value("${plantuml.export-formats:}")
+    private List<String> exportFormatNames;
+
+    @Value("${plantuml.render.coalescing.enabled:true}")
+    private boolean coalescingEnabled;
+
+    private DiagramFormat defaultFormat;
+    private List<DiagramFormat> exportFormats;
+    private SingleFlight<Map<DiagramFormat, byte[]>> renderFlights;
+
+    /**
+     * Rendered images and the source they were rendered from, the smetana-rewritten one after a fallback.
+     */
+    private record Rendered(String source, Map<DiagramFormat, byte[]> images) {}
+
+    @PostConstruct
+    public void init() {
+        defaultFormat = DiagramFormat.fromName(imageFormat).orElseGet(() -> {
+            log.warn("Unsupported plantuml.image-format {}, using PNG", imageFormat);
+            return DiagramFormat.PNG;
+        });
+        exportFormats = exportFormatNames.stream()
+                .filter(name -> !name.isBlank())
+                .map(name -> DiagramFormat.fromName(name)
+                        .orElseThrow(() -> new IllegalStateException("Unsupported plantuml.export-formats entry: " + name)))
+                .filter(format -> format != defaultFormat)
+                .distinct()
+                .toList();
+        log.info("Rendering diagrams as {}, with {} exports", defaultFormat, exportFormats);
+        renderFlights = new SingleFlight<>("diagram-flight-", coalescingEnabled);
+    }
+
+    @PreDestroy
+    public void stop() {
+        renderFlights.shutdown();
+    }
+
+    public DiagramFormat getDefaultFormat() {
+        return defaultFormat;
+    }
+
+    public StoredDiagram generateDiagram(String umlSource) throws IOException {
+        return generateDiagrams(umlSource, List.of(defaultFormat)).get(defaultFormat);
+    }
+
+    /**
+     * Renders and stores the diagram in the default format and every export format.
+     */
+    public Map<DiagramFormat, StoredDiagram> generateDiagramWithExports(String umlSource) throws IOException {
+        List<DiagramFormat> formats = new ArrayList<>(List.of(defaultFormat));
+        formats.addAll(exportFormats);
+        return generateDiagrams(umlSource, formats);
+    }
+
+    /**
+     * Renders and stores a preview of a diagram still being generated, in the default format only.
+     * Previews bypass the render cache, as each one is superseded within seconds.
+     */
+    public StoredDiagram generatePreview(String umlSource) throws IOException {
+        String validatedUml = validateAndFixUmlSyntax(umlSource);
+        Map<DiagramFormat, byte[]> images = designMetrics.observe(DesignMetrics.PREVIEW, () -> render(validatedUml, List.of(defaultFormat)).images());
+        return diagramStore.save(images.get(defaultFormat), defaultFormat.extension());
+    }
+
+    public byte[] generateDiagramBytes(String umlSource) throws IOException {
+        return generateDiagramBytes(umlSource, defaultFormat);
+    }
+
+    public byte[] generateDiagramBytes(String umlSource, DiagramFormat format) throws IOException {
+        return renderFormats(umlSource, List.of(format)).get(format);
+    }
+
+    private Map<DiagramFormat, StoredDiagram> generateDiagrams(String umlSource, List<DiagramFormat> formats) throws IOException {
         String validatedUml = validateAndFixUmlSyntax(umlSource);
-        Path outputPath = Paths.get(outputDirectory);
-        if (!Files.exists(outputPath)) {
-            Files.createDirectories(outputPath);
+        Map<DiagramFormat, StoredDiagram> diagrams = new EnumMap<>(DiagramFormat.class);
+        Map<DiagramFormat, byte[]> images = renderFormats(validatedUml, formats);
+        return designMetrics.observe(DesignMetrics.STORE, () -> {
+            for (Map.Entry<DiagramFormat, byte[]> image : images.entrySet()) {
+                diagrams.put(image.getKey(), diagramStore.save(image.getValue(), image.getKey().extension()));
+            }
+            return diagrams;
+        });
+    }
+
+    /**
+     * Returns the diagram in each format, rendering the formats missing from the cache together.
+     */
+    private Map<DiagramFormat, byte[]> renderFormats(String umlSource, List<DiagramFormat> formats) throws IOException {
+        Map<DiagramFormat, byte[]> images = new EnumMap<>(DiagramFormat.class);
+        List<DiagramFormat> missing = new ArrayList<>();
+        for (DiagramFormat format : formats) {
+            byte[] cached = renderCache.find(umlSource, format.name());
+            if (cached != null) {
+                images.put(format, cached);
+            } else {
+                missing.add(format);
+            }
         }
+        if (!missing.isEmpty()) {
+            Map<DiagramFormat, byte[]> rendered = designMetrics.observe(DesignMetrics.RENDER, () -> renderOnce(umlSource, missing));
+            images.putAll(rendered);
+        }
+        return images;
+    }
 
-        String timestamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss"));
-        String fileName = "diagram_" + timestamp +"." + imageFormat.toLowerCase();
-        Path fullPath = outputPath.resolve(fileName);
+    /**
+     * Runs PlantUML's syntax check, which parses the diagram without laying it out, and returns its
+     * errors as {@code line N: message} strings; an empty list means the diagram is valid.
+     */
+    public List<String> checkSyntax(String umlSource) {
+        String source = validateAndFixUmlSyntax(umlSource);
+        C4IncludeResolver.Resolved resolved = resolveIncludes(source);
+        SyntaxResult result = SyntaxChecker.checkSyntax(resolved.source());
+        if (!result.isError()) {
+            return List.of();
+        }
+        String location = "";
+        if (result.getLineLocation() != null) {
+            int line = resolved.originalLine(result.getLineLocation().getPosition() + 1);
+            String text = source.lines().skip(line - 1).findFirst().orElse("").strip();
+            location = "line " + line + (text.isEmpty() ? "" : " (" + text + ")") + ": ";
+        }
+        List<String> errors = new ArrayList<>();
+        for (String error : result.getErrors()) {
+            errors.add(location + error);
+        }
+        return errors.isEmpty() ? List.of(location + "Syntax error") : errors;
+    }
 
-        SourceStringReader reader = new SourceStringReader(validatedUml);
+    public DiagramRenderCache.Stats getRenderCacheStats() {
+        return renderCache.stats();
+    }
+
+    public DiagramRenderExecutor.Stats getRenderStats() {
+        return renderExecutor.stats();
+    }
 
-        FileFormat format = getFileFormat(imageFormat);
-        FileFormatOption option = new FileFormatOption(format);
-        try (FileOutputStream fos = new FileOutputStream(fullPath.toFile())){
-            reader.outputImage(fos, option);
+    public SingleFlight.Stats getCoalescingStats() {
+        return renderFlights.stats();
+    }
+
+    /**
+     * Renders and caches the formats, sharing the render with identical requests already in flight.
+     * A smetana fallback is cached under the rewritten source, so the original source is laid out with
+     * Graphviz again on the next miss rather than served the cruder layout for the cache's lifetime.
+     */
+    private Map<DiagramFormat, byte[]> renderOnce(String umlSource, List<DiagramFormat> formats) throws IOException {
+        try {
+            return renderFlights.execute(renderKey(umlSource, formats), () -> {
+                Rendered rendered = render(umlSource, formats);
+                rendered.images().forEach((format, bytes) -> renderCache.put(rendered.source(), format.name(), bytes));
+                return rendered.images();
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for diagram rendering", e);
+        } catch (IOException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Diagram rendering failed: " + e.getMessage(), e);
         }
-        return fullPath.toString();
     }
 
-    public byte[] generateDiagramBytes(String umlSource) throws IOException {
-        SourceStringReader reader = new SourceStringReader(umlSource);
-        FileFormat format = getFileFormat(imageFormat);
-        FileFormatOption option = new FileFormatOption(format);
+    private static String renderKey(String umlSource, List<DiagramFormat> formats) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(umlSource.getBytes(StandardCharsets.UTF_8));
+            for (DiagramFormat format : formats) {
+                digest.update((byte) 0);
+                digest.update(format.name().getBytes(StandardCharsets.UTF_8));
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private Rendered render(String umlSource, List<DiagramFormat> formats) throws IOException {
+        try {
+            return new Rendered(umlSource, renderExecutor.render(() -> renderNow(umlSource, formats)));
+        } catch (DiagramRenderTimeoutException e) {
+            if (!smetanaFallback || umlSource.contains(SMETANA_PRAGMA)) {
+                throw e;
+            }
+            // Smetana is PlantUML's built-in layout engine: cruder than Graphviz, but bounded
+            log.warn("Diagram rendering timed out, retrying with the smetana layout");
+            String simplified = withSmetanaLayout(umlSource);
+            return new Rendered(simplified, renderExecutor.render(() -> renderNow(simplified, formats)));
+        }
+    }
+
+    private Map<DiagramFormat, byte[]> renderNow(String umlSource, List<DiagramFormat> formats) throws IOException {
+        String source = resolveIncludes(umlSource).source();
+        // Images embed their source as metadata, which would then hold the whole inlined library
+        boolean withMetadata = isFileIncludeMode();
+        if (processRenderer.isEnabled()) {
+            // A worker renders a single format per run
+            Map<DiagramFormat, byte[]> images = new EnumMap<>(DiagramFormat.class);
+            for (DiagramFormat format : formats) {
+                images.put(format, processRenderer.render(source, format.fileFormat(), withMetadata));
+            }
+            return images;
+        }
+        return export(source, formats, withMetadata);
+    }
 
-        try (ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
-            reader.outputImage(baos, option);
-            return baos.toByteArray();
+    /**
+     * Renders PlantUML source, with its includes already resolved, in this thread. Preprocessing and
+     * parsing, most of the cost of a C4 diagram, happen once for all formats.
+     */
+    public static Map<DiagramFormat, byte[]> export(String source, List<DiagramFormat> formats, boolean withMetadata) throws IOException {
+        Map<DiagramFormat, byte[]> images = new EnumMap<>(DiagramFormat.class);
+        List<BlockUml> blocks = new SourceStringReader(source).getBlocks();
+        if (blocks.isEmpty()) {
+            throw new IOException("No diagram found in the PlantUML source");
         }
+        Diagram diagram = blocks.get(0).getDiagram();
+        for (DiagramFormat format : formats) {
+            try (ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
+                diagram.exportDiagram(baos, 0, new FileFormatOption(format.fileFormat(), withMetadata));
+                images.put(format, baos.toByteArray());
+            }
+        }
+        return images;
+    }
+
+    /**
+     * Inlines the bundled C4 library in memory mode; in file mode PlantUML reads it from the include
+     * path set up by {@code PlantUmlConfiguration}.
+     */
+    private C4IncludeResolver.Resolved resolveIncludes(String umlSource) {
+        if (isFileIncludeMode()) {
+            return new C4IncludeResolver.Resolved(umlSource, new int[0]);
+        }
+        return C4IncludeResolver.resolve(umlSource);
     }
 
-    private FileFormat getFileFormat(String format) {
-        return switch (format.toUpperCase()) {
-            case "SVG" -> FileFormat.SVG;
-            case "PDF" -> FileFormat.PDF;
-            default -> FileFormat.PNG;
-        };
+    private boolean isFileIncludeMode() {
+        return "file".equalsIgnoreCase(includeMode);
+    }
+
+    private static String withSmetanaLayout(String umlSource) {
+        int lineEnd = umlSource.indexOf('\n');
+        if (!umlSource.startsWith("@startuml") || lineEnd == -1) {
+            return SMETANA_PRAGMA + "\n" + umlSource;
+        }
+        return umlSource.substring(0, lineEnd + 1) + SMETANA_PRAGMA + "\n" + umlSource.substring(lineEnd + 1);
     }
 
     public String validateAndFixUmlSyntax(String umlSource) {
@@ -0,0 +1,152 @@
+package com.nitin.service;
+
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Coalesces concurrent calls for the same key into one execution: the first caller starts the work,
+ * callers arriving while it runs wait for the same {@link CompletableFuture}. The work runs on a
+ * thread of its own, so it outlives any single caller; it is cancelled, interrupting that thread,
+ * only once every waiting caller has been interrupted. A finished flight is forgotten straight away,
+ * so later calls start afresh; caching results is left to the callers.
+ */
+public final class SingleFlight<T> {
+
+    public record Stats(long executions, long coalesced, long cancelled, int inFlight) {}
+
+    private final class Flight {
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        private Future<?> task;
+        private int waiters = 1;
+    }
+
+    private final boolean enabled;
+    private final ThreadPoolExecutor executor;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<String, Flight> flights = new HashMap<>();
+    private final AtomicLong executions = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong cancelled = new AtomicLong();
+
+    /**
+     * @param threadNamePrefix names the threads running the work
+     * @param enabled          when false, every call runs the work itself in the calling thread
+     */
+    public SingleFlight(String threadNamePrefix, boolean enabled) {
+        this.enabled = enabled;
+        // Each thread is tied to at least one blocked caller, so the callers already bound the pool
+        this.executor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS,
+                new SynchronousQueue<>(), new CustomizableThreadFactory(threadNamePrefix));
+    }
+
+    /**
+     * Runs the work, or joins the execution already in flight for the key, and returns its result.
+     * Exceptions thrown by the work are rethrown to every waiter.
+     *
+     * @throws InterruptedException if this caller is interrupted while waiting; the work carries on
+     *                              for the remaining waiters, if any
+     */
+    public T execute(String key, Callable<T> work) throws Exception {
+        if (!enabled) {
+            return work.call();
+        }
+        Flight flight = join(key, work);
+        try {
+            return flight.result.get();
+        } catch (InterruptedException e) {
+            leave(key, flight);
+            throw e;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception exception) {
+                throw exception;
+            }
+            throw e;
+        } catch (CancellationException e) {
+            // Only possible if the flight was cancelled between this caller joining and waiting
+            throw new InterruptedException("Cancelled while waiting for " + key);
+        }
+    }
+
+    public Stats stats() {
+        lock.lock();
+        try {
+            return new Stats(executions.get(), coalesced.get(), cancelled.get(), flights.size());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private Flight join(String key, Callable<T> work) {
+        lock.lock();
+        try {
+            Flight existing = flights.get(key);
+            if (existing != null) {
+                existing.waiters++;
+                coalesced.incrementAndGet();
+                return existing;
+            }
+            Flight flight = new Flight();
+            flights.put(key, flight);
+            executions.incrementAndGet();
+            flight.task = executor.submit(() -> run(key, flight, work));
+            return flight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void run(String key, Flight flight, Callable<T> work) {
+        try {
+            T value = work.call();
+            forget(key, flight);
+            flight.result.complete(value);
+        } catch (Throwable t) {
+            forget(key, flight);
+            flight.result.completeExceptionally(t);
+        }
+    }
+
+    private void leave(String key, Flight flight) {
+        lock.lock();
+        try {
+            if (--flight.waiters > 0 || flights.get(key) != flight) {
+                return;
+            }
+            flights.remove(key);
+            cancelled.incrementAndGet();
+        } finally {
+            lock.unlock();
+        }
+        flight.task.cancel(true);
+        flight.result.cancel(false);
+    }
+
+    /**
+     * Removes the flight before its result is published, so a caller arriving afterwards starts a
+     * new execution rather than joining a finished one.
+     */
+    private void forget(String key, Flight flight) {
+        lock.lock();
+        try {
+            flights.remove(key, flight);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
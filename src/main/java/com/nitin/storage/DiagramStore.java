@@ -0,0 +1,66 @@
+package com.nitin.storage;
+
+import org.springframework.core.io.Resource;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+/**
+ * Storage for rendered diagrams served to clients. Diagrams are named after the SHA-256 of their
+ * content, so concurrent writes never collide and identical diagrams are stored once, and are
+ * written atomically, so a reader never sees a partial file. Implementations evict diagrams by age
+ * and total size in the background.
+ *
+ * <p>Only names produced by {@link #name(byte[], String)} are valid; anything else is treated as
+ * unknown, which also keeps client-supplied names from escaping the store.
+ */
+public interface DiagramStore {
+
+    Pattern NAME_PATTERN = Pattern.compile("[0-9a-f]{64}\\.[a-z]{3,4}");
+
+    record Stats(int files, long bytes, long saved, long evicted, long evictedBytes, Instant lastEviction) {}
+
+    /**
+     * Stores the diagram, unless a diagram with the same content is already stored, and returns it.
+     */
+    StoredDiagram save(byte[] content, String extension) throws IOException;
+
+    Optional<StoredDiagram> find(String name);
+
+    /**
+     * Returns the stored diagram's content as a resource, for streaming it to a client.
+     */
+    Optional<Resource> load(String name);
+
+    /**
+     * Returns the gzip-compressed content of a stored diagram, if the store keeps one, so it can be
+     * served to clients accepting gzip without compressing it per request.
+     */
+    Optional<Resource> loadGzipped(String name);
+
+    /**
+     * Removes diagrams older than the maximum age, then the oldest ones until the store is within
+     * its size limit.
+     */
+    void evict();
+
+    Stats stats();
+
+    static String name(byte[] content, String extension) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(content)) + "." + extension.toLowerCase();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    static boolean isValidName(String name) {
+        return name != null && NAME_PATTERN.matcher(name).matches();
+    }
+}
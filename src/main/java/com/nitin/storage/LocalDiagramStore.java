@@ -0,0 +1,239 @@
+package com.nitin.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * {@link DiagramStore} on the local filesystem, in the PlantUML output directory. Diagrams are
+ * written to a temporary file and moved into place atomically; text formats such as SVG also get a
+ * gzip-compressed copy, {@code <name>.gz}, for clients that accept it. Retention covers every file
+ * under the directory, including the render cache's, and uses the modification time, which is
+ * refreshed when a stored diagram is saved again.
+ */
+@Component
+@ConditionalOnProperty(name = "plantuml.store.type", havingValue = "local", matchIfMissing = true)
+public class LocalDiagramStore implements DiagramStore {
+
+    private static final Logger log = LoggerFactory.getLogger(LocalDiagramStore.class);
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final Duration ABANDONED_TEMP_AGE = Duration.ofHours(1);
+    private static final String GZIP_SUFFIX = ".gz";
+    private static final Set<String> COMPRESSIBLE_EXTENSIONS = Set.of("svg", "eps", "txt");
+
+    private record StoredFile(Path path, long size, Instant modifiedAt) {}
+
+    @Value("${plantuml.output-directory}")
+    private String outputDirectory;
+
+    @Value("${plantuml.store.max-age:P7D}")
+    private Duration maxAge;
+
+    @Value("${plantuml.store.max-bytes:1073741824}")
+    private long maxBytes;
+
+    @Value("${plantuml.store.precompress:true}")
+    private boolean precompress;
+
+    private Path root;
+    private final AtomicLong files = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong saved = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+    private final AtomicLong evictedBytes = new AtomicLong();
+    private volatile Instant lastEviction;
+
+    @PostConstruct
+    public void init() {
+        root = Paths.get(outputDirectory).toAbsolutePath().normalize();
+        try {
+            Files.createDirectories(root);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not create the diagram directory " + root, e);
+        }
+        log.info("Storing diagrams in {}, keeping them for {} and at most {} bytes", root, maxAge, maxBytes);
+    }
+
+    @Override
+    public StoredDiagram save(byte[] content, String extension) throws IOException {
+        String name = DiagramStore.name(content, extension);
+        Path path = root.resolve(name);
+        Path gzipPath = root.resolve(name + GZIP_SUFFIX);
+        boolean compress = precompress && COMPRESSIBLE_EXTENSIONS.contains(extension.toLowerCase());
+        Instant now = Instant.now();
+        try {
+            // Same name, same content: keep the file and restart its retention period
+            Files.setLastModifiedTime(path, FileTime.from(now));
+            if (compress && !touch(gzipPath, now)) {
+                write(gzipPath, gzip(content));
+            }
+            return new StoredDiagram(name, path.toString(), content.length, now);
+        } catch (NoSuchFileException e) {
+            // Not stored yet
+        }
+        // The compressed copy goes first, so it is there whenever the diagram is
+        if (compress) {
+            write(gzipPath, gzip(content));
+        }
+        write(path, content);
+        saved.incrementAndGet();
+        return new StoredDiagram(name, path.toString(), content.length, now);
+    }
+
+    @Override
+    public Optional<StoredDiagram> find(String name) {
+        if (!DiagramStore.isValidName(name)) {
+            return Optional.empty();
+        }
+        Path path = root.resolve(name);
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            return Optional.of(new StoredDiagram(name, path.toString(), attributes.size(), attributes.lastModifiedTime().toInstant()));
+        } catch (IOException e) {
+            return Optional.empty();
+        }
+    }
+
+    @Override
+    public Optional<Resource> load(String name) {
+        if (!DiagramStore.isValidName(name)) {
+            return Optional.empty();
+        }
+        Resource resource = new FileSystemResource(root.resolve(name));
+        return resource.exists() ? Optional.of(resource) : Optional.empty();
+    }
+
+    @Override
+    public Optional<Resource> loadGzipped(String name) {
+        if (!DiagramStore.isValidName(name)) {
+            return Optional.empty();
+        }
+        Resource resource = new FileSystemResource(root.resolve(name + GZIP_SUFFIX));
+        return resource.exists() ? Optional.of(resource) : Optional.empty();
+    }
+
+    @Override
+    @Scheduled(fixedDelayString = "${plantuml.store.eviction-interval:PT10M}")
+    public void evict() {
+        Instant now = Instant.now();
+        Instant cutoff = now.minus(maxAge);
+        List<StoredFile> files = new ArrayList<>();
+        try (Stream<Path> paths = Files.walk(root)) {
+            paths.filter(Files::isRegularFile).forEach(path -> {
+                try {
+                    BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                    files.add(new StoredFile(path, attributes.size(), attributes.lastModifiedTime().toInstant()));
+                } catch (IOException e) {
+                    // Removed while walking
+                }
+            });
+        } catch (IOException | UncheckedIOException e) {
+            log.warn("Could not list diagrams in {}: {}", root, e.getMessage());
+            return;
+        }
+
+        long total = files.stream().mapToLong(StoredFile::size).sum();
+        int remaining = files.size();
+        int removed = 0;
+        long removedBytes = 0;
+        files.sort(Comparator.comparing(StoredFile::modifiedAt));
+        for (StoredFile file : files) {
+            boolean due = file.path().getFileName().toString().endsWith(TEMP_SUFFIX)
+                    // Temporary files are only removed once abandoned, never while being written
+                    ? file.modifiedAt().isBefore(now.minus(ABANDONED_TEMP_AGE))
+                    : file.modifiedAt().isBefore(cutoff) || total > maxBytes;
+            if (due && delete(file)) {
+                total -= file.size();
+                remaining--;
+                removed++;
+                removedBytes += file.size();
+            }
+        }
+
+        this.files.set(remaining);
+        bytes.set(total);
+        evicted.addAndGet(removed);
+        evictedBytes.addAndGet(removedBytes);
+        lastEviction = now;
+        if (removed > 0) {
+            log.info("Evicted {} diagram file(s), {} bytes; {} bytes remain in {}", removed, removedBytes, total, root);
+        }
+    }
+
+    @Override
+    public Stats stats() {
+        return new Stats((int) files.get(), bytes.get(), saved.get(), evicted.get(), evictedBytes.get(), lastEviction);
+    }
+
+    private void write(Path path, byte[] content) throws IOException {
+        Path tempFile = Files.createTempFile(root, "diagram-", TEMP_SUFFIX);
+        try {
+            Files.write(tempFile, content);
+            Files.move(tempFile, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+        files.incrementAndGet();
+        bytes.addAndGet(content.length);
+    }
+
+    private static boolean touch(Path path, Instant now) throws IOException {
+        try {
+            Files.setLastModifiedTime(path, FileTime.from(now));
+            return true;
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+
+    private static byte[] gzip(byte[] content) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(content.length / 4 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+            gzip.write(content);
+        }
+        return compressed.toByteArray();
+    }
+
+    private boolean delete(StoredFile file) {
+        try {
+            // Skip diagrams saved again since the directory was listed
+            if (Files.getLastModifiedTime(file.path()).toInstant().isAfter(file.modifiedAt())) {
+                return false;
+            }
+            Files.delete(file.path());
+            return true;
+        } catch (NoSuchFileException e) {
+            return false;
+        } catch (IOException e) {
+            log.warn("Could not delete diagram file {}: {}", file.path(), e.getMessage());
+            return false;
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.nitin.storage;
+
+import java.time.Instant;
+
+/**
+ * A diagram held by a {@link DiagramStore}.
+ *
+ * @param name     the content-hash name clients use to fetch it
+ * @param location where the store keeps it, such as a file path or an object URI
+ */
+public record StoredDiagram(String name, String location, long size, Instant storedAt) {
+
+    /**
+     * The SHA-256 of the content, as encoded in the name.
+     */
+    public String contentHash() {
+        return name.substring(0, name.indexOf('.'));
+    }
+}
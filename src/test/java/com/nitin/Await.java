@@ -0,0 +1,24 @@
+package com.nitin;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Polls for state that another thread reaches without signalling it, such as a caller blocking in a
+ * queue, failing the test after five seconds.
+ */
+public final class Await {
+
+    private Await() {
+    }
+
+    public static void until(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertThat(System.nanoTime()).as("condition not met within 5 s").isLessThan(deadline);
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.nitin.c4;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class C4ParserTest {
+
+    @Test
+    void reportsUnbalancedBraces() {
+        C4Model model = C4Parser.parse("""
+                @startuml
+                System_Boundary(shop, "Shop") {
+                    Container(api, "API", "Java")
+                @enduml""");
+
+        assertThat(model.syntaxProblems()).singleElement()
+                .satisfies(problem -> {
+                    assertThat(problem.isError()).isTrue();
+                    assertThat(problem.line()).isEqualTo(2);
+                    assertThat(problem.message()).contains("never closed");
+                });
+        assertThat(C4Parser.parse("@startuml\n}\n@enduml").syntaxProblems())
+                .extracting(C4Problem::message).containsExactly("'}' without a matching opening block");
+    }
+
+    @Test
+    void roundTripsThroughCanonicalPlantUml() {
+        C4Model model = C4Parser.parse("""
+                @startuml Shop
+                !include <C4/C4_Container>
+                ' The customer
+                Person(user,"User",$sprite="person")
+                System_Boundary(shop, "Shop") {
+                  Container(api, "API",
+                      "Java", $label)
+                  ContainerDb(db, "DB", "Postgres")
+                }
+                Rel(user, api, "Uses")
+                Rel(api, db, "Reads", $tags = "sync")
+                LAYOUT_WITH_LEGEND()
+                @enduml""");
+
+        String canonical = model.toPlantUml();
+
+        assertThat(canonical).isEqualTo("""
+                @startuml Shop
+                !include C4_Container.puml
+                Person(user, "User", $sprite="person")
+                System_Boundary(shop, "Shop") {
+                    Container(api, "API", "Java", $label)
+                    ContainerDb(db, "DB", "Postgres")
+                }
+                Rel(user, api, "Uses")
+                Rel(api, db, "Reads", $tags = "sync")
+                LAYOUT_WITH_LEGEND()
+                @enduml
+                """);
+        assertThat(C4Parser.parse(canonical).toPlantUml()).isEqualTo(canonical);
+    }
+}
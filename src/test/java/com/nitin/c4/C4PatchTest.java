@@ -0,0 +1,128 @@
+package com.nitin.c4;
+
+import com.nitin.service.C4ModelService;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+class C4PatchTest {
+
+    private static final String DIAGRAM = """
+            @startuml Shop
+            !include <C4/C4_Container>
+            Person(user, "User")
+            System_Boundary(shop, "Shop") {
+                Container(api, "API", "Java")
+                ContainerDb(db, "DB", "Postgres")
+                Rel(api, db, "Reads")
+            }
+            Rel(user, api, "Uses")
+            SHOW_LEGEND()
+            @enduml""";
+
+    @Test
+    void replacesAnElementByAlias() {
+        C4Model model = apply("+ Container(api, \"API\", \"Kotlin\")");
+
+        assertThat(model.elements()).filteredOn(element -> element.alias().equals("api")).singleElement()
+                .satisfies(element -> assertThat(element.arguments()).contains("\"Kotlin\"").doesNotContain("\"Java\""));
+        assertThat(model.toPlantUml()).contains("""
+                System_Boundary(shop, "Shop") {
+                    Container(api, "API", "Kotlin")
+                    ContainerDb(db, "DB", "Postgres")
+                """);
+    }
+
+    @Test
+    void replacesABoundaryKeepingItsChildren() {
+        C4Model model = apply("+ Enterprise_Boundary(shop, \"Web shop\")");
+
+        assertThat(model.toPlantUml()).contains("""
+                Enterprise_Boundary(shop, "Web shop") {
+                    Container(api, "API", "Java")
+                    ContainerDb(db, "DB", "Postgres")
+                    Rel(api, db, "Reads")
+                }
+                """).doesNotContain("System_Boundary");
+    }
+
+    @Test
+    void insertsIntoTheParentOrFallsBackToTheTopLevel() {
+        C4Patch patch = C4Patch.parse("""
+                + Container(cache, "Cache", "Redis") in shop
+                + Container(queue, "Queue", "Kafka") in billing
+                """);
+        C4Model model = patch.applyTo(C4Parser.parse(DIAGRAM));
+
+        assertThat(model.toPlantUml()).contains("""
+                Person(user, "User")
+                System_Boundary(shop, "Shop") {
+                    Container(api, "API", "Java")
+                    ContainerDb(db, "DB", "Postgres")
+                    Container(cache, "Cache", "Redis")
+                    Rel(api, db, "Reads")
+                }
+                Container(queue, "Queue", "Kafka")
+                Rel(user, api, "Uses")
+                """);
+        assertThat(model.syntaxProblems()).extracting(C4Problem::message)
+                .containsExactly("Unknown boundary billing in patch, added at the top level");
+    }
+
+    @Test
+    void removesTheRelationshipsOfARemovedElement() {
+        C4Model model = apply("- db");
+
+        assertThat(model.elements()).extracting(C4Model.Element::alias).containsExactly("user", "api");
+        assertThat(model.relationships()).extracting(C4Model.Relationship::from, C4Model.Relationship::to)
+                .containsExactly(tuple("user", "api"));
+    }
+
+    @Test
+    void removesABoundaryWithItsContentsAndTheirRelationships() {
+        C4Model model = apply("- shop");
+
+        assertThat(model.elements()).extracting(C4Model.Element::alias).containsExactly("user");
+        assertThat(model.relationships()).isEmpty();
+        assertThat(model.toPlantUml()).doesNotContain("shop");
+    }
+
+    @Test
+    void insertsBeforeTrailingStatements() {
+        C4Model model = apply("""
+                + Rel(api, user, "Notifies")
+                + System_Ext(mail, "Mail")
+                """);
+
+        assertThat(model.toPlantUml()).endsWith("""
+                Person(user, "User")
+                System_Boundary(shop, "Shop") {
+                    Container(api, "API", "Java")
+                    ContainerDb(db, "DB", "Postgres")
+                    Rel(api, db, "Reads")
+                }
+                System_Ext(mail, "Mail")
+                Rel(user, api, "Uses")
+                Rel(api, user, "Notifies")
+                SHOW_LEGEND()
+                @enduml
+                """);
+    }
+
+    @Test
+    void emptyPatchKeepsTheModelHash() {
+        C4ModelService service = new C4ModelService();
+
+        String patched = service.applyPatch(DIAGRAM, "' nothing changes\n");
+
+        assertThat(C4Patch.parse("' nothing changes\n").isEmpty()).isTrue();
+        assertThat(service.modelHash(patched)).isEqualTo(service.modelHash(DIAGRAM));
+    }
+
+    private static C4Model apply(String patch) {
+        C4Patch parsed = C4Patch.parse(patch);
+        assertThat(parsed.problems()).isEmpty();
+        return parsed.applyTo(C4Parser.parse(DIAGRAM));
+    }
+}
@@ -0,0 +1,55 @@
+package com.nitin.c4;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+class C4ValidatorTest {
+
+    @Test
+    void reportsUndefinedAliases() {
+        List<C4Problem> problems = validate("""
+                Person(user, "User")
+                Rel(user, api, "Uses")""");
+
+        assertThat(problems).extracting(C4Problem::line, C4Problem::message)
+                .containsExactly(tuple(3, "Rel refers to 'api', which is not defined"));
+    }
+
+    @Test
+    void reportsDuplicateAliases() {
+        List<C4Problem> problems = validate("""
+                Person(user, "User")
+                System(user, "Shop")""");
+
+        assertThat(problems).extracting(C4Problem::message)
+                .containsExactly("Alias 'user' is already defined on line 2");
+    }
+
+    @Test
+    void countsVariablesAsPositionalArguments() {
+        assertThat(validate("""
+                !$name = "User"
+                Person(user, $name)
+                System(shop, $label="Shop")""")).extracting(C4Problem::message)
+                .containsExactly("System needs at least 2 arguments, got 1");
+    }
+
+    @Test
+    void readsKeywordArgumentsOnlyWhenAssigned() {
+        assertThat(C4Model.isKeywordArgument("$tags=\"db\"")).isTrue();
+        assertThat(C4Model.isKeywordArgument(" $tags = \"db\"")).isTrue();
+        assertThat(C4Model.isKeywordArgument("$name")).isFalse();
+        assertThat(C4Model.isKeywordArgument("$a == $b")).isFalse();
+        assertThat(C4Model.isKeywordArgument("\"$x=1\"")).isFalse();
+        assertThat(C4Model.unquote("$name")).isEqualTo("$name");
+        assertThat(C4Model.unquote("$label=\"Shop\"")).isEqualTo("Shop");
+    }
+
+    private static List<C4Problem> validate(String body) {
+        return C4Validator.validate(C4Parser.parse("@startuml\n" + body + "\n@enduml"));
+    }
+}
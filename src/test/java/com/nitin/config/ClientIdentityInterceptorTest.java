@@ -0,0 +1,47 @@
+package com.nitin.config;
+
+import com.nitin.llm.LlmClientContext;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ClientIdentityInterceptorTest {
+
+    @AfterEach
+    void clear() {
+        LlmClientContext.clear();
+    }
+
+    @Test
+    void ignoresTheHeaderByDefault() {
+        assertThat(clientId(new ClientIdentityInterceptor(false, Set.of()), "10.0.0.7", "spoofed")).isEqualTo("10.0.0.7");
+    }
+
+    @Test
+    void honoursTheHeaderFromTrustedProxies() {
+        ClientIdentityInterceptor interceptor = new ClientIdentityInterceptor(false, Set.of("10.0.0.1"));
+        assertThat(clientId(interceptor, "10.0.0.1", "alice")).isEqualTo("alice");
+        assertThat(clientId(interceptor, "10.0.0.1", null)).isEqualTo("10.0.0.1");
+        assertThat(clientId(interceptor, "10.0.0.7", "alice")).isEqualTo("10.0.0.7");
+    }
+
+    @Test
+    void honoursTheHeaderFromEveryoneWhenTrusted() {
+        assertThat(clientId(new ClientIdentityInterceptor(true, Set.of()), "10.0.0.7", "alice")).isEqualTo("alice");
+    }
+
+    private static String clientId(ClientIdentityInterceptor interceptor, String remoteAddress, String header) {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setRemoteAddr(remoteAddress);
+        if (header != null) {
+            request.addHeader(ClientIdentityInterceptor.CLIENT_ID_HEADER, header);
+        }
+        interceptor.preHandle(request, new MockHttpServletResponse(), null);
+        return LlmClientContext.currentClientId();
+    }
+}
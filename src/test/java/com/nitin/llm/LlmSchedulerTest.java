@@ -0,0 +1,180 @@
+package com.nitin.llm;
+
+import com.nitin.Await;
+import com.nitin.exception.LlmOverloadedException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class LlmSchedulerTest {
+
+    private LlmScheduler scheduler = new LlmScheduler(1, 16, 2, Duration.ofSeconds(10), Duration.ofMillis(100));
+    private final ExecutorService clients = Executors.newCachedThreadPool();
+
+    @AfterEach
+    void tearDown() {
+        clients.shutdownNow();
+    }
+
+    @Test
+    void interruptedWaiterDoesNotKeepThePermit() throws Exception {
+        LlmScheduler.Permit held = scheduler.acquire("a");
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread waiter = Thread.ofPlatform().start(() -> {
+            try (LlmScheduler.Permit permit = scheduler.acquire("b")) {
+                failure.set(new AssertionError("Acquired a permit although interrupted"));
+            } catch (Throwable t) {
+                failure.set(t);
+            }
+        });
+        awaitQueued(1);
+
+        waiter.interrupt();
+        waiter.join(5000);
+        assertThat(failure.get()).isInstanceOf(LlmOverloadedException.class);
+        assertThat(scheduler.stats().queued()).isZero();
+
+        held.close();
+        CompletableFuture<LlmScheduler.Permit> next = CompletableFuture.supplyAsync(() -> scheduler.acquire("c"));
+        next.get(5, TimeUnit.SECONDS).close();
+        assertThat(scheduler.stats().available()).isEqualTo(1);
+    }
+
+    @Test
+    void releasedPermitGoesToTheNextWaiter() throws Exception {
+        LlmScheduler.Permit held = scheduler.acquire("a");
+        CompletableFuture<LlmScheduler.Permit> next = CompletableFuture.supplyAsync(() -> scheduler.acquire("b"));
+        awaitQueued(1);
+
+        held.close();
+        next.get(5, TimeUnit.SECONDS).close();
+        assertThat(scheduler.stats()).extracting(LlmScheduler.Stats::available, LlmScheduler.Stats::queued)
+                .containsExactly(1, 0);
+    }
+
+    @Test
+    void rejectsAClientOverItsQueueLimitWith429() throws Exception {
+        LlmScheduler.Permit held = scheduler.acquire("a");
+        CompletableFuture<LlmScheduler.Permit> first = queue("b");
+        CompletableFuture<LlmScheduler.Permit> second = queue("b");
+        awaitQueued(2);
+
+        assertThatThrownBy(() -> scheduler.acquire("b"))
+                .isInstanceOfSatisfying(LlmOverloadedException.class, e -> {
+                    assertThat(e.getStatus()).isEqualTo(HttpStatus.TOO_MANY_REQUESTS);
+                    assertThat(e.getRetryAfterSeconds()).isPositive();
+                });
+        CompletableFuture<LlmScheduler.Permit> other = queue("c");
+        awaitQueued(3);
+
+        drain(held, first, second, other);
+    }
+
+    @Test
+    void rejectsWhenTheQueueIsFullWith503() throws Exception {
+        scheduler = new LlmScheduler(1, 2, 2, Duration.ofSeconds(10), Duration.ofMillis(100));
+        LlmScheduler.Permit held = scheduler.acquire("a");
+        CompletableFuture<LlmScheduler.Permit> first = queue("b");
+        CompletableFuture<LlmScheduler.Permit> second = queue("c");
+        awaitQueued(2);
+
+        assertThatThrownBy(() -> scheduler.acquire("d"))
+                .isInstanceOfSatisfying(LlmOverloadedException.class,
+                        e -> assertThat(e.getStatus()).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE))
+                .hasMessageContaining("at capacity");
+
+        drain(held, first, second);
+    }
+
+    @Test
+    void rejectsWhenNotExpectedToStartInTimeWith503() throws Exception {
+        // Each generation is assumed to take 10 s until one is observed
+        scheduler = new LlmScheduler(1, 16, 2, Duration.ofSeconds(15), Duration.ofSeconds(10));
+        LlmScheduler.Permit held = scheduler.acquire("a");
+        CompletableFuture<LlmScheduler.Permit> first = queue("b");
+        awaitQueued(1);
+
+        // Behind the running generation and b's
+        assertThatThrownBy(() -> scheduler.acquire("c"))
+                .isInstanceOfSatisfying(LlmOverloadedException.class, e -> {
+                    assertThat(e.getStatus()).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE);
+                    assertThat(e.getRetryAfterSeconds()).isBetween(15L, 20L);
+                })
+                .hasMessageContaining("in time");
+
+        drain(held, first);
+    }
+
+    @Test
+    void servesWaitingClientsRoundRobin() throws Exception {
+        LlmScheduler.Permit held = scheduler.acquire("a");
+        List<String> served = new CopyOnWriteArrayList<>();
+        List<CompletableFuture<Void>> waiters = new CopyOnWriteArrayList<>();
+        String[][] arrivals = {{"b", "b1"}, {"b", "b2"}, {"c", "c1"}};
+        for (String[] arrival : arrivals) {
+            waiters.add(CompletableFuture.runAsync(() -> {
+                try (LlmScheduler.Permit permit = scheduler.acquire(arrival[0])) {
+                    served.add(arrival[1]);
+                }
+            }, clients));
+            awaitQueued(waiters.size());
+        }
+
+        held.close();
+        CompletableFuture.allOf(waiters.toArray(CompletableFuture[]::new)).get(5, TimeUnit.SECONDS);
+        assertThat(served).containsExactly("b1", "c1", "b2");
+    }
+
+    @Test
+    void queuesBackgroundWorkBeyondTheBoundsAndTheWaitBudget() throws Exception {
+        scheduler = new LlmScheduler(1, 1, 1, Duration.ofMillis(200), Duration.ofMillis(10));
+        LlmScheduler.Permit held = scheduler.acquire("a");
+        CompletableFuture<LlmScheduler.Permit> first = CompletableFuture.supplyAsync(() -> scheduler.acquire("jobs", true), clients);
+        CompletableFuture<LlmScheduler.Permit> second = CompletableFuture.supplyAsync(() -> scheduler.acquire("jobs", true), clients);
+        awaitQueued(2);
+
+        Thread.sleep(400);
+        assertThat(first).isNotDone();
+        assertThat(second).isNotDone();
+        // Background waiters leave the interactive queue bounds free
+        CompletableFuture<LlmScheduler.Permit> interactive = queue("b");
+        awaitQueued(3);
+
+        drain(held, first, second, interactive);
+    }
+
+    private CompletableFuture<LlmScheduler.Permit> queue(String clientId) {
+        return CompletableFuture.supplyAsync(() -> scheduler.acquire(clientId), clients);
+    }
+
+    /**
+     * Releases the held permit and every queued one in turn, leaving the scheduler idle.
+     */
+    @SafeVarargs
+    private void drain(LlmScheduler.Permit held, CompletableFuture<LlmScheduler.Permit>... queued) throws Exception {
+        CompletableFuture<?>[] released = new CompletableFuture<?>[queued.length];
+        for (int i = 0; i < queued.length; i++) {
+            released[i] = queued[i].thenAccept(LlmScheduler.Permit::close);
+        }
+        held.close();
+        CompletableFuture.allOf(released).get(5, TimeUnit.SECONDS);
+        assertThat(scheduler.stats()).extracting(LlmScheduler.Stats::available, LlmScheduler.Stats::queued)
+                .containsExactly(1, 0);
+    }
+
+    private void awaitQueued(int queued) throws InterruptedException {
+        Await.until(() -> scheduler.stats().queued() == queued);
+    }
+}
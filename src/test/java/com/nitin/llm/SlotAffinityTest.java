@@ -0,0 +1,45 @@
+package com.nitin.llm;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SlotAffinityTest {
+
+    private final SlotAffinity affinity = new SlotAffinity(2);
+
+    @Test
+    void keepsAConversationOnItsSlot() {
+        int slot;
+        try (SlotAffinity.Claim first = affinity.claim("c1")) {
+            slot = first.slot();
+        }
+        try (SlotAffinity.Claim second = affinity.claim("c1")) {
+            assertThat(second.slot()).isEqualTo(slot);
+        }
+    }
+
+    @Test
+    void spreadsNewConversationsOverIdleSlots() {
+        try (SlotAffinity.Claim first = affinity.claim("c1"); SlotAffinity.Claim second = affinity.claim("c2")) {
+            assertThat(first.slot()).isNotEqualTo(second.slot());
+            assertThat(affinity.claim("c3").slot()).isEqualTo(-1);
+        }
+    }
+
+    @Test
+    void leavesTheChoiceToLlamaCppWhileThePinnedSlotIsBusy() {
+        SlotAffinity.Claim first = affinity.claim("c1");
+        int slot = first.slot();
+        try (SlotAffinity.Claim busy = affinity.claim("c1")) {
+            assertThat(busy.slot()).isEqualTo(-1);
+        }
+
+        first.close();
+        first.close();
+        try (SlotAffinity.Claim again = affinity.claim("c1")) {
+            assertThat(again.slot()).isEqualTo(slot);
+        }
+        assertThat(affinity.claim(null).slot()).isEqualTo(-1);
+    }
+}
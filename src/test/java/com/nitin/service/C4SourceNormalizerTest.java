@@ -0,0 +1,161 @@
+package com.nitin.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class C4SourceNormalizerTest {
+
+    private static final String HEADER = """
+            !include C4_Context.puml
+            !include C4_Container.puml
+            LAYOUT_WITH_LEGEND()
+            HIDE_STEREOTYPE()
+            """;
+
+    @Test
+    void framesAndAddsIncludesForTheElementsUsed() {
+        C4SourceNormalizer.Result result = C4SourceNormalizer.normalize("""
+                Person(user, "User")
+                Container(api, "API", "Java")
+                Rel(user, api, "Uses")
+                """);
+
+        assertThat(result.source()).isEqualTo("@startuml\n" + HEADER + "\n"
+                + "Person(user, \"User\")\nContainer(api, \"API\", \"Java\")\nRel(user, api, \"Uses\")\n@enduml");
+        assertThat(result.elementKinds()).containsExactlyInAnyOrder(
+                C4SourceNormalizer.ElementKind.PERSON, C4SourceNormalizer.ElementKind.CONTAINER);
+        assertThat(result.diagramType()).isEqualTo(C4ModelService.C4DiagramType.CONTAINER);
+    }
+
+    @Test
+    void repairsSlashesAndDropsTheModelsIncludes() {
+        String source = """
+                @startuml
+                !include <C4_Container.puml>
+                Container/api, "API", "Java")
+                LAYOUT_TOP_DOWN()
+                @enduml""";
+
+        String normalized = C4SourceNormalizer.normalize(source).source();
+
+        assertThat(normalized).isEqualTo("""
+                @startuml
+                !include C4_Context.puml
+                !include C4_Container.puml
+
+
+                Container(api, "API", "Java")
+                LAYOUT_TOP_DOWN()
+                @enduml""");
+        assertThat(normalized).isEqualTo(legacyNormalize(source));
+    }
+
+    @Test
+    void reportsLinesOfTheOriginalSource() {
+        C4SourceNormalizer.Result result = C4SourceNormalizer.normalize("@startuml\nPerson(user, \"User\")\n@enduml");
+        int personLine = result.source().lines().toList().indexOf("Person(user, \"User\")") + 1;
+        assertThat(result.originalLine(personLine)).isEqualTo(2);
+    }
+
+    /**
+     * The old regex chain pushed a diagram name on the {@code @startuml} line below the header.
+     */
+    @Test
+    void keepsTheDiagramNameOnTheStartLine() {
+        String source = "@startuml Shop\nPerson(user, \"User\")\n@enduml";
+
+        assertThat(C4SourceNormalizer.normalize(source).source()).startsWith("@startuml Shop\n!include C4_Context.puml\n");
+        assertThat(legacyNormalize(source)).startsWith("@startuml\n!include C4_Context.puml\nLAYOUT_WITH_LEGEND()\nHIDE_STEREOTYPE()\n Shop\n");
+    }
+
+    /**
+     * The old regex chain framed a source opening with includes a second time.
+     */
+    @Test
+    void framesASourceOpeningWithIncludesOnce() {
+        String source = "!include C4_Context.puml\n@startuml\nPerson(user, \"User\")\n@enduml";
+
+        String normalized = C4SourceNormalizer.normalize(source).source();
+
+        assertThat(normalized).isEqualTo("@startuml\n!include C4_Context.puml\nLAYOUT_WITH_LEGEND()\nHIDE_STEREOTYPE()\n"
+                + "\nPerson(user, \"User\")\n@enduml");
+        assertThat(legacyNormalize(source).split("@startuml", -1)).hasSize(3);
+    }
+
+    /**
+     * Outside the two cases above, the single pass produces exactly what the regex chain did.
+     */
+    @Test
+    void matchesTheRegexChainOnGeneratedSources() {
+        String[] fragments = {
+                "Person(user, \"User\")", "Person_Ext(admin, \"Admin\")", "System(shop, \"Shop\")",
+                "Container(api, \"API\", \"Java\")", "Container/web_app, \"Web\", \"React\")",
+                "ContainerDb(db, \"DB\", \"Postgres\")", "Component(ctrl, \"Controller\", \"Spring\")",
+                "Component/repo, \"Repository\")", "component(lower, \"Lower case\")",
+                "Rel(user, api, \"Uses\", \"HTTPS\")", "Rel(api/db, \"bad\")", "path a/b, c",
+                "!include C4_Container.puml", "!include <C4_Component.puml>", "!INCLUDE c4_context.PUML",
+                "!include other.puml", "LAYOUT_LEFT_RIGHT()", "HIDE_STEREOTYPE()", "SHOW_LEGEND()",
+                "System_Boundary(b, \"Boundary\") {", "}", "' a comment", "", "   ", "\t",
+                "title Shop (v2)", "note right: Person( in a note",
+        };
+        Random random = new Random(42);
+        for (int run = 0; run < 20_000; run++) {
+            StringBuilder source = new StringBuilder();
+            boolean framed = random.nextBoolean();
+            if (framed) {
+                source.append(random.nextBoolean() ? "" : "\n  ").append("@startuml\n");
+            }
+            int lines = random.nextInt(12);
+            for (int i = 0; i < lines; i++) {
+                String fragment = fragments[random.nextInt(fragments.length)];
+                if (!framed && source.toString().isBlank() && fragment.startsWith("!")) {
+                    // A leading include is one of the two deliberate differences
+                    fragment = "Person(first, \"First\")";
+                }
+                source.append(fragment).append(random.nextInt(5) == 0 ? "\r\n" : "\n");
+            }
+            if (framed || random.nextBoolean()) {
+                source.append("@enduml");
+            }
+            source.append(random.nextBoolean() ? "\n" : "");
+
+            String input = source.toString();
+            assertThat(C4SourceNormalizer.normalize(input).source()).as("normalizing %s", input).isEqualTo(legacyNormalize(input));
+        }
+    }
+
+    /**
+     * C4ModelService.validateAndEnhanceC4Syntax before the single-pass normalizer.
+     */
+    private static String legacyNormalize(String c4Code) {
+        String enhanced = c4Code.trim();
+        enhanced = enhanced.replaceAll("([a-zA-Z]+)/([a-zA-Z0-9_]+),", "$1($2,");
+        enhanced = enhanced.replaceAll("(?i)!include\\s+<?C4_\\w+.puml>?", "");
+        if (!enhanced.startsWith("@startuml")) {
+            enhanced = "@startuml\n" + enhanced;
+        }
+        if (!enhanced.endsWith("@enduml")) {
+            enhanced = enhanced + "\n@enduml";
+        }
+        StringBuilder header = new StringBuilder();
+        boolean hasComponent = enhanced.contains("Component(");
+        boolean hasContainer = enhanced.contains("Container(");
+        boolean hasContext = enhanced.contains("System(") || enhanced.contains("Person(");
+        if (hasContext || hasContainer || hasComponent) {
+            header.append("!include C4_Context.puml\n");
+        }
+        if (hasContainer || hasComponent) {
+            header.append("!include C4_Container.puml\n");
+        }
+        if (hasComponent) {
+            header.append("!include C4_Component.puml\n");
+        }
+        if (!enhanced.contains("LAYOUT_") && !enhanced.contains("HIDE_STEREOTYPE")) {
+            header.append("LAYOUT_WITH_LEGEND()\nHIDE_STEREOTYPE()").append("\n");
+        }
+        return enhanced.replaceFirst("(?i)@startuml", "@startuml\n" + header);
+    }
+}
@@ -0,0 +1,81 @@
+package com.nitin.service;
+
+import com.nitin.dto.DesignResponse;
+import com.nitin.storage.DiagramStore;
+import com.nitin.storage.StoredDiagram;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class DesignResponseCacheTest {
+
+    private final DiagramStore diagramStore = mock(DiagramStore.class);
+    private DesignResponseCache cache;
+
+    @BeforeEach
+    void setUp() {
+        // Every request embeds the same, so any two requests of one context are near-duplicates
+        EmbeddingModel embeddingModel = segments -> Response.from(segments.stream()
+                .map(segment -> Embedding.from(new float[]{1, 0}))
+                .toList());
+        @SuppressWarnings("unchecked")
+        ObjectProvider<EmbeddingModel> provider = mock(ObjectProvider.class);
+        when(provider.getIfAvailable()).thenReturn(embeddingModel);
+        when(diagramStore.find(anyString()))
+                .thenAnswer(invocation -> Optional.of(new StoredDiagram(invocation.getArgument(0), "", 1, Instant.now())));
+
+        cache = new DesignResponseCache(provider, diagramStore);
+        ReflectionTestUtils.setField(cache, "enabled", true);
+        ReflectionTestUtils.setField(cache, "maxEntries", 10);
+        ReflectionTestUtils.setField(cache, "ttl", Duration.ofHours(1));
+        ReflectionTestUtils.setField(cache, "similarityThreshold", 0.95);
+    }
+
+    @Test
+    void checksOnlyTheChosenNearDuplicatesDiagrams() {
+        cache.put(messages("Context A", "Design a shop"), response("a.svg"));
+        cache.put(messages("Context B", "Design a shop"), response("b.svg"));
+
+        Optional<DesignResponse> hit = cache.lookup(messages("Context A", "Design a web shop"), "Design a web shop");
+
+        assertThat(hit).map(DesignResponse::getDiagramFilename).contains("a.svg");
+        verify(diagramStore).find("a.svg");
+        verify(diagramStore, never()).find("b.svg");
+    }
+
+    @Test
+    void dropsEntriesWhoseDiagramWasEvicted() {
+        cache.put(messages("Context A", "Design a shop"), response("a.svg"));
+        when(diagramStore.find("a.svg")).thenReturn(Optional.empty());
+
+        assertThat(cache.lookup(messages("Context A", "Design a shop"), "Design a shop")).isEmpty();
+        assertThat(cache.stats().entries()).isZero();
+    }
+
+    private static List<ChatMessage> messages(String system, String request) {
+        return List.of(SystemMessage.from(system), UserMessage.from(request));
+    }
+
+    private static DesignResponse response(String diagramFilename) {
+        return DesignResponse.builder().success(true).diagramFilename(diagramFilename).build();
+    }
+}
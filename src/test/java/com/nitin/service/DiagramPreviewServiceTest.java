@@ -0,0 +1,96 @@
+package com.nitin.service;
+
+import com.nitin.storage.StoredDiagram;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class DiagramPreviewServiceTest {
+
+    private final DiagramPreviewService service = new DiagramPreviewService();
+    private final C4ModelService c4ModelService = mock(C4ModelService.class);
+
+    @BeforeEach
+    void setUp() throws Exception {
+        when(c4ModelService.prepareForRendering(anyString())).thenAnswer(invocation -> invocation.getArgument(0));
+        PlantUmlService plantUmlService = mock(PlantUmlService.class);
+        when(plantUmlService.generatePreview(anyString()))
+                .thenReturn(new StoredDiagram("abc.svg", "abc.svg", 1, Instant.now()));
+        DiagramRenderExecutor renderExecutor = mock(DiagramRenderExecutor.class);
+        when(renderExecutor.stats()).thenReturn(new DiagramRenderExecutor.Stats(1, 0, 0, 0, 1, 0, 0, 0));
+
+        ReflectionTestUtils.setField(service, "c4ModelService", c4ModelService);
+        ReflectionTestUtils.setField(service, "plantUmlService", plantUmlService);
+        ReflectionTestUtils.setField(service, "renderExecutor", renderExecutor);
+        ReflectionTestUtils.setField(service, "enabled", true);
+        ReflectionTestUtils.setField(service, "debounce", Duration.ofMillis(10));
+        ReflectionTestUtils.setField(service, "threads", 1);
+        service.startExecutor();
+    }
+
+    @AfterEach
+    void tearDown() {
+        service.stopExecutor();
+    }
+
+    @Test
+    void closeDoesNotWaitForTheListener() throws Exception {
+        CountDownLatch reporting = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        DiagramPreviewService.Session session = service.open(preview -> {
+            reporting.countDown();
+            try {
+                // A slow client write
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        session.accept("```plantuml\n@startuml\nPerson(user, \"User\")\n");
+        assertThat(reporting.await(5, TimeUnit.SECONDS)).isTrue();
+
+        try {
+            CompletableFuture.runAsync(session::close).get(5, TimeUnit.SECONDS);
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    void joinsMultiLineCallsAndHoldsBackRelationshipsToMissingElements() {
+        DiagramPreviewService.Session session = service.open(preview -> { });
+        session.accept("""
+                ```plantuml
+                @startuml
+                System_Boundary(shop, "Shop") {
+                    Container(api, "API",
+                        "Java")
+                    Rel(api, db, "Reads")
+                    Rel(api, shop, "Part of")
+                """);
+
+        verify(c4ModelService, timeout(5000)).prepareForRendering("""
+                @startuml
+                System_Boundary(shop, "Shop") {
+                Container(api, "API", "Java")
+                Rel(api, shop, "Part of")
+                }
+                @enduml
+                """);
+        session.close();
+    }
+}
@@ -0,0 +1,39 @@
+package com.nitin.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PlantUmlFenceDetectorTest {
+
+    @Test
+    void splitsExplanationFromDiagramAcrossTokens() {
+        PlantUmlFenceDetector detector = new PlantUmlFenceDetector();
+        StringBuilder explanation = new StringBuilder();
+        for (String token : new String[]{"The system", " has two parts.\n``", "`plant", "uml\n@startuml\n", "Person(u, \"User\")"}) {
+            explanation.append(detector.accept(token));
+        }
+        assertThat(explanation.toString()).isEqualTo("The system has two parts.\n");
+        assertThat(detector.isInDiagram()).isTrue();
+        assertThat(detector.flush()).isEmpty();
+    }
+
+    @Test
+    void matchesMarkersIgnoringCase() {
+        PlantUmlFenceDetector detector = new PlantUmlFenceDetector();
+        StringBuilder explanation = new StringBuilder();
+        for (String token : new String[]{"Intro\n```Plant", "UML\n@startuml\nPerson(u, \"User\")\n"}) {
+            explanation.append(detector.accept(token));
+        }
+        assertThat(explanation.toString()).isEqualTo("Intro\n");
+        assertThat(detector.isInDiagram()).isTrue();
+    }
+
+    @Test
+    void releasesHeldBackTextWithoutDiagram() {
+        PlantUmlFenceDetector detector = new PlantUmlFenceDetector();
+        String emitted = detector.accept("No diagram here ``");
+        assertThat(emitted + detector.flush()).isEqualTo("No diagram here ``");
+        assertThat(detector.isInDiagram()).isFalse();
+    }
+}
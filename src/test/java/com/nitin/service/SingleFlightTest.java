@@ -0,0 +1,120 @@
+package com.nitin.service;
+
+import com.nitin.Await;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SingleFlightTest {
+
+    private final SingleFlight<String> flights = new SingleFlight<>("test-flight-", true);
+    private final ExecutorService callers = Executors.newCachedThreadPool();
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final AtomicInteger calls = new AtomicInteger();
+
+    @AfterEach
+    void tearDown() {
+        callers.shutdownNow();
+        flights.shutdown();
+    }
+
+    @Test
+    void callersArrivingDuringTheWorkShareItsResult() throws Exception {
+        Future<String> first = callers.submit(() -> flights.execute("key", blockingWork(() -> "result " + calls.get())));
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+        Future<String> second = callers.submit(() -> flights.execute("key", () -> "not run"));
+        Await.until(() -> flights.stats().coalesced() == 1);
+
+        release.countDown();
+
+        assertThat(first.get(5, TimeUnit.SECONDS)).isEqualTo("result 1");
+        assertThat(second.get(5, TimeUnit.SECONDS)).isEqualTo("result 1");
+        assertThat(flights.stats()).extracting(SingleFlight.Stats::executions, SingleFlight.Stats::coalesced,
+                SingleFlight.Stats::inFlight).containsExactly(1L, 1L, 0);
+    }
+
+    @Test
+    void everyWaiterGetsTheExceptionOfTheWork() throws Exception {
+        IOException failure = new IOException("LLM unreachable");
+        Callable<String> work = blockingWork(() -> {
+            throw failure;
+        });
+        Future<String> first = callers.submit(() -> flights.execute("key", work));
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+        Future<String> second = callers.submit(() -> flights.execute("key", work));
+        Await.until(() -> flights.stats().coalesced() == 1);
+
+        release.countDown();
+
+        for (Future<String> waiter : List.of(first, second)) {
+            assertThatThrownBy(() -> waiter.get(5, TimeUnit.SECONDS))
+                    .isInstanceOf(ExecutionException.class)
+                    .cause().isSameAs(failure);
+        }
+        assertThat(calls.get()).isEqualTo(1);
+    }
+
+    @Test
+    void finishedFlightIsForgotten() throws Exception {
+        Callable<String> work = () -> "result " + calls.incrementAndGet();
+
+        assertThat(flights.execute("key", work)).isEqualTo("result 1");
+        assertThat(flights.execute("key", work)).isEqualTo("result 2");
+        assertThat(flights.stats()).extracting(SingleFlight.Stats::executions, SingleFlight.Stats::coalesced,
+                SingleFlight.Stats::inFlight).containsExactly(2L, 0L, 0);
+    }
+
+    @Test
+    void workCarriesOnUntilTheLastWaiterLeaves() throws Exception {
+        CountDownLatch interrupted = new CountDownLatch(1);
+        Callable<String> work = () -> {
+            started.countDown();
+            try {
+                release.await();
+                return "result";
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+                throw e;
+            }
+        };
+        Future<String> first = callers.submit(() -> flights.execute("key", work));
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+        Future<String> second = callers.submit(() -> flights.execute("key", work));
+        Await.until(() -> flights.stats().coalesced() == 1);
+
+        first.cancel(true);
+        assertThat(interrupted.await(200, TimeUnit.MILLISECONDS)).isFalse();
+        assertThat(flights.stats().inFlight()).isEqualTo(1);
+
+        second.cancel(true);
+        assertThat(interrupted.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(flights.stats()).extracting(SingleFlight.Stats::cancelled, SingleFlight.Stats::inFlight)
+                .containsExactly(1L, 0);
+    }
+
+    /**
+     * Work that counts its call and signals {@code started}, then waits for {@code release}.
+     */
+    private Callable<String> blockingWork(Callable<String> result) {
+        return () -> {
+            calls.incrementAndGet();
+            started.countDown();
+            release.await();
+            return result.call();
+        };
+    }
+}